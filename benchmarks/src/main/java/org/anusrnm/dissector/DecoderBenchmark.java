@@ -0,0 +1,84 @@
+package org.anusrnm.dissector;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@code getInType} per field type, from hex text and from bytes, over a rotating set of values.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DecoderBenchmark {
+
+    private static final int VALUES = 1024;
+
+    @Param({"tod", "ztod", "parsd", "mins", "hhmm", "b", "n", "c"})
+    public String type;
+
+    private final String[] hex = new String[VALUES];
+    private ByteBuffer bytes;
+    private int length;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        switch (type) {
+            case "tod":
+                length = 8;
+                break;
+            case "ztod":
+                length = 4;
+                break;
+            case "b":
+            case "n":
+                length = 1;
+                break;
+            case "c":
+                length = 16;
+                break;
+            default:
+                length = 2;
+        }
+        Random random = new Random(7);
+        byte[] all = new byte[VALUES * length];
+        random.nextBytes(all);
+        for (int i = 0; i < all.length; i++) {
+            if (i % length == 0 && !type.equals("c")) {
+                all[i] &= 0x7F; // positive values, the common case in real records
+            }
+        }
+        bytes = ByteBuffer.wrap(all);
+        for (int i = 0; i < VALUES; i++) {
+            hex[i] = Dissector.toHexString(bytes, i * length, (i + 1) * length);
+        }
+    }
+
+    @Benchmark
+    public String fromHex() {
+        next = (next + 1) & (VALUES - 1);
+        return Dissector.getInType(hex[next], type);
+    }
+
+    @Benchmark
+    public String fromBytes() {
+        next = (next + 1) & (VALUES - 1);
+        return Dissector.getInType(bytes, next * length, (next + 1) * length, type);
+    }
+}
@@ -0,0 +1,75 @@
+package org.anusrnm.dissector;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The interpreter against the parser generated for the layout, on the shapes the generator
+ * supports: events only, one field extracted, and the text report.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class GeneratedParserBenchmark {
+
+    @Param({"FLAT", "COUNTER", "NESTED"})
+    public String shape;
+
+    @Param({"10", "200"})
+    public int size;
+
+    @Param({"false", "true"})
+    public boolean generated;
+
+    private Dissector dissector;
+    private ByteBuffer bytes;
+    private String path;
+    private final DissectionVisitor nothing = new DissectionVisitor() {
+    };
+
+    @Setup
+    public void setUp() throws Exception {
+        SyntheticLayouts layout = SyntheticLayouts.generate(SyntheticLayouts.Shape.valueOf(shape), size, 42);
+        Dissector interpreter = new Dissector(layout.layoutFile(), "d");
+        dissector = generated ? interpreter.withGeneratedParser() : interpreter;
+        if (generated && !dissector.hasGeneratedParser()) {
+            throw new IllegalStateException("No parser generated for " + shape);
+        }
+        bytes = ByteBuffer.wrap(layout.bytes);
+        Field last = dissector.getLayout().root.fields[dissector.getLayout().root.fields.length - 1];
+        path = last.name;
+        if (!interpreter.parseWith(bytes).equals(dissector.parseWith(bytes))) {
+            throw new IllegalStateException("Generated parser differs for " + shape);
+        }
+    }
+
+    @Benchmark
+    public int events() {
+        return dissector.parseWith(bytes, nothing);
+    }
+
+    @Benchmark
+    public Object extractOne() {
+        return dissector.extract(bytes, path);
+    }
+
+    @Benchmark
+    public String text() {
+        return dissector.parseWith(bytes);
+    }
+}
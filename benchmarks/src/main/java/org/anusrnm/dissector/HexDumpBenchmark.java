@@ -0,0 +1,79 @@
+package org.anusrnm.dissector;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hex dumps of long fields, from hex text and from bytes already in the platform charset, and
+ * appended in place as the text report does: translated by a code page whose characters take one
+ * or several platform bytes, and cut at 1 KB.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class HexDumpBenchmark {
+
+    @Param({"40", "1024", "16384"})
+    public int bytes;
+
+    private String hex;
+    private byte[] data;
+    private ByteBuffer buffer;
+    private final StringBuilder out = new StringBuilder();
+    private final HexDump truncated = HexDump.of(16, 1024);
+
+    @Setup
+    public void setUp() {
+        data = new byte[bytes];
+        new Random(3).nextBytes(data);
+        hex = SyntheticLayouts.hex(data);
+        buffer = ByteBuffer.wrap(data);
+    }
+
+    @Benchmark
+    public String fromHex() {
+        return Dissector.getHexDump(hex);
+    }
+
+    @Benchmark
+    public String fromBytes() {
+        return Dissector.getHexDumpWithOffset(data, 16);
+    }
+
+    @Benchmark
+    public int appendSingleByteCodePage() {
+        out.setLength(0);
+        HexDump.DEFAULT.append(out, buffer, 0, bytes, CodePage.DEFAULT);
+        return out.length();
+    }
+
+    @Benchmark
+    public int appendMultiByteCodePage() {
+        out.setLength(0);
+        HexDump.DEFAULT.append(out, buffer, 0, bytes, CodePage.of("cp037"));
+        return out.length();
+    }
+
+    @Benchmark
+    public int appendTruncated() {
+        out.setLength(0);
+        truncated.append(out, buffer, 0, bytes, CodePage.DEFAULT);
+        return out.length();
+    }
+}
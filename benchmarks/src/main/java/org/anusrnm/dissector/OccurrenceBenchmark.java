@@ -0,0 +1,85 @@
+package org.anusrnm.dissector;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reaching the last occurrence of a repeat: extracting it by dissecting everything before it,
+ * building the occurrence index of the record, and extracting it through a built index. The items
+ * of {@code COUNTER} have a fixed size, the records of {@code DISPATCH} do not.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class OccurrenceBenchmark {
+
+    @Param({"COUNTER", "DISPATCH"})
+    public String shape;
+
+    @Param({"500"})
+    public int size;
+
+    private Dissector dissector;
+    private ByteBuffer bytes;
+    private OccurrenceIndex index;
+    private String fullPath;
+    private String repeat;
+    private int occurrence;
+    private String fieldPath;
+
+    @Setup
+    public void setUp() throws Exception {
+        SyntheticLayouts.Shape layoutShape = SyntheticLayouts.Shape.valueOf(shape);
+        SyntheticLayouts layout = SyntheticLayouts.generate(layoutShape, size, 42);
+        dissector = new Dissector(layout.layoutFile(), "d");
+        bytes = ByteBuffer.wrap(layout.bytes);
+        index = dissector.occurrences(bytes);
+        if (layoutShape == SyntheticLayouts.Shape.COUNTER) {
+            int groups = index.count("group");
+            repeat = "group[" + groups + "]/item";
+            occurrence = index.count(repeat);
+            fullPath = repeat + "[" + occurrence + "]/Qty";
+            fieldPath = "item/Qty";
+        } else {
+            repeat = "rec";
+            occurrence = index.count(repeat);
+            fullPath = "rec[" + occurrence + "]/Version";
+            fieldPath = "rec/Version";
+        }
+        Map<String, String> scanned = dissector.extract(bytes, fullPath);
+        if (scanned.isEmpty() || !scanned.get(fullPath).equals(index.extract(repeat, occurrence, fieldPath).get(fieldPath))) {
+            throw new IllegalStateException("Indexed lookup differs for " + fullPath);
+        }
+    }
+
+    @Benchmark
+    public Object scan() {
+        return dissector.extract(bytes, fullPath);
+    }
+
+    @Benchmark
+    public Object buildIndex() {
+        return dissector.occurrences(bytes);
+    }
+
+    @Benchmark
+    public Object indexed() {
+        return index.extract(repeat, occurrence, fieldPath);
+    }
+}
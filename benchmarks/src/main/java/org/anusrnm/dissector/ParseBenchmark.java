@@ -0,0 +1,69 @@
+package org.anusrnm.dissector;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single threaded cost of one dissection per layout shape and size: the text report from hex and
+ * from bytes, and the engine alone with a visitor that does nothing.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ParseBenchmark {
+
+    @Param({"FLAT", "COUNTER", "NESTED", "DISPATCH"})
+    public String shape;
+
+    @Param({"10", "200"})
+    public int size;
+
+    private Dissector dissector;
+    private String hex;
+    private ByteBuffer bytes;
+    private final DissectionVisitor nothing = new DissectionVisitor() {
+    };
+
+    @Setup
+    public void setUp() throws Exception {
+        SyntheticLayouts generated = SyntheticLayouts.generate(SyntheticLayouts.Shape.valueOf(shape), size, 42);
+        dissector = new Dissector(generated.layoutFile(), "d");
+        hex = generated.hex;
+        bytes = ByteBuffer.wrap(generated.bytes);
+        int ret = dissector.parseWith(hex, nothing);
+        if (ret != 0) {
+            throw new IllegalStateException(String.format("Generated %s record does not parse: %d%n%s",
+                    shape, ret, dissector.parseWith(hex)));
+        }
+    }
+
+    @Benchmark
+    public String textFromHex() {
+        return dissector.parseWith(hex);
+    }
+
+    @Benchmark
+    public String textFromBytes() {
+        return dissector.parseWith(bytes);
+    }
+
+    @Benchmark
+    public int eventsFromBytes() {
+        return dissector.parseWith(bytes, nothing);
+    }
+}
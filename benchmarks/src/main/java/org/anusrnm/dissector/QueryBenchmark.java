@@ -0,0 +1,68 @@
+package org.anusrnm.dissector;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checking a record for a field value: searching its text report, as with grep, against
+ * {@link RecordQuery} matching the last field, and {@link RecordQuery} failing on the first field.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class QueryBenchmark {
+
+    @Param({"50"})
+    public int size;
+
+    private Dissector dissector;
+    private ByteBuffer bytes;
+    private String text;
+    private RecordQuery lastField;
+    private RecordQuery firstFails;
+
+    @Setup
+    public void setUp() throws Exception {
+        SyntheticLayouts layout = SyntheticLayouts.generate(SyntheticLayouts.Shape.FLAT, size, 42);
+        dissector = new Dissector(layout.layoutFile(), "d");
+        bytes = ByteBuffer.wrap(layout.bytes);
+        String last = "F" + (size - 1);
+        String value = dissector.extract(bytes, last).get(last);
+        text = last + " : ";
+        lastField = new RecordQuery(dissector, last + "=" + value);
+        firstFails = new RecordQuery(dissector, "F0=none", last + "=" + value);
+        if (!grep() || !lastField() || firstFails()) {
+            throw new IllegalStateException("Query differs from the report for " + last);
+        }
+    }
+
+    @Benchmark
+    public boolean grep() {
+        return dissector.parseWith(bytes.duplicate()).contains(text);
+    }
+
+    @Benchmark
+    public boolean lastField() {
+        return lastField.matches(bytes.duplicate());
+    }
+
+    @Benchmark
+    public boolean firstFails() {
+        return firstFails.matches(bytes.duplicate());
+    }
+}
@@ -0,0 +1,211 @@
+package org.anusrnm.dissector;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Generated {@code dsect} layouts and matching records for the benchmarks. Every shape takes a size
+ * (number of fields, items, nesting levels or records) and a seed, so runs are repeatable.
+ */
+final class SyntheticLayouts {
+
+    enum Shape {
+        /** One struc of {@code size} plain fields of all types. */
+        FLAT,
+        /** A counter of counters holding {@code size} items in total. */
+        COUNTER,
+        /** Length fields nested {@code size} levels deep, the outermost window holding 4 records. */
+        NESTED,
+        /** {@code size} records, each picking one of 64 versions and one of 64 groups. */
+        DISPATCH
+    }
+
+    private static final int ITEMS_PER_GROUP = 50;
+    private static final int DISPATCH_ENTRIES = 64;
+
+    final Path layout;
+    final String hex;
+    final byte[] bytes;
+
+    private SyntheticLayouts(Path layout, byte[] bytes) {
+        this.layout = layout;
+        this.bytes = bytes;
+        this.hex = hex(bytes);
+    }
+
+    File layoutFile() {
+        return layout.toFile();
+    }
+
+    static SyntheticLayouts generate(Shape shape, int size, long seed) throws IOException {
+        Random random = new Random(seed);
+        StringBuilder xml = new StringBuilder("<?xml version=\"1.0\" ?>\n<layout name=\"")
+                .append(shape).append("\" type=\"dsect\">\n");
+        Bytes data = new Bytes();
+        switch (shape) {
+            case FLAT:
+                flat(xml, data, random, size);
+                break;
+            case COUNTER:
+                counter(xml, data, random, size);
+                break;
+            case NESTED:
+                nested(xml, data, random, size);
+                break;
+            default:
+                dispatch(xml, data, random, size);
+        }
+        xml.append("</layout>\n");
+        Path dir = Files.createTempDirectory("dissector-bench");
+        Path layout = dir.resolve(shape.name().toLowerCase() + ".xml");
+        Files.writeString(layout, xml);
+        layout.toFile().deleteOnExit();
+        dir.toFile().deleteOnExit();
+        return new SyntheticLayouts(layout, data.toArray());
+    }
+
+    private static final String[][] FIELD_TYPES = {
+            {"C", "8"}, {"D", "2"}, {"B", "1"}, {"PARSD", "2"}, {"TOD", "8"},
+            {"ZTOD", "4"}, {"MINS", "2"}, {"HHMM", "2"}, {"N", "1"}, {"C", "40"}
+    };
+
+    private static void flat(StringBuilder xml, Bytes data, Random random, int size) {
+        for (int i = 0; i < size; i++) {
+            String[] type = FIELD_TYPES[i % FIELD_TYPES.length];
+            plainField(xml, data, random, "F" + i, type[0], Integer.parseInt(type[1]));
+        }
+    }
+
+    private static void plainField(StringBuilder xml, Bytes data, Random random, String name, String type, int length) {
+        xml.append(String.format("<field type=\"%s\" name=\"%s\" length=\"%d\"%s/>%n", type, name, length,
+                type.equals("B") ? " values=\"80=High,40=Mid,01=Low\"" : ""));
+        for (int i = 0; i < length; i++) {
+            // EBCDIC letters and digits for character fields, anything for the others
+            data.add(type.equals("C") ? 0xC1 + random.nextInt(9) : random.nextInt(type.equals("D") ? 128 : 256));
+        }
+    }
+
+    private static void counter(StringBuilder xml, Bytes data, Random random, int size) {
+        int groups = Math.max(1, Math.min(Dissector.MAX_COUNTER, (size + ITEMS_PER_GROUP - 1) / ITEMS_PER_GROUP));
+        int items = Math.min(ITEMS_PER_GROUP, size);
+        xml.append("<field type=\"D\" name=\"Groups\" length=\"2\" kind=\"counter\" for=\"group\"/>\n")
+                .append("<struc name=\"group\">\n")
+                .append("<field type=\"C\" name=\"GroupId\" length=\"2\"/>\n")
+                .append("<field type=\"D\" name=\"Items\" length=\"2\" kind=\"counter\" for=\"item\"/>\n")
+                .append("<struc name=\"item\">\n");
+        StringBuilder itemXml = new StringBuilder();
+        data.add(groups >> 8).add(groups);
+        for (int g = 0; g < groups; g++) {
+            data.add(0xC7).add(0xF0 + g % 10).add(items >> 8).add(items);
+            for (int i = 0; i < items; i++) {
+                itemXml.setLength(0);
+                plainField(itemXml, data, random, "Code", "C", 4);
+                plainField(itemXml, data, random, "Qty", "D", 2);
+                plainField(itemXml, data, random, "Flags", "B", 1);
+                plainField(itemXml, data, random, "Start", "HHMM", 2);
+            }
+        }
+        xml.append(itemXml).append("</struc>\n</struc>\n");
+    }
+
+    private static void nested(StringBuilder xml, Bytes data, Random random, int depth) {
+        Bytes record = new Bytes();
+        nestedLevel(xml, record, random, 1, Math.max(1, depth));
+        Bytes outer = new Bytes();
+        for (int i = 0; i < 4; i++) {
+            outer.add(record.toArray());
+        }
+        int length = outer.size();
+        data.add(length >> 8).add(length).add(outer.toArray());
+    }
+
+    private static void nestedLevel(StringBuilder xml, Bytes data, Random random, int level, int depth) {
+        if (level == 1) {
+            xml.append("<field type=\"D\" name=\"Len0\" length=\"2\" kind=\"length\" for=\"s1\"/>\n");
+        }
+        xml.append(String.format("<struc name=\"s%d\">%n", level));
+        plainField(xml, data, random, "Tag" + level, "C", 4);
+        plainField(xml, data, random, "Stamp" + level, "TOD", 8);
+        if (level < depth) {
+            Bytes inner = new Bytes();
+            StringBuilder innerXml = new StringBuilder();
+            xml.append(String.format("<field type=\"D\" name=\"Len%d\" length=\"2\" kind=\"length\" for=\"s%d\"/>%n",
+                    level, level + 1));
+            nestedLevel(innerXml, inner, random, level + 1, depth);
+            data.add(inner.size() >> 8).add(inner.size()).add(inner.toArray());
+            xml.append(innerXml);
+        }
+        xml.append("</struc>\n");
+    }
+
+    private static void dispatch(StringBuilder xml, Bytes data, Random random, int size) {
+        int records = Math.max(1, Math.min(Dissector.MAX_COUNTER, size));
+        xml.append("<field type=\"D\" name=\"Records\" length=\"2\" kind=\"counter\" for=\"rec\"/>\n")
+                .append("<struc name=\"rec\">\n")
+                .append("<field type=\"D\" name=\"Version\" length=\"2\" kind=\"version\"/>\n");
+        for (int v = 0; v < DISPATCH_ENTRIES; v++) {
+            xml.append(String.format("<version name=\"%04X\">%n", v))
+                    .append("<field type=\"C\" name=\"VCode\" length=\"3\"/>\n")
+                    .append("<field type=\"ZTOD\" name=\"VTime\" length=\"4\"/>\n")
+                    .append("</version>\n");
+        }
+        xml.append("<field type=\"B\" name=\"Region\" length=\"1\" kind=\"group\"/>\n");
+        for (int g = 0; g < DISPATCH_ENTRIES; g++) {
+            xml.append(String.format("<group name=\"%02X\" alias=\"Region%d\">%n", g, g))
+                    .append("<field type=\"C\" name=\"Country\" length=\"2\"/>\n")
+                    .append("</group>\n");
+        }
+        xml.append("</struc>\n");
+        data.add(records >> 8).add(records);
+        StringBuilder ignored = new StringBuilder();
+        for (int r = 0; r < records; r++) {
+            int version = random.nextInt(DISPATCH_ENTRIES);
+            data.add(version >> 8).add(version);
+            plainField(ignored, data, random, "VCode", "C", 3);
+            plainField(ignored, data, random, "VTime", "ZTOD", 4);
+            data.add(random.nextInt(DISPATCH_ENTRIES));
+            plainField(ignored, data, random, "Country", "C", 2);
+        }
+    }
+
+    static String hex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(String.format("%02X", b));
+        }
+        return sb.toString();
+    }
+
+    private static final class Bytes {
+
+        private byte[] data = new byte[256];
+        private int size;
+
+        Bytes add(int b) {
+            if (size == data.length) {
+                data = Arrays.copyOf(data, size * 2);
+            }
+            data[size++] = (byte) b;
+            return this;
+        }
+
+        Bytes add(byte[] bytes) {
+            for (byte b : bytes) {
+                add(b);
+            }
+            return this;
+        }
+
+        int size() {
+            return size;
+        }
+
+        byte[] toArray() {
+            return Arrays.copyOf(data, size);
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package org.anusrnm.dissector;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records per second with one {@link Dissector} shared by 1, 4 and all available threads, and with
+ * {@link BatchDissector} on the common pool. Near linear scaling is the goal.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ThroughputBenchmark {
+
+    private static final int BATCH = 1000;
+
+    @Param({"FLAT", "DISPATCH"})
+    public String shape;
+
+    @Param({"50"})
+    public int size;
+
+    private Dissector dissector;
+    private ByteBuffer record;
+    private BatchDissector batch;
+    private List<ByteBuffer> records;
+
+    @Setup
+    public void setUp() throws Exception {
+        SyntheticLayouts generated = SyntheticLayouts.generate(SyntheticLayouts.Shape.valueOf(shape), size, 42);
+        dissector = new Dissector(generated.layoutFile(), "d");
+        record = ByteBuffer.wrap(generated.bytes);
+        batch = new BatchDissector(dissector);
+        records = new ArrayList<>();
+        for (int i = 0; i < BATCH; i++) {
+            records.add(record.duplicate());
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public String oneThread() {
+        return dissector.parseWith(record);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public String fourThreads() {
+        return dissector.parseWith(record);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public String allThreads() {
+        return dissector.parseWith(record);
+    }
+
+    /**
+     * One operation is a batch of {@value #BATCH} records.
+     */
+    @Benchmark
+    @Threads(1)
+    public List<String> batchOnCommonPool() {
+        return batch.dissectBuffers(records);
+    }
+}
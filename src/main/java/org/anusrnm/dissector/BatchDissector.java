@@ -0,0 +1,154 @@
+package org.anusrnm.dissector;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Dissects many records in parallel with one shared {@link Dissector}. Results always come back in
+ * input order.
+ * <p>
+ * The {@code dissect} methods taking a collection split it into chunks, run the chunks on the executor
+ * and wait for all of them. The methods taking a stream keep at most {@code window} records in
+ * flight and hand out each report as soon as it and all reports before it are ready, so memory stays
+ * bounded however long the stream is.
+ */
+final class BatchDissector {
+
+    private final Dissector dissector;
+    private final Executor executor;
+    private final int parallelism;
+
+    /**
+     * Runs on the common fork-join pool.
+     */
+    BatchDissector(Dissector dissector) {
+        this(dissector, ForkJoinPool.commonPool(), ForkJoinPool.getCommonPoolParallelism());
+    }
+
+    /**
+     * Runs on the given executor; {@code parallelism} is the number of threads it is expected to
+     * keep busy and only determines the chunk size.
+     */
+    BatchDissector(Dissector dissector, Executor executor, int parallelism) {
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException(String.format("Invalid parallelism %d", parallelism));
+        }
+        this.dissector = dissector;
+        this.executor = executor;
+        this.parallelism = parallelism;
+    }
+
+    List<String> dissect(String... inputs) {
+        return dissect(Arrays.asList(inputs));
+    }
+
+    List<String> dissect(Collection<String> inputs) {
+        return all(new ArrayList<>(inputs), dissector::parseWith);
+    }
+
+    /**
+     * Dissects raw {@code dsect} records, e.g. the data of {@link DumpRecord}s.
+     */
+    List<String> dissectBuffers(Collection<ByteBuffer> inputs) {
+        return all(new ArrayList<>(inputs), dissector::parseWith);
+    }
+
+    Stream<String> dissect(Stream<String> inputs, int window) {
+        return windowed(inputs, window, dissector::parseWith);
+    }
+
+    Stream<String> dissectBuffers(Stream<ByteBuffer> inputs, int window) {
+        return windowed(inputs, window, dissector::parseWith);
+    }
+
+    private <T> List<String> all(List<T> inputs, Function<T, String> parse) {
+        int size = inputs.size();
+        String[] results = new String[size];
+        // A few chunks per thread keep the threads busy when some records take longer than others
+        int chunk = Math.max(1, (size + 4 * parallelism - 1) / (4 * parallelism));
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (int from = 0; from < size; from += chunk) {
+            int start = from;
+            int end = Math.min(size, from + chunk);
+            futures.add(CompletableFuture.runAsync(() -> {
+                for (int i = start; i < end; i++) {
+                    results[i] = parse.apply(inputs.get(i));
+                }
+            }, executor));
+        }
+        for (CompletableFuture<Void> future : futures) {
+            join(future);
+        }
+        return Arrays.asList(results);
+    }
+
+    private <T> Stream<String> windowed(Stream<T> inputs, int window, Function<T, String> parse) {
+        if (window <= 0) {
+            throw new IllegalArgumentException(String.format("Invalid window %d", window));
+        }
+        Iterator<T> source = inputs.iterator();
+        Iterator<String> results = new Iterator<>() {
+            private final ArrayDeque<CompletableFuture<String>> inFlight = new ArrayDeque<>(window);
+
+            private void fill() {
+                while (inFlight.size() < window && source.hasNext()) {
+                    T input = source.next();
+                    inFlight.add(CompletableFuture.supplyAsync(() -> parse.apply(input), executor));
+                }
+            }
+
+            @Override
+            public boolean hasNext() {
+                fill();
+                return !inFlight.isEmpty();
+            }
+
+            @Override
+            public String next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return join(inFlight.poll());
+            }
+        };
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(results, Spliterator.ORDERED), false)
+                .onClose(inputs::close);
+    }
+
+    /**
+     * Waits for the future and rethrows a failure of the dissection itself.
+     */
+    static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException ce) {
+            if (ce.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ce.getCause();
+            }
+            if (ce.getCause() instanceof Error) {
+                throw (Error) ce.getCause();
+            }
+            throw ce;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("BatchDissector[%s parallelism=%d]", dissector.getLayout(), parallelism);
+    }
+}
@@ -0,0 +1,94 @@
+package org.anusrnm.dissector;
+
+import java.util.Locale;
+
+/**
+ * A compiled container of fields: the layout itself, or one of its {@code struc}, {@code group},
+ * {@code version} and {@code head} elements. Nested strucs, groups and versions are kept in document
+ * order and indexed by name, so that lookups pick the same element as the DOM based search did.
+ */
+final class Block {
+
+    enum Kind {LAYOUT, STRUC, GROUP, VERSION, HEAD}
+
+    final Kind kind;
+    final String name;
+    final String alias;
+    final String include;
+    final Field[] fields;
+    final Block[] strucs;
+    final Block[] versions;
+    final Block[] groups;
+    final String[] includeNames;
+    /**
+     * Size of every occurrence of the block when it holds nothing but plain fields of a positive length,
+     * -1 when the size depends on the data. Repeats of fixed size strucs are reached by arithmetic,
+     * see {@link OccurrenceIndex}.
+     */
+    final long fixedSize;
+    private final NameIndex versionIndex;
+    private final NameIndex groupIndex;
+    Block[] includes = new Block[0];
+
+    Block(Kind kind, String name, String alias, String include, Field[] fields,
+          NameIndex strucs, NameIndex versions, NameIndex groups) {
+        this.kind = kind;
+        this.name = name;
+        this.alias = alias;
+        this.include = include;
+        this.fields = fields;
+        this.strucs = strucs.candidates();
+        this.versions = versions.candidates();
+        this.groups = groups.candidates();
+        this.includeNames = include.isEmpty() ? new String[0] : include.split(",");
+        this.versionIndex = versions;
+        this.groupIndex = groups;
+        this.fixedSize = fixedSize(fields);
+    }
+
+    private static long fixedSize(Field[] fields) {
+        long size = 0;
+        for (Field field : fields) {
+            if (field.kind != Field.Kind.PLAIN || field.lengthAttr.isEmpty() || field.invalidLength
+                    || field.invalidMinus || field.useForFiller || field.length <= 0) {
+                return -1;
+            }
+            size += field.length;
+        }
+        return fields.length == 0 ? -1 : size;
+    }
+
+    /**
+     * Resolves the {@code include} attribute of a version against its sibling versions. Entries that
+     * are not found stay {@code null}, empty entries are skipped at parse time.
+     */
+    void resolveIncludes(NameIndex siblings) {
+        Block[] resolved = new Block[includeNames.length];
+        for (int i = 0; i < includeNames.length; i++) {
+            resolved[i] = includeNames[i].isEmpty() ? null : siblings.startingWith(includeNames[i]);
+        }
+        includes = resolved;
+    }
+
+    /**
+     * Same semantics as {@link Dissector#getMatchingElement} with {@link Dissector#START}: the first
+     * version whose name, ignoring case, is a prefix of the text of the input range.
+     */
+    Block findVersion(Input input, int start, int end) {
+        return versionIndex.startingWith(input, start, end);
+    }
+
+    /**
+     * The first group whose name, ignoring case, is a prefix of the text of the input range, else the
+     * first group with an empty name.
+     */
+    Block findGroup(Input input, int start, int end) {
+        Block group = groupIndex.startingWith(input, start, end);
+        return group != null ? group : groupIndex.startingWith("");
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s[%s]", kind.name().toLowerCase(Locale.ROOT), name);
+    }
+}
@@ -0,0 +1,73 @@
+package org.anusrnm.dissector;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Input given as raw EBCDIC bytes of a {@code dsect} layout. Positions are buffer indexes; the
+ * buffer is only read with absolute gets, so heap, direct and mapped buffers all work in place.
+ */
+final class ByteInput extends Input {
+
+    private final ByteBuffer data;
+    private final CodePage codePage;
+
+    ByteInput(ByteBuffer data) {
+        this(data, CodePage.DEFAULT);
+    }
+
+    ByteInput(ByteBuffer data, CodePage codePage) {
+        super(1, data.position(), data.limit());
+        this.data = data;
+        this.codePage = codePage;
+    }
+
+    @Override
+    String text(int start, int end) {
+        return Dissector.toHexString(data, start, end);
+    }
+
+    @Override
+    void appendText(StringBuilder out, int start, int end) {
+        Dissector.appendHex(out, data, start, end);
+    }
+
+    @Override
+    char textAt(int start, int index) {
+        return Dissector.hexChar(data, start, index);
+    }
+
+    @Override
+    int textLength(int start, int end) {
+        return 2 * (end - start);
+    }
+
+    @Override
+    byte[] bytes(int start, int end) {
+        byte[] raw = new byte[end - start];
+        data.get(start, raw);
+        return raw;
+    }
+
+    @Override
+    int parseInt(int start, int end, int radix) {
+        if (radix == 16 && end > start && Dissector.fitsInt(data, start, end)) {
+            return (int) Dissector.toUnsigned(data, start, end);
+        }
+        return Integer.parseInt(text(start, end), radix);
+    }
+
+    @Override
+    String decode(int start, int end, String fieldType) {
+        return Dissector.getInType(data, start, end, fieldType, codePage);
+    }
+
+    @Override
+    boolean decodes(int start, int end, String fieldType) {
+        return Dissector.decodes(data, start, end, fieldType);
+    }
+
+    @Override
+    void appendHexDump(StringBuilder out, StreamingReport report, int start, int end, HexDump dump) {
+        dump.append(out, report, data, start, end, codePage);
+    }
+}
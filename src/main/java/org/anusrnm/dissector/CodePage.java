@@ -0,0 +1,158 @@
+package org.anusrnm.dissector;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Translation tables for an EBCDIC code page, built once and shared.
+ * <p>
+ * Character fields are shown by decoding the EBCDIC bytes, encoding the text again in the platform
+ * charset and replacing every byte outside printable ASCII with a dot. Single byte code pages map
+ * every byte on its own, so the whole chain is precomputed per byte value: the platform bytes for
+ * hex dumps and the safe text for character fields.
+ */
+final class CodePage {
+
+    static final String DEFAULT_NAME = "cp500";
+    private static final Map<String, CodePage> CODE_PAGES = new ConcurrentHashMap<>();
+    static final CodePage DEFAULT = of(DEFAULT_NAME);
+
+    private final String name;
+    private final byte[][] platformBytes = new byte[256][];
+    private final String[] safe = new String[256];
+    // Set when every byte translates to exactly one platform byte, which is the usual case
+    private final byte[] singleBytes;
+    private final char[] safeChars;
+
+    private CodePage(String name, Charset charset) {
+        this.name = name;
+        boolean single = true;
+        for (int b = 0; b < 256; b++) {
+            byte[] raw = {(byte) b};
+            platformBytes[b] = charset == null ? raw : new String(raw, charset).getBytes();
+            safe[b] = Dissector.getSafeString(platformBytes[b]);
+            single &= platformBytes[b].length == 1;
+        }
+        if (single) {
+            singleBytes = new byte[256];
+            safeChars = new char[256];
+            for (int b = 0; b < 256; b++) {
+                singleBytes[b] = platformBytes[b][0];
+                safeChars[b] = safe[b].charAt(0);
+            }
+        } else {
+            singleBytes = null;
+            safeChars = null;
+        }
+    }
+
+    /**
+     * Returns the tables of the named code page, e.g. {@code cp037}, {@code cp1047} or {@code cp500}.
+     */
+    static CodePage of(String name) {
+        String key = name.toLowerCase();
+        CodePage codePage = CODE_PAGES.get(key);
+        if (codePage == null) {
+            Charset charset;
+            if (Charset.isSupported(name)) {
+                charset = Charset.forName(name);
+            } else if (key.equals(DEFAULT_NAME)) {
+                charset = null; // bytes are shown as they are, as without the code page before
+            } else {
+                throw new IllegalArgumentException(String.format("Unsupported code page '%s'", name));
+            }
+            if (charset != null && (!charset.canEncode() || charset.newEncoder().maxBytesPerChar() != 1.0f)) {
+                throw new IllegalArgumentException(String.format("Code page '%s' is not a single byte code page", name));
+            }
+            codePage = new CodePage(key, charset);
+            CodePage existing = CODE_PAGES.putIfAbsent(key, codePage);
+            if (existing != null) {
+                codePage = existing;
+            }
+        }
+        return codePage;
+    }
+
+    String name() {
+        return name;
+    }
+
+    /**
+     * The platform byte of every EBCDIC byte, or {@code null} if some bytes translate to several.
+     */
+    byte[] singleBytes() {
+        return singleBytes;
+    }
+
+    /**
+     * The platform bytes of one EBCDIC byte. The array is shared and must not be changed.
+     */
+    byte[] platformBytes(int b) {
+        return platformBytes[b];
+    }
+
+    /**
+     * The bytes of the platform charset for the EBCDIC data.
+     */
+    byte[] toPlatform(byte[] data) {
+        if (singleBytes != null) {
+            byte[] result = new byte[data.length];
+            for (int i = 0; i < data.length; i++) {
+                result[i] = singleBytes[data[i] & 0xFF];
+            }
+            return result;
+        }
+        int length = 0;
+        for (byte b : data) {
+            length += platformBytes[b & 0xFF].length;
+        }
+        byte[] result = new byte[length];
+        int pos = 0;
+        for (byte b : data) {
+            byte[] mapped = platformBytes[b & 0xFF];
+            System.arraycopy(mapped, 0, result, pos, mapped.length);
+            pos += mapped.length;
+        }
+        return result;
+    }
+
+    /**
+     * Same as {@code Dissector.getSafeString(toPlatform(data))}.
+     */
+    String safeString(byte[] data) {
+        if (safeChars != null) {
+            char[] chars = new char[data.length];
+            for (int i = 0; i < data.length; i++) {
+                chars[i] = safeChars[data[i] & 0xFF];
+            }
+            return new String(chars);
+        }
+        StringBuilder sb = new StringBuilder(data.length);
+        for (byte b : data) {
+            sb.append(safe[b & 0xFF]);
+        }
+        return sb.toString();
+    }
+
+    String safeString(ByteBuffer data, int start, int end) {
+        if (safeChars != null) {
+            char[] chars = new char[end - start];
+            for (int i = start; i < end; i++) {
+                chars[i - start] = safeChars[data.get(i) & 0xFF];
+            }
+            return new String(chars);
+        }
+        StringBuilder sb = new StringBuilder(end - start);
+        for (int i = start; i < end; i++) {
+            sb.append(safe[data.get(i) & 0xFF]);
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,156 @@
+package org.anusrnm.dissector;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Writes dissections as CSV, one row per record and one column per field path.
+ * <p>
+ * Columns use the path syntax of {@link FieldExtractor}, so only the fields named by a column are
+ * decoded and a record is left as soon as every column has its value. A path without occurrences
+ * takes the first occurrence; columns not found in a record stay empty. Values are the converted
+ * values for {@code dsect} layouts, the record text otherwise, quoted as in RFC 4180 when needed.
+ */
+final class CsvReport extends StreamingReport {
+
+    private final List<String> columns;
+    private final FieldExtractor extractor;
+
+    CsvReport(List<String> columns) {
+        this(columns, null);
+    }
+
+    CsvReport(List<String> columns, ReportSink sink) {
+        super(sink);
+        this.columns = List.copyOf(columns);
+        this.extractor = new FieldExtractor(this.columns);
+    }
+
+    /**
+     * Every field path of the layout, in layout order, without occurrences. Strucs of external
+     * layouts are not followed, and groups without name or alias cannot be named in a path.
+     */
+    static List<String> columns(Layout layout) {
+        Set<String> paths = new LinkedHashSet<>();
+        addColumns(layout.root, "", paths);
+        return new ArrayList<>(paths);
+    }
+
+    private static void addColumns(Block block, String prefix, Set<String> paths) {
+        for (Field field : block.fields) {
+            if (field.kind != Field.Kind.FILLER || field.forName.isEmpty()) {
+                paths.add(prefix + field.name);
+            }
+            if (field.head != null && field.kind != Field.Kind.PLAIN && field.kind != Field.Kind.FILLER) {
+                addColumns(field.head, prefix, paths);
+            }
+            if (field.target != null) {
+                addColumns(field.target, prefix + field.target.name + "/", paths);
+            }
+            if (field.kind == Field.Kind.VERSION) {
+                addBlocks(block.versions, prefix, paths);
+            } else if (field.kind == Field.Kind.GROUP) {
+                addBlocks(block.groups, prefix, paths);
+            }
+        }
+    }
+
+    private static void addBlocks(Block[] blocks, String prefix, Set<String> paths) {
+        for (Block block : blocks) {
+            String name = block.name.isEmpty() ? block.alias : block.name;
+            if (name.isEmpty()) {
+                continue;
+            }
+            // included versions are entered inside the version including them
+            for (Block included : block.includes) {
+                if (included != null) {
+                    addColumns(included, prefix + name + "/" + included.name + "/", paths);
+                }
+            }
+            addColumns(block, prefix + name + "/", paths);
+        }
+    }
+
+    List<String> columns() {
+        return columns;
+    }
+
+    void header() {
+        for (int i = 0; i < columns.size(); i++) {
+            if (i > 0) {
+                res.append(',');
+            }
+            appendValue(columns.get(i));
+        }
+        res.append('\n');
+        spill();
+    }
+
+    /**
+     * Writes the row of the record just dissected and gets ready for the next one.
+     */
+    void endRecord() {
+        Map<String, String> values = extractor.values();
+        for (int i = 0; i < columns.size(); i++) {
+            if (i > 0) {
+                res.append(',');
+            }
+            String value = values.get(columns.get(i));
+            if (value != null) {
+                appendValue(value);
+            }
+        }
+        res.append('\n');
+        extractor.reset();
+        spill();
+    }
+
+    private void appendValue(String value) {
+        boolean quote = false;
+        for (int i = 0; i < value.length() && !quote; i++) {
+            char c = value.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            res.append(value);
+            return;
+        }
+        res.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"') {
+                res.append('"');
+            }
+            res.append(c);
+        }
+        res.append('"');
+    }
+
+    @Override
+    public boolean wants(Field field) {
+        return extractor.wants(field);
+    }
+
+    @Override
+    public boolean done() {
+        return extractor.done();
+    }
+
+    @Override
+    public void onField(Field field, long offset, FieldValue value) {
+        extractor.onField(field, offset, value);
+    }
+
+    @Override
+    public void onEnterStruc(Field field, Block block, long offset, long size, int occurrence, int count) {
+        extractor.onEnterStruc(field, block, offset, size, occurrence, count);
+    }
+
+    @Override
+    public void onExitStruc(Field field, Block block, int occurrence) {
+        extractor.onExitStruc(field, block, occurrence);
+    }
+}
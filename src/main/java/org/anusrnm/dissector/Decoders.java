@@ -0,0 +1,253 @@
+package org.anusrnm.dissector;
+
+import java.text.DateFormatSymbols;
+import java.text.DecimalFormatSymbols;
+import java.time.ZoneId;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Allocation-light versions of the date and time conversions in {@link Dissector}, using integer
+ * arithmetic and hand-written digits instead of {@code BigDecimal}, {@code Calendar} and
+ * {@code SimpleDateFormat}.
+ * <p>
+ * Each method returns {@code null} when it cannot guarantee the same text as the {@code Calendar}
+ * based conversion: negative values, a {@code parsd} date whose local midnight is within two days
+ * of an offset change of the default time zone, or a default locale without ASCII digits or with a
+ * non-Gregorian calendar. The caller then takes the slow path. Offsets come from the
+ * {@link TimeZone} of the default zone, so region zones with daylight saving time take the fast
+ * path too. The default zone is looked up once per dissection by {@link #lookUpZone()} rather than
+ * per value, since every lookup clones the default {@code TimeZone}. {@code ZoneRules} would not do: its offsets differ
+ * from those of {@code Calendar} for local mean time around 1900 and after 2037 in some zones.
+ */
+final class Decoders {
+
+    private static final long PARSD_BASE_DAY = -1460; // 02-Jan-1966
+    private static final long MICROS_PER_MINUTE = 60_000_000L;
+    private static final long NO_MIDNIGHT = Long.MIN_VALUE;
+    private static volatile Settings settings;
+
+    private Decoders() {
+    }
+
+    /**
+     * TOD clock value (the high 32 bits, units of 1.048576 s) as {@code dd-MMM-yyyy hh:mm:ss}.
+     */
+    static String tod(long tod) {
+        if (tod < 0) {
+            return null;
+        }
+        if (tod == 0) {
+            return "";
+        }
+        Settings current = dates();
+        if (current == null) {
+            return null;
+        }
+        // Same arithmetic as the BigDecimal version, in microseconds: the minutes are rounded up at
+        // the sixth decimal and truncated, the seconds are the truncated remainder
+        long micros = tod * 1_048_576L;
+        long minutes = ((micros + 59) / 60) / 1_000_000L;
+        long seconds = (micros % MICROS_PER_MINUTE) / 1_000_000L;
+        return current.todBase == NO_MIDNIGHT ? null : dateTime(current, current.todBase + minutes * 60 + seconds);
+    }
+
+    /**
+     * Minutes since 03-Jan-1966 as {@code dd-MMM-yyyy hh:mm:ss}.
+     */
+    static String ztod(int ztod) {
+        if (ztod < 0) {
+            return null;
+        }
+        if (ztod == 0) {
+            return "";
+        }
+        Settings current = dates();
+        if (current == null) {
+            return null;
+        }
+        return current.ztodBase == NO_MIDNIGHT ? null : dateTime(current, current.ztodBase + ztod * 60L);
+    }
+
+    /**
+     * Days since 02-Jan-1966 as {@code dd-MMM-yyyy}.
+     */
+    static String parsd(int parsd) {
+        if (parsd < 0) {
+            return null;
+        }
+        if (parsd == 0) {
+            return "";
+        }
+        Settings current = dates();
+        if (current == null) {
+            return null;
+        }
+        // Calendar adds days to the local midnight of the base date, which gives the local midnight of
+        // the target date unless an offset change is near it
+        if (current.parsdBase == NO_MIDNIGHT || midnight(current.timeZone, PARSD_BASE_DAY + parsd) == NO_MIDNIGHT) {
+            return null;
+        }
+        StringBuilder sb = new StringBuilder(11);
+        date(current, sb, PARSD_BASE_DAY + parsd);
+        return sb.toString();
+    }
+
+    /**
+     * {@code %02d:%02d} of hours and minutes.
+     */
+    static String hoursMinutes(int hh, int mm) {
+        if (hh < 0 || mm < 0 || !settings().asciiDigits) {
+            return null;
+        }
+        StringBuilder sb = new StringBuilder(5);
+        twoDigits(sb, hh);
+        sb.append(':');
+        twoDigits(sb, mm);
+        return sb.toString();
+    }
+
+    /**
+     * Whether {@code %d} prints ASCII digits in the default locale, i.e. the same as
+     * {@link StringBuilder#append(long)}.
+     */
+    static boolean asciiDigits() {
+        return settings().asciiDigits;
+    }
+
+    /**
+     * The instant in epoch seconds formatted in the default zone, like {@code SimpleDateFormat}.
+     */
+    private static String dateTime(Settings current, long epochSecond) {
+        long localSeconds = epochSecond + current.timeZone.getOffset(epochSecond * 1000) / 1000;
+        long day = Math.floorDiv(localSeconds, 86_400L);
+        int secondOfDay = (int) Math.floorMod(localSeconds, 86_400L);
+        StringBuilder sb = new StringBuilder(20);
+        date(current, sb, day);
+        int hour = secondOfDay / 3600 % 12;
+        sb.append(' ');
+        twoDigits(sb, hour == 0 ? 12 : hour);
+        sb.append(':');
+        twoDigits(sb, secondOfDay / 60 % 60);
+        sb.append(':');
+        twoDigits(sb, secondOfDay % 60);
+        return sb.toString();
+    }
+
+    /**
+     * Appends the epoch day as {@code dd-MMM-yyyy} of the proleptic Gregorian calendar.
+     */
+    private static void date(Settings current, StringBuilder sb, long epochDay) {
+        long z = epochDay + 719_468;
+        long era = Math.floorDiv(z, 146_097);
+        long doe = z - era * 146_097;
+        long yoe = (doe - doe / 1460 + doe / 36_524 - doe / 146_096) / 365;
+        long doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+        long mp = (5 * doy + 2) / 153;
+        int dayOfMonth = (int) (doy - (153 * mp + 2) / 5 + 1);
+        int month = (int) (mp < 10 ? mp + 3 : mp - 9);
+        long year = yoe + era * 400 + (month <= 2 ? 1 : 0);
+        twoDigits(sb, dayOfMonth);
+        sb.append('-').append(current.shortMonths[month - 1]).append('-');
+        for (long pad = 1000; pad > 1 && year < pad; pad /= 10) {
+            sb.append('0');
+        }
+        sb.append(year);
+    }
+
+    private static void twoDigits(StringBuilder sb, int value) {
+        if (value < 10) {
+            sb.append('0');
+        }
+        sb.append(value);
+    }
+
+    /**
+     * The settings if dates can be formatted here, {@code null} otherwise.
+     */
+    private static Settings dates() {
+        Settings current = settings();
+        if (current.zone == null) {
+            lookUpZone();
+            current = settings();
+        }
+        return current.asciiDigits && current.gregorian ? current : null;
+    }
+
+    /**
+     * The local midnight a {@code Calendar} based conversion starts from, in epoch seconds.
+     */
+    private static long calendarMidnight(TimeZone zone, int year, int month, int dayOfMonth) {
+        GregorianCalendar calendar = new GregorianCalendar(zone);
+        calendar.clear();
+        calendar.set(year, month, dayOfMonth);
+        long millis = calendar.getTimeInMillis();
+        return millis % 1000 == 0 ? millis / 1000 : NO_MIDNIGHT;
+    }
+
+    /**
+     * The instant in epoch seconds of local midnight starting the epoch day, {@link #NO_MIDNIGHT}
+     * when the zone changes its offset within two days of it.
+     */
+    private static long midnight(TimeZone zone, long epochDay) {
+        long local = epochDay * 86_400_000L;
+        int offset = zone.getOffset(local);
+        long instant = local - offset;
+        if (zone.getOffset(instant) != offset || zone.getOffset(instant - 2 * 86_400_000L) != offset
+                || zone.getOffset(instant + 2 * 86_400_000L) != offset || offset % 1000 != 0) {
+            return NO_MIDNIGHT;
+        }
+        return instant / 1000;
+    }
+
+    /**
+     * Looks up the default zone, so that dates decoded from now on follow a change of it; the
+     * {@code TimeZone} and base midnights are computed again only when the zone changed.
+     */
+    static void lookUpZone() {
+        Settings current = settings();
+        // The same instance until the default zone is changed
+        ZoneId zone = ZoneId.systemDefault();
+        if (zone != current.zone) {
+            settings = new Settings(current.locale, zone);
+        }
+    }
+
+    private static Settings settings() {
+        Locale locale = Locale.getDefault(Locale.Category.FORMAT);
+        Settings current = settings;
+        if (current == null || current.locale != locale) {
+            current = new Settings(locale, current == null ? null : current.zone);
+            settings = current;
+        }
+        return current;
+    }
+
+    private static final class Settings {
+
+        final Locale locale;
+        final ZoneId zone;
+        final TimeZone timeZone;
+        // local midnights of the base dates in epoch seconds
+        final long todBase;
+        final long ztodBase;
+        final long parsdBase;
+        final boolean asciiDigits;
+        final boolean gregorian;
+        final String[] shortMonths;
+
+        Settings(Locale locale, ZoneId zone) {
+            this.locale = locale;
+            this.zone = zone;
+            this.timeZone = zone == null ? null : TimeZone.getTimeZone(zone);
+            this.todBase = zone == null ? NO_MIDNIGHT : calendarMidnight(timeZone, 1900, Calendar.JANUARY, 1);
+            this.ztodBase = zone == null ? NO_MIDNIGHT : calendarMidnight(timeZone, 1966, Calendar.JANUARY, 3);
+            this.parsdBase = zone == null ? NO_MIDNIGHT : midnight(timeZone, PARSD_BASE_DAY);
+            this.asciiDigits = DecimalFormatSymbols.getInstance(locale).getZeroDigit() == '0';
+            this.gregorian = Calendar.getInstance(locale) instanceof GregorianCalendar;
+            this.shortMonths = DateFormatSymbols.getInstance(locale).getShortMonths();
+        }
+    }
+}
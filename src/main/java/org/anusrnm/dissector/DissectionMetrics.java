@@ -0,0 +1,41 @@
+package org.anusrnm.dissector;
+
+/**
+ * Receives measurements of dissections; see {@link Dissector#withMetrics}. {@link MetricsRegistry}
+ * is the built-in implementation, other implementations can forward to a metrics library or open
+ * and close tracing spans in {@link #started} and {@link #finished}.
+ * <p>
+ * Calls are made on the dissecting thread, so implementations must be thread safe and cheap. A
+ * dissector without metrics makes none of these calls and does not read the clock.
+ */
+interface DissectionMetrics {
+
+    default void started(Layout layout) {
+    }
+
+    /**
+     * A dissection ended with the given code (0, or the code of the error that stopped it) after
+     * reading {@code length} units of input (bytes for {@code dsect} layouts).
+     */
+    default void finished(Layout layout, long nanos, long length, int code) {
+    }
+
+    /**
+     * A field was handled. For fields selecting strucs the time includes the strucs.
+     */
+    default void field(Layout layout, Field.Kind kind, long nanos) {
+    }
+
+    /**
+     * An error, warning or note with one of the codes in {@link Dissector} was reported.
+     */
+    default void message(Layout layout, int code) {
+    }
+
+    /**
+     * The external layout of a {@code filler for=} field was looked up, from the layout cache or by
+     * loading the file.
+     */
+    default void external(Layout layout, String fileName, long nanos, boolean found) {
+    }
+}
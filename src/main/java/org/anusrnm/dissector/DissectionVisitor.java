@@ -0,0 +1,58 @@
+package org.anusrnm.dissector;
+
+/**
+ * Receives the result of a dissection as a sequence of events instead of a formatted report.
+ * <p>
+ * Every field whose value was read produces {@link #onField}. Counter, length, group, version and
+ * {@code filler for=} fields are followed by the strucs they select, framed by balanced
+ * {@link #onEnterStruc}/{@link #onExitStruc} calls; so are {@code head} blocks. Problems are reported
+ * through {@link #onMessage} with one of the codes in {@link Dissector}.
+ * <p>
+ * {@link TextReport} is the visitor behind {@link Dissector#parseWith(String)}.
+ */
+interface DissectionVisitor {
+
+    /**
+     * Whether the value of {@code field} is of interest. Plain fields and fillers that are not wanted
+     * are skipped by length without being decoded or reported; fields that select strucs are always
+     * read and reported, but only decoded when wanted.
+     */
+    default boolean wants(Field field) {
+        return true;
+    }
+
+    /**
+     * Checked before every field; once it returns {@code true} the dissection stops.
+     */
+    default boolean done() {
+        return false;
+    }
+
+    /**
+     * A field was read at {@code offset}. The value is only valid during the call.
+     */
+    default void onField(Field field, long offset, FieldValue value) {
+    }
+
+    /**
+     * The struc selected by {@code field} is entered at {@code offset}.
+     * <p>
+     * Counters and the windows of length and {@code filler for=} fields first enter the struc with
+     * {@code occurrence} 0 and then once per repetition with {@code occurrence} 1, 2, ...; {@code count}
+     * is the counter value (0 when the number of repetitions is only known when the window is used up).
+     * {@code size} is the declared window size for length and filler fields, -1 otherwise. Groups,
+     * versions, included versions and heads are entered once with {@code occurrence} 0.
+     */
+    default void onEnterStruc(Field field, Block block, long offset, long size, int occurrence, int count) {
+    }
+
+    default void onExitStruc(Field field, Block block, int occurrence) {
+    }
+
+    /**
+     * An error, warning or note. {@code field} is set when the message takes the place of that field's
+     * {@link #onField} event, i.e. the field could not be reported; it is {@code null} otherwise.
+     */
+    default void onMessage(int code, Field field, long offset, String message) {
+    }
+}
@@ -1,22 +1,18 @@
 package org.anusrnm.dissector;
 
-import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 import org.xml.sax.SAXException;
 
-import javax.xml.XMLConstants;
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
 import java.io.File;
 import java.io.IOException;
-import java.io.UnsupportedEncodingException;
+import java.io.UncheckedIOException;
 import java.math.BigDecimal;
 import java.math.BigInteger;
 import java.math.RoundingMode;
-import java.nio.file.Path;
+import java.nio.ByteBuffer;
 import java.text.SimpleDateFormat;
 import java.util.*;
 
@@ -36,31 +32,115 @@ class Dissector {
     public static final String ZTOD = "ztod";
     public static final String MINS = "mins";
     public static final String HHMM = "hhmm";
+    public static final String CODEPAGE = "codepage";
     private static final String TOD_ADJUST = "1.048576";
-    private static final int MAX_COUNTER = 500;
-    private final Document doc;
-    private final String layoutType;
-    private final String layoutDir;
+    private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+    static final int MAX_COUNTER = 500;
+    /**
+     * Default limit of nested strucs, groups, versions and heads in one dissection.
+     */
+    static final int MAX_DEPTH = 1000;
+    /** Codes passed to {@link DissectionVisitor#onMessage}; negative codes other than warnings stop the parse. */
+    static final int NOTE = 0;
+    static final int STOPPED = 1;
+    static final int E_NESTED = -1;
+    static final int E_COUNTER = -2;
+    static final int E_STRUC_NOT_FOUND = -3;
+    static final int E_VERSION_NOT_FOUND = -4;
+    static final int E_GROUP_NOT_FOUND = -5;
+    static final int E_EXTERNAL_NOT_FOUND = -6;
+    static final int E_LENGTH_STRUC_NOT_FOUND = -9;
+    static final int E_INVALID = -10;
+    static final int W_SHORT_VALUE = -11;
+    static final int W_NO_FIELDS = -12;
+    static final int E_TOO_DEEP = -13;
+    private final Layout layout;
     private final String formatting;
-    private StringBuilder res;
-    private String inputStr;
-    private long displ = 0;
-    private long fillerLen = -1;
-    private boolean trackLen = false;
-    private long useFieldLen = 0;
+    private final DissectionMetrics metrics;
+    private final int maxDepth;
+    private final SpecializedParser generated;
+    private final HexDump hexDump;
 
     Dissector(File layout) throws IOException, SAXException, ParserConfigurationException {
         this(layout, "");
     }
 
     Dissector(File layout, String formatting) throws IOException, SAXException, ParserConfigurationException {
+        this(LayoutCache.shared().get(layout), formatting);
+    }
+
+    Dissector(Layout layout, String formatting) {
+        this(layout, formatting, null, MAX_DEPTH);
+    }
+
+    Dissector(Layout layout, String formatting, DissectionMetrics metrics, int maxDepth) {
+        this(layout, formatting, metrics, maxDepth, null, HexDump.DEFAULT);
+    }
+
+    private Dissector(Layout layout, String formatting, DissectionMetrics metrics, int maxDepth,
+                      SpecializedParser generated, HexDump hexDump) {
+        this.layout = layout;
         this.formatting = formatting;
-        layoutDir = layout.getParent();
-        doc = getDocument(layout);
-        layoutType = doc.getDocumentElement().getAttribute("type");
+        this.metrics = metrics;
+        this.maxDepth = maxDepth;
+        this.generated = generated;
+        this.hexDump = hexDump;
+    }
+
+    Layout getLayout() {
+        return layout;
+    }
+
+    /**
+     * A dissector for the same layout and formatting that reports every dissection to the metrics;
+     * {@code null} turns measuring off again.
+     */
+    Dissector withMetrics(DissectionMetrics metrics) {
+        return new Dissector(layout, formatting, metrics, maxDepth, generated, hexDump);
+    }
+
+    /**
+     * A dissector that stops with {@link #E_TOO_DEEP} when strucs, groups, versions and heads are
+     * nested more than {@code maxDepth} levels deep, e.g. through an external layout including
+     * itself. The default is {@value #MAX_DEPTH}.
+     */
+    Dissector withMaxDepth(int maxDepth) {
+        if (maxDepth < 0) {
+            throw new IllegalArgumentException("maxDepth must not be negative: " + maxDepth);
+        }
+        return new Dissector(layout, formatting, metrics, maxDepth, generated, hexDump);
+    }
+
+    /**
+     * A dissector that dissects bytes with a parser generated for the layout, see
+     * {@link ParserGenerator}. The results are the same; layouts the generator does not support,
+     * hex input and dissections with metrics keep using the interpreter.
+     */
+    Dissector withGeneratedParser() {
+        return generated != null ? this
+                : new Dissector(layout, formatting, metrics, maxDepth, ParserGenerator.generate(layout), hexDump);
+    }
+
+    /**
+     * A dissector whose text reports show long values and fillers as the dump renders them, e.g.
+     * {@code HexDump.of(32, 4096)} for 32 bytes per line and at most 4 KB per value.
+     */
+    Dissector withHexDump(HexDump hexDump) {
+        return new Dissector(layout, formatting, metrics, maxDepth, generated, hexDump);
+    }
+
+    /**
+     * Whether bytes are dissected by a generated parser.
+     */
+    boolean hasGeneratedParser() {
+        return generated != null;
     }
 
     public static String getInType(String fieldValue, String fieldType) {
+        return getInType(fieldValue, fieldType, CodePage.DEFAULT);
+    }
+
+    static String getInType(String fieldValue, String fieldType, CodePage codePage) {
         String fieldValueInType;
         if (fieldValue.isEmpty()) {
             throw new IllegalArgumentException("empty input");
@@ -76,8 +156,7 @@ class Dissector {
                 fieldValueInType = convertToZTOD(fieldValue);
                 break;
             case MINS:
-                int mins = Integer.parseInt(fieldValue, 16);
-                fieldValueInType = String.format("%02d:%02d", mins / 60, mins % 60);
+                fieldValueInType = convertToMins(Integer.parseInt(fieldValue, 16));
                 break;
             case HHMM:
                 fieldValueInType = convertToHHMM(fieldValue);
@@ -98,7 +177,7 @@ class Dissector {
                 break;
             default:
                 try {
-                    fieldValueInType = getSafeString(fieldValue);
+                    fieldValueInType = codePage.safeString(hexStringToBytes(fieldValue));
                 } catch (Exception ue) {
                     fieldValueInType = fieldValue;
                 }
@@ -106,24 +185,231 @@ class Dissector {
         return fieldValueInType;
     }
 
+    /**
+     * Decodes the bytes {@code [start, end)} of {@code data} like {@link #getInType(String, String)} does
+     * for their hex text, without producing the hex text. Values the fast paths do not cover (too short,
+     * too long for an int) go through the hex text so that results and exceptions stay the same.
+     */
+    public static String getInType(ByteBuffer data, int start, int end, String fieldType) {
+        return getInType(data, start, end, fieldType, CodePage.DEFAULT);
+    }
+
+    static String getInType(ByteBuffer data, int start, int end, String fieldType, CodePage codePage) {
+        switch (fieldType.toLowerCase()) {
+            case PARSD:
+                return decodeParsd(data, start, end, codePage);
+            case TOD:
+                return decodeTod(data, start, end, codePage);
+            case ZTOD:
+                return decodeZtod(data, start, end, codePage);
+            case MINS:
+                return decodeMins(data, start, end, codePage);
+            case HHMM:
+                return decodeHhmm(data, start, end, codePage);
+            case "b":
+                return decodeBits(data, start, end, codePage);
+            case "d":
+                return decodeDecimal(data, start, end, codePage);
+            case "n":
+                return decodeNibbles(data, start, end, codePage);
+            default:
+                return decodeText(data, start, end, codePage);
+        }
+    }
+
+    // One method per case of getInType, so that callers knowing the type up front skip the dispatch;
+    // empty values throw from the hex text path
+
+    static String decodeParsd(ByteBuffer data, int start, int end, CodePage codePage) {
+        if (end - start >= 2 && fitsInt(data, start, end)) {
+            return convertToParsDate((int) toUnsigned(data, start, end));
+        }
+        return getInType(toHexString(data, start, end), PARSD, codePage);
+    }
+
+    static String decodeTod(ByteBuffer data, int start, int end, CodePage codePage) {
+        if (end - start >= 4) {
+            return convertToTOD(toUnsigned(data, start, start + 4));
+        }
+        return getInType(toHexString(data, start, end), TOD, codePage);
+    }
+
+    static String decodeZtod(ByteBuffer data, int start, int end, CodePage codePage) {
+        if (end - start >= 4) {
+            return convertToZTOD((int) toUnsigned(data, start, start + 4));
+        }
+        return getInType(toHexString(data, start, end), ZTOD, codePage);
+    }
+
+    static String decodeMins(ByteBuffer data, int start, int end, CodePage codePage) {
+        if (end > start && fitsInt(data, start, end)) {
+            return convertToMins((int) toUnsigned(data, start, end));
+        }
+        return getInType(toHexString(data, start, end), MINS, codePage);
+    }
+
+    static String decodeHhmm(ByteBuffer data, int start, int end, CodePage codePage) {
+        if (end - start >= 2) {
+            return convertToHHMM(data.get(start) & 0xFF, data.get(start + 1) & 0xFF);
+        }
+        return getInType(toHexString(data, start, end), HHMM, codePage);
+    }
+
+    static String decodeBits(ByteBuffer data, int start, int end, CodePage codePage) {
+        if (end > start && fitsUnsignedInt(data, start, end)) {
+            int b = (int) toUnsigned(data, start, end);
+            return String.format("%8s", Integer.toBinaryString((b + 256) % 256)).replace(' ', '0');
+        }
+        return getInType(toHexString(data, start, end), "b", codePage);
+    }
+
+    static String decodeDecimal(ByteBuffer data, int start, int end, CodePage codePage) {
+        if (end > start && fitsInt(data, start, end)) {
+            return String.valueOf(toUnsigned(data, start, end));
+        }
+        return getInType(toHexString(data, start, end), "d", codePage);
+    }
+
+    static String decodeNibbles(ByteBuffer data, int start, int end, CodePage codePage) {
+        if (end > start && fitsUnsignedInt(data, start, end)) {
+            byte n = (byte) toUnsigned(data, start, end);
+            return String.format("%d,%d", n >> 4, n & 0x0F);
+        }
+        return getInType(toHexString(data, start, end), "n", codePage);
+    }
+
+    static String decodeText(ByteBuffer data, int start, int end, CodePage codePage) {
+        if (end == start) {
+            throw new IllegalArgumentException("empty input");
+        }
+        return codePage.safeString(data, start, end);
+    }
+
+    /**
+     * Whether {@link #getInType(ByteBuffer, int, int, String)} succeeds for the bytes, without
+     * decoding them.
+     */
+    static boolean decodes(ByteBuffer data, int start, int end, String fieldType) {
+        int length = end - start;
+        if (length == 0) {
+            return false;
+        } else if (fieldType.equalsIgnoreCase("d") || fieldType.equalsIgnoreCase(MINS)) {
+            return fitsInt(data, start, end);
+        } else if (fieldType.equalsIgnoreCase(PARSD)) {
+            return length >= 2 && fitsInt(data, start, end);
+        } else if (fieldType.equalsIgnoreCase("b") || fieldType.equalsIgnoreCase("n")) {
+            return fitsUnsignedInt(data, start, end);
+        } else if (fieldType.equalsIgnoreCase(TOD) || fieldType.equalsIgnoreCase(ZTOD)) {
+            return length >= 4;
+        } else if (fieldType.equalsIgnoreCase(HHMM)) {
+            return length >= 2;
+        }
+        return true;
+    }
+
+    /**
+     * Whether {@link #decodes} holds for all values of {@code length} bytes.
+     */
+    static boolean alwaysDecodes(String fieldType, long length) {
+        if (length <= 0) {
+            return false;
+        } else if (fieldType.equalsIgnoreCase("d") || fieldType.equalsIgnoreCase(MINS)) {
+            return length < 4;
+        } else if (fieldType.equalsIgnoreCase(PARSD)) {
+            return length >= 2 && length < 4;
+        } else if (fieldType.equalsIgnoreCase("b") || fieldType.equalsIgnoreCase("n")) {
+            return length <= 4;
+        } else if (fieldType.equalsIgnoreCase(TOD) || fieldType.equalsIgnoreCase(ZTOD)) {
+            return length >= 4;
+        } else if (fieldType.equalsIgnoreCase(HHMM)) {
+            return length >= 2;
+        }
+        return true;
+    }
+
+    /**
+     * Whether {@code Integer.parseInt} of the hex text of these bytes would succeed.
+     */
+    static boolean fitsInt(ByteBuffer data, int start, int end) {
+        while (end - start > 4 && data.get(start) == 0) {
+            start++;
+        }
+        return end - start < 4 || (end - start == 4 && data.get(start) >= 0);
+    }
+
+    /**
+     * Whether {@code Integer.parseUnsignedInt} of the hex text of these bytes would succeed.
+     */
+    static boolean fitsUnsignedInt(ByteBuffer data, int start, int end) {
+        while (end - start > 4 && data.get(start) == 0) {
+            start++;
+        }
+        return end - start <= 4;
+    }
+
+    private static boolean isHex(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            if (Character.digit(value.charAt(i), 16) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static long toUnsigned(ByteBuffer data, int start, int end) {
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            value = (value << 8) | (data.get(i) & 0xFF);
+        }
+        return value;
+    }
+
     public static String convertToHHMM(String fieldValue) {
-        String fieldValueInType = "";
         if (fieldValue.length() < 4) {
             throw new IllegalArgumentException("minimum 4 hex chars are required");
         }
         int hh = Integer.parseInt(fieldValue.substring(0, 2), 16);
         int mm = Integer.parseInt(fieldValue.substring(2, 4), 16);
-        if (hh != 0 || mm != 0)
-            fieldValueInType = String.format("%02d:%02d", hh, mm);
+        return convertToHHMM(hh, mm);
+    }
+
+    static String convertToHHMM(int hh, int mm) {
+        String fieldValueInType = "";
+        if (hh != 0 || mm != 0) {
+            fieldValueInType = Decoders.hoursMinutes(hh, mm);
+            if (fieldValueInType == null) {
+                fieldValueInType = String.format("%02d:%02d", hh, mm);
+            }
+        }
+        return fieldValueInType;
+    }
+
+    static String convertToMins(int mins) {
+        String fieldValueInType = Decoders.hoursMinutes(mins / 60, mins % 60);
+        if (fieldValueInType == null) {
+            fieldValueInType = String.format("%02d:%02d", mins / 60, mins % 60);
+        }
         return fieldValueInType;
     }
 
     public static String convertToZTOD(String fieldValue) {
+        String ztod = fieldValue.substring(0, 8);
+        if (isHex(ztod)) {
+            return convertToZTOD(Integer.parseUnsignedInt(ztod, 16));
+        }
+        return convertToZTOD(new BigInteger(ztod, 16).intValue());
+    }
+
+    static String convertToZTOD(int ztod) {
+        String fast = Decoders.ztod(ztod);
+        return fast != null ? fast : convertToZTODByCalendar(ztod);
+    }
+
+    static String convertToZTODByCalendar(int ztod) {
         String fieldValueInType = "";
-        BigInteger ztod = new BigInteger(fieldValue.substring(0, 8), 16);
-        if (ztod.intValue() != 0) {
+        if (ztod != 0) {
             Calendar cal = new GregorianCalendar(1966, Calendar.JANUARY, 3);
-            cal.add(Calendar.MINUTE, ztod.intValue());
+            cal.add(Calendar.MINUTE, ztod);
             Date newDate = cal.getTime();
             fieldValueInType = new SimpleDateFormat("dd-MMM-yyyy hh:mm:ss").format(newDate);
         }
@@ -131,13 +417,25 @@ class Dissector {
     }
 
     public static String convertToTOD(String fieldValue) {
-        String fieldValueInType = "";
         if (fieldValue.length() < 8) {
             throw new IllegalArgumentException("minimum 8 hex chars are required");
         }
-        BigInteger tod = new BigInteger(fieldValue.substring(0, 8), 16);
-        if (tod.intValue() != 0) {
-            BigDecimal actualSeconds = new BigDecimal(TOD_ADJUST).multiply(new BigDecimal(tod));
+        String tod = fieldValue.substring(0, 8);
+        if (isHex(tod)) {
+            return convertToTOD(Long.parseLong(tod, 16));
+        }
+        return convertToTOD(new BigInteger(tod, 16).longValue());
+    }
+
+    static String convertToTOD(long tod) {
+        String fast = Decoders.tod(tod);
+        return fast != null ? fast : convertToTODByCalendar(tod);
+    }
+
+    static String convertToTODByCalendar(long tod) {
+        String fieldValueInType = "";
+        if (tod != 0) {
+            BigDecimal actualSeconds = new BigDecimal(TOD_ADJUST).multiply(BigDecimal.valueOf(tod));
             BigDecimal minutes = actualSeconds.divide(new BigDecimal(60), RoundingMode.CEILING);
             BigDecimal seconds = actualSeconds.remainder(new BigDecimal(60));
             Calendar cal = new GregorianCalendar(1900, Calendar.JANUARY, 1);
@@ -150,11 +448,19 @@ class Dissector {
     }
 
     public static String convertToParsDate(String fieldValue) {
-        String fieldValueInType = "";
         if (fieldValue.length() < 4) {
             throw new IllegalArgumentException("minimum 4 hex chars are required");
         }
-        int parsd = Integer.parseInt(fieldValue, 16);
+        return convertToParsDate(Integer.parseInt(fieldValue, 16));
+    }
+
+    static String convertToParsDate(int parsd) {
+        String fast = Decoders.parsd(parsd);
+        return fast != null ? fast : convertToParsDateByCalendar(parsd);
+    }
+
+    static String convertToParsDateByCalendar(int parsd) {
+        String fieldValueInType = "";
         if (parsd != 0) {
             Calendar cal = new GregorianCalendar(1966, Calendar.JANUARY, 2);
             cal.add(Calendar.DATE, parsd);
@@ -260,40 +566,61 @@ class Dissector {
         int len = hexString.length();
         byte[] result = new byte[len / 2];
         for (int i = 0; i < len; i += 2) {
-            result[i / 2] = (byte) Integer.parseInt(hexString.substring(i, i + 2), 16);
+            int high = i + 1 < len ? Character.digit(hexString.charAt(i), 16) : -1;
+            int low = i + 1 < len ? Character.digit(hexString.charAt(i + 1), 16) : -1;
+            if (high < 0 || low < 0) {
+                // Odd length, signs and invalid digits: same result or exception as parseInt
+                result[i / 2] = (byte) Integer.parseInt(hexString.substring(i, i + 2), 16);
+            } else {
+                result[i / 2] = (byte) (high << 4 | low);
+            }
         }
         return result;
     }
 
-    public static String getHexDumpWithOffset(byte[] data, int lineLength) {
-        StringBuilder result = new StringBuilder();
-        int offset = 0;
-        while (offset < data.length) {
-            StringBuilder hexLine = new StringBuilder();
-            StringBuilder charLine = new StringBuilder();
-
-            for (int i = 0; i < lineLength && offset + i < data.length; i++) {
-                byte currentByte = data[offset + i];
-                String hexValue = String.format("%02X", currentByte);
+    public static String toHexString(ByteBuffer data, int start, int end) {
+        char[] hex = new char[2 * (end - start)];
+        for (int i = start, j = 0; i < end; i++) {
+            byte b = data.get(i);
+            hex[j++] = HEX_DIGITS[(b >> 4) & 0x0F];
+            hex[j++] = HEX_DIGITS[b & 0x0F];
+        }
+        return new String(hex);
+    }
 
-                hexLine.append(hexValue).append(" ");
-                charLine.append(Character.isISOControl((char) currentByte) ? '.' : (char) currentByte);
-            }
+    /**
+     * Character {@code index} of {@link #toHexString(ByteBuffer, int, int)} for a range from {@code start}.
+     */
+    static char hexChar(ByteBuffer data, int start, int index) {
+        byte b = data.get(start + index / 2);
+        return HEX_DIGITS[(index & 1) == 0 ? (b >> 4) & 0x0F : b & 0x0F];
+    }
 
-            result.append(String.format("%08X: %-48s %s%n", offset, hexLine, charLine));
-            offset += lineLength;
+    /**
+     * Appends the same text as {@link #toHexString(ByteBuffer, int, int)}.
+     */
+    static void appendHex(StringBuilder out, ByteBuffer data, int start, int end) {
+        for (int i = start; i < end; i++) {
+            byte b = data.get(i);
+            out.append(HEX_DIGITS[(b >> 4) & 0x0F]).append(HEX_DIGITS[b & 0x0F]);
         }
+    }
+
+    public static String getHexDumpWithOffset(byte[] data, int lineLength) {
+        StringBuilder result = new StringBuilder();
+        HexDump.classic(lineLength).append(result, ByteBuffer.wrap(data), 0, data.length, null);
         return result.toString();
     }
 
     public static String getHexDump(String hexString) {
-        byte[] data;
-        try {
-            data = new String(hexStringToBytes(hexString), "cp500").getBytes();
-        } catch (UnsupportedEncodingException ue) {
-            data = hexStringToBytes(hexString);
-        }
-        return getHexDumpWithOffset(data, 16);
+        return getHexDump(hexString, CodePage.DEFAULT);
+    }
+
+    static String getHexDump(String hexString, CodePage codePage) {
+        byte[] data = hexStringToBytes(hexString);
+        StringBuilder result = new StringBuilder();
+        HexDump.DEFAULT.append(result, ByteBuffer.wrap(data), 0, data.length, codePage);
+        return result.toString();
     }
 
     public static String getSafeString(byte[] data) {
@@ -305,470 +632,146 @@ class Dissector {
     }
 
     public static String getSafeString(String hexString) {
-        byte[] data;
-        try {
-            data = new String(hexStringToBytes(hexString), "cp500").getBytes();
-        } catch (UnsupportedEncodingException ue) {
-            data = hexStringToBytes(hexString);
-        }
-        return getSafeString(data);
+        return CodePage.DEFAULT.safeString(hexStringToBytes(hexString));
     }
 
-    private Document getDocument(File layout) throws ParserConfigurationException, SAXException, IOException {
-        DocumentBuilderFactory dbFactory = DocumentBuilderFactory.newInstance();
-        dbFactory.setAttribute(XMLConstants.ACCESS_EXTERNAL_DTD, "");
-        dbFactory.setAttribute(XMLConstants.ACCESS_EXTERNAL_SCHEMA, "");
-        DocumentBuilder dBuilder = dbFactory.newDocumentBuilder();
-        return dBuilder.parse(layout);
+    /**
+     * Dissects the input against this layout. Each call gets its own {@link ParseContext}, so one
+     * instance can serve concurrent callers.
+     */
+    String parseWith(String hexString) {
+        TextReport report = textReport(null);
+        parseWith(hexString, report);
+        return report.toString();
     }
 
-    private String getFieldValue(long fieldLength) {
-        return getFieldValue(fieldLength, true);
+    /**
+     * Dissects the input and reports the result to the visitor instead of building a text report.
+     * Returns 0, or the code of the error that stopped the parse.
+     */
+    int parseWith(String hexString, DissectionVisitor visitor) {
+        return new ParseContext(layout, new StringInput(hexString, layout.dsect ? 2 : 1, layout.codePage), visitor,
+                metrics, maxDepth).parse();
     }
 
-    private String getFieldValue(long fieldLength, boolean clearInput) {
-        String value;
-        if (layoutType.equalsIgnoreCase(DSECT)) {
-            fieldLength = fieldLength * 2;
-        }
-        if (fieldLength > 0 && inputStr.length() >= fieldLength) {
-            value = inputStr.substring(0, (int) fieldLength);
-            if (clearInput)
-                inputStr = inputStr.substring((int) fieldLength);
-        } else {
-            value = inputStr;
-            if (clearInput)
-                inputStr = "";
+    /**
+     * Streams the text report to the sink as it is produced instead of returning it. Returns 0, or
+     * the code of the error that stopped the parse.
+     */
+    int parseWith(String hexString, ReportSink sink) throws IOException {
+        TextReport report = textReport(sink);
+        try {
+            int ret = parseWith(hexString, report);
+            report.finish();
+            return ret;
+        } catch (UncheckedIOException uioe) {
+            throw uioe.getCause();
         }
-        return value;
     }
 
-    String parseWith(String hexString) {
-        res = new StringBuilder();
-        this.inputStr = hexString;
-        parseWith(doc.getDocumentElement());
-        return res.toString();
-    }
-
-    private int parseWith(Element parent) {
-        List<Element> fl = getChildElementsByTagName(parent, "field");
-        if (fl.isEmpty()) {
-            res.append(
-                    String.format("Warning: No fields found in the layout to parse %n%s%n", getFieldValue(-1)));
-        }
-        for (Element field : fl) {
-            String fieldName = field.getAttribute("name");
-            String fieldType = field.getAttribute("type");
-            String fieldKind = field.getAttribute("kind");
-            String fieldForAttr = field.getAttribute("for");
-            String fieldLength = field.getAttribute(LENGTH);
-            String fieldValuesAttr = field.getAttribute("values");
-            String fieldMinusAttr = field.getAttribute("minus");
-            var fieldMinusVal = 0;
-            if (!fieldMinusAttr.isEmpty()) {
-                try {
-                    fieldMinusVal = Integer.parseInt(fieldMinusAttr);
-                } catch (Exception any) {
-                    res.append(String.format("%nInvalid attribute (minus) for %s %n", fieldName));
-                    return -10;
-                }
-            }
-            int fieldLengthInt = 0;
-            if (!fieldKind.equalsIgnoreCase(FILLER)) {
-                try {
-                    fieldLengthInt = Integer.parseInt(fieldLength);
-                } catch (NumberFormatException nfe) {
-                    res.append(String.format("%nError: Invalid length attribute for %s%n", fieldName));
-                    return -10;
-                }
-            }
-            String temp;
-            if (formatting.equals("h")) {
-                temp = String.format("(%x.%s) %s", displ, fieldLength, fieldName);
-            } else if (formatting.equals("d")) {
-                temp = String.format("(%d.%s) %s", displ, fieldLength, fieldName);
-            } else {
-                temp = fieldName;
-            }
-            if (!fieldLength.isEmpty()) {
-                displ += fieldLengthInt;
-            }
-            String useForFiller = field.getAttribute("useForFiller");
-            if (!useForFiller.isEmpty()) {
-                trackLen = true;
-                fillerLen = 0;
-                try {
-                    useFieldLen = Integer.parseInt(getInType(getFieldValue(fieldLengthInt, false), "D"));
-                } catch (Exception inh) {
-                    res.append(String.format("%nError: Invalid Hex. %s%n", inh.getMessage()));
-                    return -2;
-                }
-            }
-            if (trackLen && !fieldLength.isEmpty()) {
-                fillerLen += fieldLengthInt;
-            }
-            StringBuilder outputString = new StringBuilder();
-            outputString.append(String.format("%35s : ", temp));
-            switch (fieldKind) {
-                case COUNTER:
-                    Integer x4 = handleCounter(parent, field, outputString, fieldLengthInt, fieldForAttr);
-                    if (x4 != null) return x4;
-                    break;
-                case VERSION:
-                    Integer x3 = handleVersion(parent, field, outputString, fieldLengthInt, fieldType);
-                    if (x3 != null) return x3;
-                    break;
-                case GROUP:
-                    Integer x2 = handleGroup(parent, field, outputString, fieldLengthInt, fieldType);
-                    if (x2 != null) return x2;
-                    break;
-                case LENGTH:
-                    Integer x1 = handleLength(parent, field, outputString, fieldLengthInt, fieldType, fieldName, fieldMinusVal, fieldForAttr);
-                    if (x1 != null) return x1;
-                    break;
-                case FILLER:
-                    Integer x = handleFiller(parent, field, fieldName, fieldType);
-                    if (x != null) return x;
-                    break;
-                default:
-                    Integer x5 = handleField(outputString, fieldLength, fieldLengthInt, fieldValuesAttr, fieldType, fieldName);
-                    if (x5 != null) return x5;
-            }
-        }
-        return 0;
-    }
-
-    private Integer handleField(StringBuilder outputString, String fieldLength, int fieldLengthInt, String fieldValuesAttr, String fieldType, String fieldName) {
-        String fieldValue;
-        res.append(outputString);
-        if (fieldLength.isEmpty()) {
-            res.append("Error: Length attribute not provided\n");
-            return -10;
-        }
-        fieldValue = getFieldValue(fieldLengthInt);
-        var fieldValuesMap = convertToMap(fieldValuesAttr);
-        var fieldValueMeaning = fieldValuesMap.get(fieldValue);
-        if (fieldValueMeaning != null) {
-            fieldValueMeaning = String.format(" (%s)", fieldValueMeaning);
-        }
-        if (fieldType.equalsIgnoreCase("B") && !fieldValuesMap.isEmpty()) {
-            int i;
-            try {
-                i = Integer.parseInt(fieldValue, 16);
-            } catch (NumberFormatException nfe) {
-                res.append(String.format("%nInvalid data: %s%n", fieldValue));
-                return -10;
-            }
-            List<String> bitValueList = getBitValue(i, fieldValuesMap);
-            if (!bitValueList.isEmpty()) {
-                if (bitValueList.size() > 1) {
-                    fieldValueMeaning = String.format("%n%-35s", String.join("\n", bitValueList));
-                } else {
-                    fieldValueMeaning = String.format(" (%s)", String.join(",", bitValueList));
-                }
-            }
-        }
-        if (layoutType.equalsIgnoreCase(DSECT)) {
-            String fit;
-            try {
-                fit = getInType(fieldValue, fieldType);
-            } catch (Exception any) {
-                res.append(String.format("%nInvalid data %s %s%n", any.getMessage(), fieldValue));
-                return -10;
-            }
-            String formatterFit = "";
-            if (!fit.isEmpty()) {
-                formatterFit = String.format(" = '%s'", fit);
-            }
-            if (fieldValue.length() > 32) {
-                res.append(String.format("%n%s%n", getHexDump(fieldValue)));
-            } else {
-                var fval1 = fieldValuesMap.get(fieldValue);
-                var fval = fieldValuesMap.get(fit);
-                if (fval1 == null && fval != null) {
-                    fieldValueMeaning = String.format(" (%s)", fval);
-                }
-                res.append(String.format("%s%s%s%n", fieldValue, formatterFit, fieldValueMeaning == null ? "" : fieldValueMeaning));
-            }
-            if (fieldValue.length() != 2 * fieldLengthInt) {
-                res.append(String.format("Warning: %s value not lengthy enough (Current length: %d)%n", fieldName, fieldValue.length() / 2));
-                return -11;
-            }
-        } else {
-            if (fieldValueMeaning != null) {
-                res.append(String.format("'%s' (%s)%n", fieldValue, fieldValueMeaning));
-            } else {
-                res.append(String.format("'%s'%n", fieldValue));
-            }
-            if (fieldValue.length() != fieldLengthInt) {
-                res.append(String.format("Warning: %s value not lengthy enough (Current Length: %d%n", fieldName, fieldValue.length()));
-                return -11;
-            }
-        }
-        return null;
+    /**
+     * Dissects raw bytes of a {@code dsect} layout directly, without going through hex text.
+     */
+    String parseWith(byte[] data) {
+        return parseWith(data, 0, data.length);
     }
 
-    private Integer handleCounter(Element parent, Element field, StringBuilder outputString, int fieldLengthInt, String fieldForAttr) {
-        res.append(outputString);
-        String repeatCount = getFieldValue(fieldLengthInt);
-        var headElement = getNextSiblingHeadElement(field);
-        var currentStruc = getMatchingElement(parent, STRUC, "name", fieldForAttr, START);
-        if (currentStruc == null) {
-            res.append(String.format("'%s'%nError: '%s' Struc layout not found.%n", repeatCount, fieldForAttr));
-            return -3;
-        }
-        var iRepeatCount = 0;
-        var radix = layoutType.equalsIgnoreCase(DSECT) ? 16 : 10;
+    String parseWith(byte[] data, int offset, int length) {
+        return parseWith(ByteBuffer.wrap(data, offset, length));
+    }
+
+    /**
+     * Dissects the remaining bytes of the buffer. The buffer's position and limit are left untouched.
+     */
+    String parseWith(ByteBuffer data) {
+        TextReport report = textReport(null);
+        parseWith(data, report);
+        return report.toString();
+    }
+
+    int parseWith(ByteBuffer data, ReportSink sink) throws IOException {
+        TextReport report = textReport(sink);
         try {
-            iRepeatCount = Integer.parseInt(repeatCount, radix);
-        } catch (NumberFormatException nfe) {
-            res.append(String.format("Invalid counter %s%n", repeatCount));
-            return -2;
-        }
-        if (iRepeatCount > MAX_COUNTER) {
-            res.append(String.format("Warning: Counter value %d ('%s') too high (max=%d)%n",
-                    iRepeatCount, repeatCount, MAX_COUNTER));
-            return -2;
-        }
-        res.append(String.format("'%s%n", repeatCount));
-        if (headElement != null) {
-            int ret = parseWith(headElement);
-            if (ret != 0) {
-                return -1;
-            }
+            int ret = parseWith(data, report);
+            report.finish();
+            return ret;
+        } catch (UncheckedIOException uioe) {
+            throw uioe.getCause();
         }
-        for (int i = 0; i < iRepeatCount; i++) {
-            res.append(String.format("%s %d of %d :%n", fieldForAttr, i + 1, iRepeatCount));
-            int ret = parseWith(currentStruc);
-            if (ret != 0) {
-                return -1;
-            }
-        }
-        return null;
     }
 
-    private Integer handleVersion(Element parent, Element field, StringBuilder outputString, int fieldLengthInt, String fieldType) {
-        Element headElement;
-        res.append(outputString);
-        String versionNum = getFieldValue(fieldLengthInt);
-        if (layoutType.equalsIgnoreCase(DSECT)) {
-            String fit;
-            try {
-                fit = getInType(versionNum, fieldType);
-            } catch (Exception any) {
-                res.append(String.format("Invalid hex %s", any.getMessage()));
-                return -10;
-            }
-            res.append(String.format("%s = '%s'%n", versionNum, fit));
-        }
-        Element currentVersionElement = getMatchingElement(parent, VERSION, "name", versionNum, START);
-        headElement = getNextSiblingHeadElement(field);
-        if (headElement != null) {
-            int ret = parseWith(headElement);
-            if (ret != 0) {
-                return -1;
-            }
+    int parseWith(ByteBuffer data, DissectionVisitor visitor) {
+        if (!layout.dsect) {
+            throw new IllegalArgumentException(String.format("byte input needs a %s layout, %s is '%s'",
+                    DSECT, layout.name, layout.type));
         }
-        if (currentVersionElement == null) {
-            res.append(String.format("Error: '%s' Version layout not found%n", versionNum));
-            return -4;
-        }
-        String includeAttr = currentVersionElement.getAttribute("include");
-        if (!includeAttr.isEmpty()) {
-            String[] includeVers = includeAttr.split(",");
-            res.append(String.format("Includes %d version(s): %s%n", includeVers.length, includeAttr));
-            int ret = 0;
-            for (String v : includeVers) {
-                if (!v.isEmpty()) {
-                    Element includedVersionElement = getMatchingElement(parent, VERSION, "name", v, START);
-                    if (includedVersionElement != null) {
-                        ret = parseWith(includedVersionElement);
-                    } else {
-                        res.append(String.format("Error: %s version layout not found%n", v));
-                        ret = -1;
-                    }
-                }
-                if (ret != 0) {
-                    break;
-                }
-            }
-            if (ret != 0) {
-                return -1;
-            }
-        }
-        if (parseWith(currentVersionElement) != 0) {
-            return -1;
+        if (generated != null && metrics == null && generated.depth <= maxDepth) {
+            return generated.parse(data, visitor);
         }
-        return null;
+        return new ParseContext(layout, new ByteInput(data, layout.codePage), visitor, metrics, maxDepth).parse();
     }
 
-    private Integer handleGroup(Element parent, Element field, StringBuilder outputString, int fieldLengthInt, String fieldType) {
-        Element headElement;
-        res.append(outputString);
-        String groupName = getFieldValue(fieldLengthInt);
-        if (layoutType.equalsIgnoreCase(DSECT)) {
-            String fit;
-            try {
-                fit = getInType(groupName, fieldType);
-            } catch (Exception any) {
-                res.append(String.format("%nError: Invalid hex %s%n", any.getMessage()));
-                return -10;
-            }
-            res.append(String.format("%s = '%s'", groupName, fit));
-        } else {
-            res.append(groupName);
-        }
-        Element currentGroupElement = getMatchingElement(parent, GROUP, "name", groupName, START);
-        if (currentGroupElement == null) {
-            currentGroupElement = getMatchingElement(parent, GROUP, "name", "", START); //Get Default group with name= ""
-        }
-        if (currentGroupElement == null) {
-            res.append(String.format("%nError: '%s' Group layout not found%n", groupName));
-            return -5;
-        }
-        String aliasName = currentGroupElement.getAttribute("alias");
-        if (!aliasName.isEmpty()) {
-            res.append(String.format(" (%s)", aliasName)); //Show Alias name, if any
-        }
-        res.append("\n");
-        headElement = getNextSiblingHeadElement(field);
-        if (headElement != null && (parseWith(headElement) != 0)) {
-            return -1;
-        }
-        if (parseWith(currentGroupElement) != 0) {
-            return -1;
-        }
-        return null;
-    }
-
-    private Integer handleLength(Element parent, Element field, StringBuilder outputString, int fieldLengthInt, String fieldType, String fieldName, int fieldMinusVal, String fieldForAttr) {
-        Element headElement;
-        String fieldValue;
-        Element currentStruc;
-        res.append(outputString);
-        fieldValue = getFieldValue(fieldLengthInt);
-        int intFieldValue;
-        if (layoutType.equalsIgnoreCase(DSECT)) {
-            try {
-                intFieldValue = Integer.parseInt(fieldValue, 16);
-            } catch (NumberFormatException nfe) {
-                res.append(String.format("%nError: Invalid hex. %s%n", nfe.getMessage()));
-                return -10;
-            }
-            String fit;
-            try {
-                fit = getInType(fieldValue, fieldType);
-            } catch (Exception any) {
-                res.append(String.format("%nError: Invalid hex. %s%n", any.getMessage()));
-                return -10;
-            }
-            res.append(String.format("%s = '%s'%n", fieldValue, fit));
-            if (fieldValue.length() / 2 != fieldLengthInt) {
-                res.append(String.format("Warning: %s value not lengthy enough (Current length: %d)%n", fieldName, fieldValue.length() / 2));
-            }
-        } else {
-            try {
-                intFieldValue = Integer.parseInt(fieldValue, 16);
-            } catch (NumberFormatException nfe) {
-                res.append(String.format("%nError: Invalid hex. %s%n", nfe.getMessage()));
-                return -10;
-            }
-        }
-        String partOfStruc = field.getAttribute("partofstruc");
-        if (partOfStruc.equalsIgnoreCase("y")) {
-            intFieldValue -= fieldLengthInt;
-        }
-        intFieldValue -= fieldMinusVal;
-        if (intFieldValue > 0) {
-            headElement = getNextSiblingHeadElement(field);
-            if (headElement != null && (parseWith(headElement) != 0)) {
-                return -1;
-            }
-            String strucValue = getFieldValue(intFieldValue);
-            String restOfInput = getFieldValue(-1);
-            currentStruc = getMatchingElement(parent, STRUC, "name", fieldForAttr, START);
-            if (currentStruc == null) {
-                res.append(String.format("Error: '%s' Struc layout not found.%n'%s'%n", fieldForAttr, strucValue));
-                return -9;
-            }
-            res.append(String.format("---%s Size=%d%n", fieldForAttr, intFieldValue));
-            inputStr = strucValue;
-            int ret = 0;
-            while (!inputStr.isEmpty()) {
-                ret = parseWith(currentStruc);
-                if (ret != 0) {
-                    break;
-                }
-            }
-            if (ret != 0) {
-                return ret;
-            }
-            inputStr = restOfInput;
-        }
-        return null;
-    }
-
-    private Integer handleFiller(Element parent, Element field, String fieldName, String fieldType) {
-        String fieldValue;
-        if (useFieldLen != 0) {
-            fillerLen = useFieldLen - fillerLen;
-        }
-        fieldValue = "";
-        if (fillerLen != 0) {
-            fieldValue = getFieldValue(fillerLen);
-        }
-        trackLen = false;
-        fillerLen = -1;
-        useFieldLen = 0;
-        if (!fieldValue.isEmpty()) {
-            String strucName = field.getAttribute("for");
-            if (strucName.isEmpty()) {
-                String opString = "";
-                if (layoutType.equalsIgnoreCase(DSECT)) {
-                    opString += String.format("%35s : ", String.format("(%d.%d) %s", displ, fieldValue.length() / 2, fieldName));
-                    if (fieldValue.length() > 32) {
-                        res.append(String.format("%s%n%s%n", opString, getHexDump(fieldValue)));
-                    } else {
-                        String fit;
-                        try {
-                            fit = getInType(fieldValue, fieldType);
-                        } catch (Exception any) {
-                            res.append(String.format("%nInvalid data %s %s %s%n", fieldName, any.getMessage(), fieldValue));
-                            return -10;
-                        }
-                        res.append(String.format("%s%s = '%s'%n", opString, fieldValue, fit));
-                    }
-                } else {
-                    opString += String.format("%35s: ", String.format("(%d.%d) %s", displ, fieldValue.length(), fieldName));
-                    res.append(String.format("%s'%s'%n", opString, fieldValue));
-                }
-            } else {
-                Element currentStruc2 = getMatchingElement(parent, STRUC, "name", strucName, START);
-                if (currentStruc2 == null) {
-                    try {
-                        currentStruc2 = getDocument(Path.of(layoutDir, strucName).toFile()).getDocumentElement();
-                    } catch (Exception any) {
-                        res.append(String.format("Error: '%s' Struc layout not found. %s%n", strucName, "File not found"));
-                        return -6;
-                    }
-                }
-                res.append(String.format("---%s [Rest of the data]:%n", strucName));
-                String restOfInput = getFieldValue(-1);
-                inputStr = fieldValue;
-                int ret1 = 0;
-                while (!inputStr.isEmpty()) {
-                    ret1 = parseWith(currentStruc2);
-                    if (ret1 != 0) {
-                        break;
-                    }
-                }
-                inputStr = restOfInput; //Restore
-                if (ret1 != 0) {
-                    return ret1;
-                }
-            }
+    /**
+     * Dissects the input into one JSON object; see {@link JsonReport} for its structure.
+     */
+    String toJson(String hexString) {
+        JsonReport report = new JsonReport(layout, false);
+        report.beginRecord();
+        report.endRecord(parseWith(hexString, report));
+        return report.toString();
+    }
+
+    String toJson(ByteBuffer data) {
+        JsonReport report = new JsonReport(layout, false);
+        report.beginRecord();
+        report.endRecord(parseWith(data, report));
+        return report.toString();
+    }
+
+    /**
+     * Starts dissecting a record that arrives in chunks; see {@link IncrementalParser}.
+     */
+    IncrementalParser incremental(DissectionVisitor visitor) {
+        return new IncrementalParser(layout, visitor, metrics, maxDepth);
+    }
+
+    /**
+     * Starts dissecting a record that arrives in chunks into a streamed text report.
+     */
+    IncrementalParser incremental(ReportSink sink) {
+        return incremental(textReport(sink));
+    }
+
+    /**
+     * Indexes the occurrences of the repeated strucs of the record, so that each of them can be
+     * dissected on its own; see {@link OccurrenceIndex}.
+     */
+    OccurrenceIndex occurrences(ByteBuffer data) {
+        if (!layout.dsect) {
+            throw new IllegalArgumentException(String.format("byte input needs a %s layout, %s is '%s'",
+                    DSECT, layout.name, layout.type));
         }
-        return null;
+        return new OccurrenceIndex(this, data, maxDepth);
+    }
+
+    TextReport textReport(ReportSink sink) {
+        return new TextReport(layout, formatting, hexDump, sink);
+    }
+
+    /**
+     * Returns the values of the fields at the given paths, skipping everything else. See
+     * {@link FieldExtractor} for the path syntax. Paths not found in the record are left out.
+     */
+    Map<String, String> extract(String hexString, String... paths) {
+        FieldExtractor extractor = new FieldExtractor(paths);
+        parseWith(hexString, extractor);
+        return extractor.values();
+    }
+
+    Map<String, String> extract(ByteBuffer data, String... paths) {
+        FieldExtractor extractor = new FieldExtractor(paths);
+        parseWith(data, extractor);
+        return extractor.values();
     }
 
 }
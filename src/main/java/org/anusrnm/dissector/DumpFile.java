@@ -0,0 +1,223 @@
+package org.anusrnm.dissector;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * A binary capture file of {@code dsect} records, memory mapped and read one record at a time. The
+ * file is mapped in segments, so its size is not limited to what fits in one buffer, and records are
+ * dissected in place from the mapping; heap use does not grow with the file.
+ * <p>
+ * A record whose header is cut off by the end of the file, or whose length field cannot be read,
+ * takes the rest of the file, and its dissection reports what is wrong with it. When the rest is
+ * longer than a buffer can be, the record takes {@link #MAX_UNFRAMED} bytes and the records after
+ * it are framed from where it ends.
+ */
+final class DumpFile implements Closeable, Iterable<DumpRecord> {
+
+    static final long SEGMENT_SIZE = 1L << 28;
+    static final int MAX_UNFRAMED = Integer.MAX_VALUE;
+
+    private final FileChannel channel;
+    private final long size;
+    private final RecordFraming framing;
+    private final long segmentSize;
+
+    private DumpFile(FileChannel channel, RecordFraming framing, long segmentSize) throws IOException {
+        this.channel = channel;
+        this.size = channel.size();
+        this.framing = framing;
+        this.segmentSize = segmentSize;
+    }
+
+    static DumpFile open(Path path, RecordFraming framing) throws IOException {
+        return open(path, framing, SEGMENT_SIZE);
+    }
+
+    static DumpFile open(Path path, RecordFraming framing, long segmentSize) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            return new DumpFile(channel, framing, segmentSize);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    long size() {
+        return size;
+    }
+
+    RecordFraming framing() {
+        return framing;
+    }
+
+    /**
+     * Reads the record starting at the given file offset, e.g. one found through an index.
+     */
+    DumpRecord read(long index, long offset) throws IOException {
+        return new Reader().read(index, offset);
+    }
+
+    @Override
+    public Iterator<DumpRecord> iterator() {
+        return iterator(0, 0);
+    }
+
+    /**
+     * Iterates the records from the given offset on; {@code firstIndex} is the number of that record.
+     */
+    Iterator<DumpRecord> iterator(long firstIndex, long offset) {
+        Reader reader = new Reader();
+        return new Iterator<>() {
+            private long index = firstIndex;
+            private long next = offset;
+
+            @Override
+            public boolean hasNext() {
+                return next < size;
+            }
+
+            @Override
+            public DumpRecord next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                try {
+                    DumpRecord record = reader.read(index++, next);
+                    next += record.length();
+                    return record;
+                } catch (IOException ioe) {
+                    throw new UncheckedIOException(ioe);
+                }
+            }
+        };
+    }
+
+    Stream<DumpRecord> records() {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator(),
+                Spliterator.ORDERED | Spliterator.NONNULL), false);
+    }
+
+    /**
+     * Dissects every record with the given dissector, lazily and in file order.
+     */
+    Stream<String> dissect(Dissector dissector) {
+        return records().map(record -> dissector.parseWith(record.data));
+    }
+
+    /**
+     * Streams the reports of all records to the sink, one after the other, without holding more than
+     * the sink's buffer. Returns the number of records.
+     */
+    long dissect(Dissector dissector, ReportSink sink) throws IOException {
+        long count = eachRecord(record -> {
+            try {
+                dissector.parseWith(record.data, sink);
+            } catch (IOException ioe) {
+                throw new UncheckedIOException(ioe);
+            }
+        });
+        return count;
+    }
+
+    /**
+     * Streams all records as NDJSON, one {@link JsonReport} object per line with the record number
+     * and file offset. Returns the number of records.
+     */
+    long writeNdjson(Dissector dissector, ReportSink sink) throws IOException {
+        JsonReport report = new JsonReport(dissector.getLayout(), true, sink);
+        long count = eachRecord(record -> {
+            report.beginRecord(record.index, record.offset);
+            report.endRecord(dissector.parseWith(record.data, report));
+        });
+        report.finish();
+        return count;
+    }
+
+    /**
+     * Streams all records as CSV with a header line, one row per record; see {@link CsvReport}.
+     * Returns the number of records.
+     */
+    long writeCsv(Dissector dissector, List<String> columns, ReportSink sink) throws IOException {
+        CsvReport report = new CsvReport(columns, sink);
+        report.header();
+        long count = eachRecord(record -> {
+            dissector.parseWith(record.data, report);
+            report.endRecord();
+        });
+        report.finish();
+        return count;
+    }
+
+    private long eachRecord(Consumer<DumpRecord> action) throws IOException {
+        long count = 0;
+        Iterator<DumpRecord> records = iterator();
+        try {
+            while (records.hasNext()) {
+                action.accept(records.next());
+                count++;
+            }
+        } catch (UncheckedIOException uioe) {
+            throw uioe.getCause();
+        }
+        return count;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Keeps the currently mapped segment and moves it forward as records are read.
+     */
+    private final class Reader {
+
+        private MappedByteBuffer segment;
+        private long segmentStart;
+
+        DumpRecord read(long index, long offset) throws IOException {
+            long available = size - offset;
+            long length = Math.min(available, MAX_UNFRAMED);
+            int headerLength = framing.headerLength();
+            if (headerLength <= available) {
+                ByteBuffer header = map(offset, headerLength);
+                long framed = framing.recordLength(header, (int) (offset - segmentStart));
+                if (framed >= 0) {
+                    length = Math.min(framed, available);
+                }
+            }
+            if (length > Integer.MAX_VALUE) {
+                throw new IOException(String.format("Record %d at offset %d is too long (%d bytes)", index,
+                        offset, length));
+            }
+            ByteBuffer data = map(offset, length).slice((int) (offset - segmentStart), (int) length);
+            return new DumpRecord(index, offset, data);
+        }
+
+        private ByteBuffer map(long offset, long length) throws IOException {
+            if (segment == null || offset < segmentStart
+                    || offset + length > segmentStart + segment.capacity()) {
+                long mapLength = Math.min(Math.max(length, segmentSize), size - offset);
+                segment = channel.map(FileChannel.MapMode.READ_ONLY, offset, Math.min(mapLength, Integer.MAX_VALUE));
+                segmentStart = offset;
+            }
+            return segment;
+        }
+    }
+}
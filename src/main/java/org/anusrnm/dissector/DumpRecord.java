@@ -0,0 +1,29 @@
+package org.anusrnm.dissector;
+
+import java.nio.ByteBuffer;
+
+/**
+ * One record of a {@link DumpFile}: its number, its byte offset in the file and its bytes. The data
+ * is a view of the mapped file, valid as long as the dump file is open.
+ */
+final class DumpRecord {
+
+    final long index;
+    final long offset;
+    final ByteBuffer data;
+
+    DumpRecord(long index, long offset, ByteBuffer data) {
+        this.index = index;
+        this.offset = offset;
+        this.data = data;
+    }
+
+    int length() {
+        return data.remaining();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("#%d @%d (%d bytes)", index, offset, length());
+    }
+}
@@ -0,0 +1,113 @@
+package org.anusrnm.dissector;
+
+import java.util.Map;
+
+/**
+ * A compiled {@code field} element. All attributes are read and converted once at load time; the
+ * parser only reads these fields.
+ */
+final class Field {
+
+    enum Kind {PLAIN, COUNTER, VERSION, GROUP, LENGTH, FILLER}
+
+    final String name;
+    final String type;
+    final Kind kind;
+    final String lengthAttr;
+    final int length;
+    final boolean invalidLength;
+    final int minus;
+    final boolean invalidMinus;
+    final Map<String, String> values;
+    final String forName;
+    final boolean useForFiller;
+    final boolean partOfStruc;
+    final Block head;
+    final Block target;
+    /**
+     * The part of the {@code h} and {@code d} report labels after the offset: {@code .length) name}.
+     */
+    final String labelTail;
+
+    Field(String name, String type, String kindAttr, String lengthAttr, String minusAttr, String valuesAttr,
+          String forName, boolean useForFiller, boolean partOfStruc, Block head, Block target) {
+        this.name = name;
+        this.type = type;
+        this.kind = kindOf(kindAttr);
+        this.lengthAttr = lengthAttr;
+        this.values = Map.copyOf(Dissector.convertToMap(valuesAttr));
+        this.forName = forName;
+        this.useForFiller = useForFiller;
+        this.partOfStruc = partOfStruc;
+        this.head = head;
+        this.target = target;
+        this.labelTail = "." + lengthAttr + ") " + name;
+        int minusVal = 0;
+        boolean badMinus = false;
+        if (!minusAttr.isEmpty()) {
+            try {
+                minusVal = Integer.parseInt(minusAttr);
+            } catch (NumberFormatException nfe) {
+                badMinus = true;
+            }
+        }
+        this.minus = minusVal;
+        this.invalidMinus = badMinus;
+        int lengthVal = 0;
+        boolean badLength = false;
+        if (!kindAttr.equalsIgnoreCase(Dissector.FILLER)) {
+            try {
+                lengthVal = Integer.parseInt(lengthAttr);
+            } catch (NumberFormatException nfe) {
+                badLength = true;
+            }
+        }
+        this.length = lengthVal;
+        this.invalidLength = badLength;
+    }
+
+    /**
+     * A field with its attributes already converted, as read from a {@link LayoutSnapshot}.
+     */
+    Field(String name, String type, Kind kind, String lengthAttr, int length, boolean invalidLength, int minus,
+          boolean invalidMinus, Map<String, String> values, String forName, boolean useForFiller,
+          boolean partOfStruc, Block head, Block target) {
+        this.name = name;
+        this.type = type;
+        this.kind = kind;
+        this.lengthAttr = lengthAttr;
+        this.length = length;
+        this.invalidLength = invalidLength;
+        this.minus = minus;
+        this.invalidMinus = invalidMinus;
+        this.values = Map.copyOf(values);
+        this.forName = forName;
+        this.useForFiller = useForFiller;
+        this.partOfStruc = partOfStruc;
+        this.head = head;
+        this.target = target;
+        this.labelTail = "." + lengthAttr + ") " + name;
+    }
+
+    private static Kind kindOf(String kindAttr) {
+        switch (kindAttr) {
+            case Dissector.COUNTER:
+                return Kind.COUNTER;
+            case Dissector.VERSION:
+                return Kind.VERSION;
+            case Dissector.GROUP:
+                return Kind.GROUP;
+            case Dissector.LENGTH:
+                return Kind.LENGTH;
+            case Dissector.FILLER:
+                return Kind.FILLER;
+            default:
+                return Kind.PLAIN;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s[%s %s %s]", name, kind, type, lengthAttr);
+    }
+}
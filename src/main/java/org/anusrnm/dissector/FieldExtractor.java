@@ -0,0 +1,201 @@
+package org.anusrnm.dissector;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Picks the values of a few fields out of a record without building a report.
+ * <p>
+ * A path names the strucs, groups and versions leading to a field, separated by {@code /}, e.g.
+ * {@code body/item[2]/Qty}. Counter and length strucs take an optional 1-based occurrence in
+ * brackets; without one the first occurrence that has the field matches. A group is named by its
+ * name or its alias. Fields of a {@code head} belong to the enclosing struc. Fields not on any path
+ * are skipped without being decoded, and the dissection stops once every path has been found.
+ * <p>
+ * The value of a field is its converted value for {@code dsect} layouts, the record text otherwise.
+ * An extractor holds the state of one dissection; {@link #reset()} it to reuse it.
+ */
+final class FieldExtractor implements DissectionVisitor {
+
+    private final String[] paths;
+    private final String[][] names;
+    private final int[][] occurrences;
+    private final boolean[] found;
+    private final Map<String, String> values = new LinkedHashMap<>();
+    private Block[] blocks = new Block[8];
+    private int[] blockOccurrences = new int[8];
+    private int depth = 0;
+    private int pending;
+
+    FieldExtractor(String... paths) {
+        this(Arrays.asList(paths));
+    }
+
+    FieldExtractor(Collection<String> paths) {
+        this.paths = paths.toArray(new String[0]);
+        this.names = new String[this.paths.length][];
+        this.occurrences = new int[this.paths.length][];
+        this.found = new boolean[this.paths.length];
+        for (int i = 0; i < this.paths.length; i++) {
+            String[] segments = segments(this.paths[i]);
+            names[i] = new String[segments.length];
+            occurrences[i] = new int[segments.length];
+            for (int j = 0; j < segments.length; j++) {
+                names[i][j] = name(segments[j]);
+                occurrences[i][j] = occurrence(segments[j], this.paths[i]);
+            }
+        }
+        pending = this.paths.length;
+    }
+
+    /**
+     * The {@code /} separated segments of a path, each a name with an optional occurrence.
+     */
+    static String[] segments(String path) {
+        String[] segments = path.split("/");
+        for (int j = 0; j < segments.length; j++) {
+            segments[j] = segments[j].trim();
+            if (name(segments[j]).isEmpty()) {
+                throw new IllegalArgumentException(String.format("Invalid path '%s'", path));
+            }
+        }
+        return segments;
+    }
+
+    static String name(String segment) {
+        int bracket = segment.indexOf('[');
+        return bracket >= 0 && segment.endsWith("]") ? segment.substring(0, bracket) : segment;
+    }
+
+    /**
+     * The 1-based occurrence in brackets after the name, 0 without one.
+     */
+    static int occurrence(String segment, String path) {
+        int bracket = segment.indexOf('[');
+        if (bracket < 0 || !segment.endsWith("]")) {
+            return 0;
+        }
+        int occurrence;
+        try {
+            occurrence = Integer.parseInt(segment.substring(bracket + 1, segment.length() - 1));
+        } catch (NumberFormatException nfe) {
+            throw new IllegalArgumentException(String.format("Invalid occurrence in path %s", path));
+        }
+        if (occurrence < 1) {
+            throw new IllegalArgumentException(String.format("Invalid occurrence in path %s", path));
+        }
+        return occurrence;
+    }
+
+    /**
+     * The values found so far by path, in the order the paths were given.
+     */
+    Map<String, String> values() {
+        Map<String, String> ordered = new LinkedHashMap<>();
+        for (String path : paths) {
+            String value = values.get(path);
+            if (value != null) {
+                ordered.put(path, value);
+            }
+        }
+        return ordered;
+    }
+
+    /**
+     * The value found for one of the paths, {@code null} when it has not been found (yet).
+     */
+    String value(String path) {
+        return values.get(path);
+    }
+
+    void reset() {
+        values.clear();
+        Arrays.fill(found, false);
+        depth = 0;
+        pending = paths.length;
+    }
+
+    @Override
+    public boolean wants(Field field) {
+        for (int i = 0; i < paths.length; i++) {
+            if (!found[i] && matches(i, field)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public boolean done() {
+        return pending == 0;
+    }
+
+    @Override
+    public void onField(Field field, long offset, FieldValue value) {
+        for (int i = 0; i < paths.length; i++) {
+            if (!found[i] && matches(i, field)) {
+                found[i] = true;
+                pending--;
+                values.put(paths[i], value.decoded() != null ? value.decoded() : value.text());
+            }
+        }
+    }
+
+    private boolean matches(int path, Field field) {
+        String[] segments = names[path];
+        if (segments.length != depth + 1 || !segments[depth].equals(field.name)) {
+            return false;
+        }
+        for (int j = 0; j < depth; j++) {
+            Block block = blocks[j];
+            if (!segments[j].equals(block.name) && !(block.kind == Block.Kind.GROUP && segments[j].equals(block.alias))) {
+                return false;
+            }
+            if (occurrences[path][j] != 0 && occurrences[path][j] != blockOccurrences[j]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Whether entering the block adds a level to the path: heads and the outer frame of repeated
+     * strucs do not.
+     */
+    static boolean isLevel(Field field, Block block, int occurrence) {
+        if (block == field.head) {
+            return false;
+        }
+        switch (field.kind) {
+            case COUNTER:
+            case LENGTH:
+            case FILLER:
+                return occurrence > 0;
+            default:
+                return true;
+        }
+    }
+
+    @Override
+    public void onEnterStruc(Field field, Block block, long offset, long size, int occurrence, int count) {
+        if (!isLevel(field, block, occurrence)) {
+            return;
+        }
+        if (depth == blocks.length) {
+            blocks = Arrays.copyOf(blocks, depth * 2);
+            blockOccurrences = Arrays.copyOf(blockOccurrences, depth * 2);
+        }
+        blocks[depth] = block;
+        blockOccurrences[depth] = occurrence;
+        depth++;
+    }
+
+    @Override
+    public void onExitStruc(Field field, Block block, int occurrence) {
+        if (isLevel(field, block, occurrence)) {
+            blocks[--depth] = null;
+        }
+    }
+}
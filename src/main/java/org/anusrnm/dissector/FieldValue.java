@@ -0,0 +1,134 @@
+package org.anusrnm.dissector;
+
+import java.util.List;
+
+/**
+ * The value of the field being reported to a {@link DissectionVisitor}. One instance is reused for
+ * all fields of a dissection; text, bytes and hex dumps are only produced when asked for.
+ */
+final class FieldValue {
+
+    private final Input input;
+    private int start;
+    private int end;
+    private String text;
+    private String decoded;
+    private List<String> meanings = List.of();
+
+    FieldValue(Input input) {
+        this.input = input;
+    }
+
+    void reset(int start, int end) {
+        this.start = start;
+        this.end = end;
+        this.text = null;
+        this.decoded = null;
+        this.meanings = List.of();
+    }
+
+    void decoded(String decoded) {
+        this.decoded = decoded;
+    }
+
+    void meanings(List<String> meanings) {
+        this.meanings = meanings;
+    }
+
+    /**
+     * Length in layout units; shorter than the field's length when the input ran out.
+     */
+    int length() {
+        return input.length(start, end);
+    }
+
+    /**
+     * The value as hex text for {@code dsect} layouts, as the record text otherwise.
+     */
+    String text() {
+        if (text == null) {
+            text = input.text(start, end);
+        }
+        return text;
+    }
+
+    /**
+     * Appends {@link #text()} without creating it when it was not asked for yet.
+     */
+    void appendText(StringBuilder out) {
+        if (text == null) {
+            input.appendText(out, start, end);
+        } else {
+            out.append(text);
+        }
+    }
+
+    /**
+     * Appends {@link #text()} to the report, in pieces when it is longer than the sink's buffer; a
+     * piece never ends between the two chars of a surrogate pair.
+     */
+    void appendText(StreamingReport report) {
+        if (text != null) {
+            report.append(text);
+            return;
+        }
+        if (report.fits(textLength())) {
+            input.appendText(report.res, start, end);
+            return;
+        }
+        int perUnit = input.textLength(start, start + 1);
+        int at = start;
+        while (at < end) {
+            int next = Math.min(end, at + Math.max(1, report.room() / perUnit));
+            if (next < end && Character.isHighSurrogate(input.textAt(at, (next - at) * perUnit - 1))) {
+                next += next - 1 > at ? -1 : 1;
+            }
+            input.appendText(report.res, at, next);
+            report.spill();
+            at = next;
+        }
+    }
+
+    int textLength() {
+        return text == null ? input.textLength(start, end) : text.length();
+    }
+
+    /**
+     * A copy of the raw bytes of the value.
+     */
+    byte[] bytes() {
+        return input.bytes(start, end);
+    }
+
+    String hexDump() {
+        return input.hexDump(start, end);
+    }
+
+    /**
+     * Appends the hex dump of the value to the report without creating it as a string, letting the
+     * report spill after every line.
+     */
+    void appendHexDump(StreamingReport report, HexDump dump) {
+        input.appendHexDump(report.res, report, start, end, dump);
+    }
+
+    /**
+     * The value converted according to the field type, or {@code null} if it was not converted.
+     */
+    String decoded() {
+        return decoded;
+    }
+
+    /**
+     * Meanings from the {@code values} attribute (several for bit flags), or the alias of the
+     * selected group.
+     */
+    List<String> meanings() {
+        return meanings;
+    }
+
+    @Override
+    public String toString() {
+        return text();
+    }
+}
@@ -0,0 +1,170 @@
+package org.anusrnm.dissector;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Renders values as hex dump lines: {@code %08X: } of the offset, the bytes as {@code %02X } padded
+ * to the width of a full line, a space, the bytes as characters (ISO control characters as dots)
+ * and a line separator. With the defaults this is the text of
+ * {@link Dissector#getHexDumpWithOffset(byte[], int)} for 16 bytes per line.
+ * <p>
+ * Each line is filled from lookup tables into two small arrays and appended to the output in bulk,
+ * so nothing is allocated per byte or per line. Dumps longer than {@link #maxBytes()} end with a
+ * line saying how many bytes were left out. Dumped into a {@link StreamingReport}, the report may hand
+ * its buffer to the sink after every line, so a long value does not grow the buffer.
+ */
+final class HexDump {
+
+    static final int DEFAULT_BYTES_PER_LINE = 16;
+    static final HexDump DEFAULT = new HexDump(DEFAULT_BYTES_PER_LINE, Integer.MAX_VALUE, 3 * DEFAULT_BYTES_PER_LINE);
+
+    private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+    private static final char[] HIGH = new char[256];
+    private static final char[] LOW = new char[256];
+    private static final char[] CHARS = new char[256];
+
+    static {
+        for (int b = 0; b < 256; b++) {
+            HIGH[b] = HEX_DIGITS[b >> 4];
+            LOW[b] = HEX_DIGITS[b & 0x0F];
+            // the byte as a signed char, as (char) currentByte
+            char ch = (char) (byte) b;
+            CHARS[b] = Character.isISOControl(ch) ? '.' : ch;
+        }
+    }
+
+    private final int bytesPerLine;
+    private final int maxBytes;
+    private final int hexWidth;
+
+    private HexDump(int bytesPerLine, int maxBytes, int hexWidth) {
+        if (bytesPerLine <= 0) {
+            throw new IllegalArgumentException("bytes per line must be positive: " + bytesPerLine);
+        }
+        if (maxBytes < 0) {
+            throw new IllegalArgumentException("maximum size must not be negative: " + maxBytes);
+        }
+        this.bytesPerLine = bytesPerLine;
+        this.maxBytes = maxBytes;
+        this.hexWidth = hexWidth;
+    }
+
+    /**
+     * Dumps with {@code bytesPerLine} bytes per line, at most {@code maxBytes} bytes of a value.
+     */
+    static HexDump of(int bytesPerLine, int maxBytes) {
+        return new HexDump(bytesPerLine, maxBytes, 3 * bytesPerLine);
+    }
+
+    /**
+     * The layout of {@link Dissector#getHexDumpWithOffset(byte[], int)}, which pads the bytes to 48
+     * characters whatever the line length.
+     */
+    static HexDump classic(int lineLength) {
+        return new HexDump(lineLength, Integer.MAX_VALUE, 48);
+    }
+
+    int bytesPerLine() {
+        return bytesPerLine;
+    }
+
+    int maxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * Appends the dump of the bytes {@code [start, end)} of {@code data}, translated to the platform
+     * charset by the code page ({@code null} to dump them as they are). Offsets count the translated
+     * bytes.
+     */
+    void append(StringBuilder out, ByteBuffer data, int start, int end, CodePage codePage) {
+        append(out, null, data, start, end, codePage);
+    }
+
+    /**
+     * Same, into {@code out} of {@code report} when that is not {@code null}, spilling the report
+     * after every line.
+     */
+    void append(StringBuilder out, StreamingReport report, ByteBuffer data, int start, int end, CodePage codePage) {
+        Lines lines = new Lines(out, report);
+        byte[] single = codePage == null ? null : codePage.singleBytes();
+        if (codePage == null || single != null) {
+            int shown = (int) Math.min(end - start, (long) maxBytes);
+            for (int i = start; i < start + shown; i++) {
+                int b = data.get(i) & 0xFF;
+                lines.add(single == null ? b : single[b] & 0xFF);
+            }
+            lines.end(end - start - shown);
+            return;
+        }
+        long left = 0;
+        for (int i = start; i < end; i++) {
+            for (byte p : codePage.platformBytes(data.get(i) & 0xFF)) {
+                if (lines.offset + lines.count < maxBytes) {
+                    lines.add(p & 0xFF);
+                } else {
+                    left++;
+                }
+            }
+        }
+        lines.end(left);
+    }
+
+    /**
+     * The line being filled.
+     */
+    private final class Lines {
+
+        private final StringBuilder out;
+        private final StreamingReport report;
+        private final char[] hex = new char[3 * bytesPerLine];
+        private final char[] chars = new char[bytesPerLine];
+        private final String separator = System.lineSeparator();
+        int offset;
+        int count;
+
+        Lines(StringBuilder out, StreamingReport report) {
+            this.out = out;
+            this.report = report;
+        }
+
+        void add(int b) {
+            int h = 3 * count;
+            hex[h] = HIGH[b];
+            hex[h + 1] = LOW[b];
+            hex[h + 2] = ' ';
+            chars[count++] = CHARS[b];
+            if (count == bytesPerLine) {
+                flush();
+            }
+        }
+
+        private void flush() {
+            for (int shift = 28; shift >= 0; shift -= 4) {
+                out.append(HEX_DIGITS[(offset >>> shift) & 0x0F]);
+            }
+            out.append(": ").append(hex, 0, 3 * count);
+            for (int pad = hexWidth - 3 * count; pad > 0; pad--) {
+                out.append(' ');
+            }
+            out.append(' ').append(chars, 0, count).append(separator);
+            offset += count;
+            count = 0;
+            if (report != null) {
+                report.spill();
+            }
+        }
+
+        /**
+         * Completes the last line and notes the bytes that were left out.
+         */
+        void end(long left) {
+            if (count > 0) {
+                flush();
+            }
+            if (left > 0) {
+                out.append("... ").append(left).append(" more bytes").append(separator);
+            }
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package org.anusrnm.dissector;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Dissects one record of a {@code dsect} layout from chunks of bytes as they arrive, e.g. from a
+ * socket, without waiting for the whole record.
+ * <p>
+ * Every {@link #feed} reports the fields whose bytes are complete and suspends at the first field,
+ * counter occurrence or window end that needs more; the next chunk resumes exactly there. The
+ * record is complete when the layout has been walked to its end, which for most layouts (e.g. a
+ * top level length field) is known without the end of the stream; otherwise {@link #finish()} ends
+ * the input. Either way the events are those of dissecting the whole record at once.
+ * <p>
+ * Bytes fed after the end of the record are kept for the next record, see {@link #rest()}.
+ */
+final class IncrementalParser {
+
+    private final StreamInput input;
+    private final ParseContext context;
+    private final StreamingReport report;
+    private int result = ParseContext.SUSPENDED;
+
+    IncrementalParser(Layout layout, DissectionVisitor visitor, DissectionMetrics metrics, int maxDepth) {
+        if (!layout.dsect) {
+            throw new IllegalArgumentException(String.format("byte input needs a %s layout, %s is '%s'",
+                    Dissector.DSECT, layout.name, layout.type));
+        }
+        this.input = new StreamInput(layout.codePage);
+        this.context = new ParseContext(layout, input, visitor, metrics, maxDepth);
+        this.report = visitor instanceof StreamingReport ? (StreamingReport) visitor : null;
+        context.start();
+    }
+
+    /**
+     * Takes the remaining bytes of the chunk and dissects as far as they go. Returns whether the
+     * record is complete. Failures of a report's sink are thrown.
+     */
+    boolean feed(ByteBuffer chunk) throws IOException {
+        input.append(chunk, Math.min(input.position(), input.available()));
+        if (!complete()) {
+            advance();
+        }
+        return complete();
+    }
+
+    /**
+     * Ends the input and completes the record with what has arrived, like dissecting a record that
+     * is too short. Returns the result.
+     */
+    int finish() throws IOException {
+        if (!complete()) {
+            context.endOfInput();
+            advance();
+        }
+        return result;
+    }
+
+    private void advance() throws IOException {
+        try {
+            result = context.resume();
+            if (complete() && report != null) {
+                report.finish();
+            }
+        } catch (UncheckedIOException uioe) {
+            throw uioe.getCause();
+        }
+    }
+
+    boolean complete() {
+        return result != ParseContext.SUSPENDED;
+    }
+
+    /**
+     * 0, or the code of the error that stopped the dissection, once it is complete.
+     */
+    int result() {
+        if (!complete()) {
+            throw new IllegalStateException("record not complete");
+        }
+        return result;
+    }
+
+    /**
+     * The bytes fed after the end of the complete record.
+     */
+    ByteBuffer rest() {
+        if (!complete()) {
+            throw new IllegalStateException("record not complete");
+        }
+        return input.rest(Math.min(input.position(), input.available()));
+    }
+}
@@ -0,0 +1,154 @@
+package org.anusrnm.dissector;
+
+/**
+ * A cursor over the input of one dissection. Fields are consumed by moving {@link #position()} forward;
+ * nested strucs narrow {@link #limit()} to their window and restore it afterwards, so the input itself
+ * is never copied. {@code scale} is the number of input units per unit of a layout length (2 for hex
+ * text of a {@code dsect} layout, 1 for raw bytes or plain text).
+ * <p>
+ * Field values are addressed by their {@code [start, end)} range; implementations decode them straight
+ * from the underlying data and only render text when {@link #text} is asked for.
+ */
+abstract class Input {
+
+    private final int scale;
+    private int pos;
+    private int limit;
+
+    Input(int scale, int pos, int limit) {
+        this.scale = scale;
+        this.pos = pos;
+        this.limit = limit;
+    }
+
+    int scale() {
+        return scale;
+    }
+
+    int position() {
+        return pos;
+    }
+
+    int limit() {
+        return limit;
+    }
+
+    /**
+     * The position up to which input has arrived. Streamed input grows while it is dissected; all
+     * other input is there from the start.
+     */
+    int available() {
+        return Integer.MAX_VALUE;
+    }
+
+    boolean isEmpty() {
+        return pos >= limit;
+    }
+
+    /**
+     * Moves the cursor to {@code pos} and restricts it to end at {@code limit}.
+     */
+    void window(int pos, int limit) {
+        this.pos = pos;
+        this.limit = limit;
+    }
+
+    /**
+     * Returns the end position of a field of the given layout length starting at the cursor. A field
+     * that is not positive or does not fit extends to the limit.
+     */
+    int end(long length) {
+        long n = length * scale;
+        return n > 0 && limit - pos >= n ? pos + (int) n : limit;
+    }
+
+    void skip(long length) {
+        pos = end(length);
+    }
+
+    String take(long length) {
+        int start = pos;
+        pos = end(length);
+        return text(start, pos);
+    }
+
+    String peek(long length) {
+        return text(pos, end(length));
+    }
+
+    String takeRest() {
+        return take(-1);
+    }
+
+    /**
+     * The value as it appears in the report: the input text itself, or upper case hex for bytes.
+     */
+    abstract String text(int start, int end);
+
+    /**
+     * Appends what {@link #text} returns for the range, without creating the string.
+     */
+    void appendText(StringBuilder out, int start, int end) {
+        out.append(text(start, end));
+    }
+
+    /**
+     * Character {@code index} of what {@link #text} returns for a range from {@code start}, without
+     * creating the string.
+     */
+    abstract char textAt(int start, int index);
+
+    /**
+     * Number of characters {@link #text} returns for the range.
+     */
+    abstract int textLength(int start, int end);
+
+    /**
+     * Length of the range in layout units (bytes for {@code dsect} layouts).
+     */
+    int length(int start, int end) {
+        return (end - start) / scale;
+    }
+
+    /**
+     * The bytes of the range: the raw bytes for {@code dsect} layouts, the text bytes otherwise.
+     */
+    abstract byte[] bytes(int start, int end);
+
+    /**
+     * Same as {@code Integer.parseInt(text(start, end), radix)}, including its exceptions.
+     */
+    abstract int parseInt(int start, int end, int radix);
+
+    /**
+     * Same as {@code Dissector.getInType(text(start, end), fieldType)}.
+     */
+    abstract String decode(int start, int end, String fieldType);
+
+    /**
+     * Same as {@code Dissector.getHexDump(text(start, end))}.
+     */
+    String hexDump(int start, int end) {
+        StringBuilder out = new StringBuilder();
+        appendHexDump(out, null, start, end, HexDump.DEFAULT);
+        return out.toString();
+    }
+
+    /**
+     * Whether {@link #decode} of the range succeeds.
+     */
+    boolean decodes(int start, int end, String fieldType) {
+        try {
+            decode(start, end, fieldType);
+            return true;
+        } catch (Exception any) {
+            return false;
+        }
+    }
+
+    /**
+     * Appends the hex dump of the range as the dump renders it; {@code report}, when not {@code null},
+     * is the report {@code out} belongs to and may spill after every line.
+     */
+    abstract void appendHexDump(StringBuilder out, StreamingReport report, int start, int end, HexDump dump);
+}
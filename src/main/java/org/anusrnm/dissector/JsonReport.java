@@ -0,0 +1,251 @@
+package org.anusrnm.dissector;
+
+import java.util.List;
+
+/**
+ * Writes dissections as JSON objects, one per record, straight from the dissection events.
+ * <p>
+ * A record is {@code {"layout":..,"fields":[..],"code":..}}. Each field entry has its name, kind,
+ * type, offset and length, the raw value as {@code hex} ({@code text} for non-{@code dsect}
+ * layouts), the converted {@code value} and the {@code meanings} from the {@code values} attribute
+ * when there are any. The strucs a field selects follow it in the same list: a counter, length or
+ * {@code filler for=} field is followed by a {@code struc} entry holding its {@code occurrences},
+ * a group or version field by a {@code group} or {@code version} entry holding its {@code fields}.
+ * Fields of a {@code head} belong to the enclosing list. Errors and warnings are entries with a
+ * {@code code} and a {@code message}.
+ * <p>
+ * With {@code lines} set every record is followed by a line break, which makes the output NDJSON.
+ * With a sink, chunks are handed over between entries, and within values and messages longer than
+ * the buffer.
+ */
+final class JsonReport extends StreamingReport {
+
+    private final Layout layout;
+    private final boolean lines;
+    private boolean comma;
+
+    JsonReport(Layout layout, boolean lines) {
+        this(layout, lines, null);
+    }
+
+    JsonReport(Layout layout, boolean lines, ReportSink sink) {
+        super(sink);
+        this.layout = layout;
+        this.lines = lines;
+    }
+
+    void beginRecord() {
+        res.append("{\"layout\":");
+        appendString(res, layout.name);
+        res.append(",\"fields\":[");
+        comma = false;
+    }
+
+    /**
+     * Starts a record read from a file, adding its number and file offset.
+     */
+    void beginRecord(long index, long offset) {
+        res.append("{\"layout\":");
+        appendString(res, layout.name);
+        res.append(",\"record\":").append(index).append(",\"offset\":").append(offset).append(",\"fields\":[");
+        comma = false;
+    }
+
+    void endRecord(int code) {
+        res.append("],\"code\":").append(code).append('}');
+        if (lines) {
+            res.append('\n');
+        }
+        spill();
+    }
+
+    private void element() {
+        if (comma) {
+            res.append(',');
+        }
+        comma = true;
+    }
+
+    @Override
+    public void onField(Field field, long offset, FieldValue value) {
+        element();
+        res.append("{\"name\":");
+        appendString(res, field.name);
+        res.append(",\"kind\":\"").append(kind(field.kind)).append("\",\"type\":");
+        appendString(res, field.type);
+        res.append(",\"offset\":").append(offset).append(",\"length\":").append(value.length());
+        if (layout.dsect) {
+            // hex digits need no escaping
+            res.append(",\"hex\":\"");
+            value.appendText(this);
+            res.append('"');
+        } else {
+            res.append(",\"text\":");
+            appendValue(value.text());
+        }
+        if (value.decoded() != null) {
+            res.append(",\"value\":");
+            appendValue(value.decoded());
+        }
+        List<String> meanings = value.meanings();
+        if (!meanings.isEmpty()) {
+            res.append(",\"meanings\":[");
+            for (int i = 0; i < meanings.size(); i++) {
+                if (i > 0) {
+                    res.append(',');
+                }
+                appendString(res, meanings.get(i));
+            }
+            res.append(']');
+        }
+        res.append('}');
+        spill();
+    }
+
+    private static String kind(Field.Kind kind) {
+        switch (kind) {
+            case COUNTER:
+                return Dissector.COUNTER;
+            case VERSION:
+                return Dissector.VERSION;
+            case GROUP:
+                return Dissector.GROUP;
+            case LENGTH:
+                return Dissector.LENGTH;
+            case FILLER:
+                return Dissector.FILLER;
+            default:
+                return "plain";
+        }
+    }
+
+    private static boolean isRepeated(Field field) {
+        return field.kind == Field.Kind.COUNTER || field.kind == Field.Kind.LENGTH || field.kind == Field.Kind.FILLER;
+    }
+
+    @Override
+    public void onEnterStruc(Field field, Block block, long offset, long size, int occurrence, int count) {
+        if (block == field.head) {
+            return;
+        }
+        element();
+        if (!isRepeated(field)) {
+            res.append(block.kind == Block.Kind.GROUP ? "{\"group\":" : "{\"version\":");
+            appendString(res, block.name);
+            if (!block.alias.isEmpty()) {
+                res.append(",\"alias\":");
+                appendString(res, block.alias);
+            }
+            res.append(",\"field\":");
+            appendString(res, field.name);
+            res.append(",\"offset\":").append(offset).append(",\"fields\":[");
+        } else if (occurrence == 0) {
+            res.append("{\"struc\":");
+            appendString(res, block.name);
+            res.append(",\"field\":");
+            appendString(res, field.name);
+            res.append(",\"offset\":").append(offset);
+            if (field.kind == Field.Kind.COUNTER) {
+                res.append(",\"count\":").append(count);
+            } else {
+                res.append(",\"size\":").append(size);
+            }
+            res.append(",\"occurrences\":[");
+        } else {
+            res.append("{\"occurrence\":").append(occurrence).append(",\"offset\":").append(offset)
+                    .append(",\"fields\":[");
+        }
+        comma = false;
+    }
+
+    @Override
+    public void onExitStruc(Field field, Block block, int occurrence) {
+        if (block == field.head) {
+            return;
+        }
+        res.append("]}");
+        comma = true;
+        spill();
+    }
+
+    @Override
+    public void onMessage(int code, Field field, long offset, String message) {
+        element();
+        res.append("{\"code\":").append(code);
+        if (field != null) {
+            res.append(",\"name\":");
+            appendString(res, field.name);
+        }
+        res.append(",\"offset\":").append(offset).append(",\"message\":");
+        appendValue(message.strip());
+        res.append('}');
+        spill();
+    }
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    /**
+     * Appends the value as a JSON string literal, in pieces with the buffer handed over in between
+     * when it does not {@linkplain #fits fit}. A piece never ends between the two chars of a
+     * surrogate pair; escapes make it up to six times as long as the chars it holds.
+     */
+    private void appendValue(String value) {
+        if (fits(value.length())) {
+            appendString(res, value);
+            return;
+        }
+        res.append('"');
+        int at = 0;
+        while (at < value.length()) {
+            int next = Math.min(value.length(), at + room());
+            if (next < value.length() && Character.isHighSurrogate(value.charAt(next - 1))) {
+                next += next - 1 > at ? -1 : 1;
+            }
+            appendEscaped(res, value, at, next);
+            spill();
+            at = next;
+        }
+        res.append('"');
+    }
+
+    /**
+     * Appends the value as a JSON string literal.
+     */
+    static void appendString(StringBuilder out, String value) {
+        out.append('"');
+        appendEscaped(out, value, 0, value.length());
+        out.append('"');
+    }
+
+    private static void appendEscaped(StringBuilder out, String value, int from, int to) {
+        int plain = from;
+        for (int i = from; i < to; i++) {
+            char c = value.charAt(i);
+            if (c >= 0x20 && c != '"' && c != '\\') {
+                continue;
+            }
+            out.append(value, plain, i);
+            plain = i + 1;
+            switch (c) {
+                case '"':
+                    out.append("\\\"");
+                    break;
+                case '\\':
+                    out.append("\\\\");
+                    break;
+                case '\n':
+                    out.append("\\n");
+                    break;
+                case '\r':
+                    out.append("\\r");
+                    break;
+                case '\t':
+                    out.append("\\t");
+                    break;
+                default:
+                    out.append("\\u00").append(HEX_DIGITS[c >> 4]).append(HEX_DIGITS[c & 0xF]);
+            }
+        }
+        out.append(value, plain, to);
+    }
+}
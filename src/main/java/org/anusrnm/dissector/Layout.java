@@ -0,0 +1,68 @@
+package org.anusrnm.dissector;
+
+import org.xml.sax.SAXException;
+
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Map;
+
+/**
+ * An immutable, fully compiled layout. External strucs referenced by a {@code filler for=} file name
+ * are taken from the {@linkplain LayoutCache#shared() shared layout cache}, unless the layout was
+ * read from a {@link LayoutSnapshot} that has them inlined.
+ */
+final class Layout {
+
+    final String name;
+    final String type;
+    final boolean dsect;
+    final String dir;
+    final Block root;
+    /**
+     * EBCDIC code page of character fields and hex dumps, from the {@code codepage} attribute of the
+     * layout (default {@code cp500}). External strucs are shown with the code page of the layout
+     * using them.
+     */
+    final CodePage codePage;
+    /**
+     * Root blocks of external layout files by the file name used in {@code for=}.
+     */
+    final Map<String, Block> externals;
+
+    Layout(String name, String type, String dir, Block root, CodePage codePage) {
+        this(name, type, dir, root, codePage, Map.of());
+    }
+
+    Layout(String name, String type, String dir, Block root, CodePage codePage, Map<String, Block> externals) {
+        this.name = name;
+        this.type = type;
+        this.dsect = type.equalsIgnoreCase(Dissector.DSECT);
+        this.dir = dir;
+        this.root = root;
+        this.codePage = codePage;
+        this.externals = Map.copyOf(externals);
+    }
+
+    static Layout load(File layout) throws IOException, SAXException, ParserConfigurationException {
+        return LayoutCompiler.compile(layout);
+    }
+
+    /**
+     * Returns the root block of an external layout file located next to this layout. Files that
+     * cannot be loaded are not remembered, so a later call retries.
+     */
+    Block external(String fileName) throws IOException, SAXException, ParserConfigurationException {
+        Block inlined = externals.get(fileName);
+        if (inlined != null) {
+            return inlined;
+        }
+        return LayoutCache.shared().get(Path.of(dir, fileName).toFile()).root;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s[%s]", name, type);
+    }
+}
@@ -0,0 +1,145 @@
+package org.anusrnm.dissector;
+
+import org.xml.sax.SAXException;
+
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Compiled layouts by file path, shared by {@link Dissector} construction and the external files of
+ * {@code filler for=} fields.
+ * <p>
+ * The cache keeps at most {@code capacity} layouts and evicts the least recently used one. A file
+ * whose modification time or size changed is compiled again; the file is looked at no more than
+ * once per check interval, so a hot layout costs no file system access per record.
+ */
+final class LayoutCache {
+
+    static final int DEFAULT_CAPACITY = 64;
+    static final Duration DEFAULT_CHECK_INTERVAL = Duration.ofSeconds(1);
+    private static final LayoutCache SHARED = new LayoutCache(DEFAULT_CAPACITY, DEFAULT_CHECK_INTERVAL);
+
+    private final long checkIntervalNanos;
+    private final Map<Path, Entry> entries;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder reloads = new LongAdder();
+    private final LongAdder loadTimeNanos = new LongAdder();
+
+    LayoutCache(int capacity, Duration checkInterval) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException(String.format("Invalid capacity %d", capacity));
+        }
+        this.checkIntervalNanos = checkInterval.toNanos();
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Path, Entry> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * The cache used by {@link Dissector#Dissector(File)} and external struc resolution.
+     */
+    static LayoutCache shared() {
+        return SHARED;
+    }
+
+    /**
+     * Returns the compiled layout of the file, compiling it if it is not cached or changed on disk.
+     */
+    Layout get(File file) throws IOException, SAXException, ParserConfigurationException {
+        Path path = file.toPath().toAbsolutePath().normalize();
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(path);
+        }
+        long now = System.nanoTime();
+        if (entry != null) {
+            if (now - entry.checkedAt < checkIntervalNanos) {
+                hits.increment();
+                return entry.layout;
+            }
+            BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            if (entry.modified.equals(attributes.lastModifiedTime()) && entry.size == attributes.size()) {
+                entry.checkedAt = now;
+                hits.increment();
+                return entry.layout;
+            }
+            reloads.increment();
+        }
+        misses.increment();
+        BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        Layout layout = LayoutCompiler.compile(path.toFile());
+        long loaded = System.nanoTime();
+        loadTimeNanos.add(loaded - now);
+        synchronized (this) {
+            entries.put(path, new Entry(layout, attributes.lastModifiedTime(), attributes.size(), loaded));
+        }
+        return layout;
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    synchronized void clear() {
+        entries.clear();
+    }
+
+    long hits() {
+        return hits.sum();
+    }
+
+    /**
+     * Number of compilations, including {@link #reloads()}.
+     */
+    long misses() {
+        return misses.sum();
+    }
+
+    /**
+     * Number of compilations caused by a changed file.
+     */
+    long reloads() {
+        return reloads.sum();
+    }
+
+    /**
+     * Total time spent compiling layouts.
+     */
+    long loadTimeNanos() {
+        return loadTimeNanos.sum();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("LayoutCache[size=%d hits=%d misses=%d reloads=%d loadTime=%dms]",
+                size(), hits(), misses(), reloads(), loadTimeNanos() / 1_000_000);
+    }
+
+    private static final class Entry {
+
+        final Layout layout;
+        final FileTime modified;
+        final long size;
+        volatile long checkedAt;
+
+        Entry(Layout layout, FileTime modified, long size, long checkedAt) {
+            this.layout = layout;
+            this.modified = modified;
+            this.size = size;
+            this.checkedAt = checkedAt;
+        }
+    }
+}
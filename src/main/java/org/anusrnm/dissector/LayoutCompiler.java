@@ -0,0 +1,87 @@
+package org.anusrnm.dissector;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.xml.sax.SAXException;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.File;
+import java.io.IOException;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Turns a layout XML document into a tree of {@link Block} and {@link Field} nodes. This is the only
+ * place where the DOM is walked; lengths are parsed, {@code values} are split and {@code for=}
+ * targets and {@code head} elements are resolved here once.
+ */
+final class LayoutCompiler {
+
+    private final Map<Element, Block> heads = new IdentityHashMap<>();
+
+    private LayoutCompiler() {
+    }
+
+    static Layout compile(File layout) throws IOException, SAXException, ParserConfigurationException {
+        Element root = getDocument(layout).getDocumentElement();
+        String codePage = root.getAttribute(Dissector.CODEPAGE);
+        return new Layout(root.getAttribute("name"), root.getAttribute("type"), layout.getParent(),
+                new LayoutCompiler().compileBlock(root, Block.Kind.LAYOUT),
+                codePage.isEmpty() ? CodePage.DEFAULT : CodePage.of(codePage));
+    }
+
+    static Document getDocument(File layout) throws ParserConfigurationException, SAXException, IOException {
+        DocumentBuilderFactory dbFactory = DocumentBuilderFactory.newInstance();
+        dbFactory.setAttribute(XMLConstants.ACCESS_EXTERNAL_DTD, "");
+        dbFactory.setAttribute(XMLConstants.ACCESS_EXTERNAL_SCHEMA, "");
+        DocumentBuilder dBuilder = dbFactory.newDocumentBuilder();
+        return dBuilder.parse(layout);
+    }
+
+    private Block compileBlock(Element element, Block.Kind kind) {
+        NameIndex strucs = new NameIndex(compileChildren(element, Dissector.STRUC, Block.Kind.STRUC));
+        NameIndex versions = new NameIndex(compileChildren(element, Dissector.VERSION, Block.Kind.VERSION));
+        NameIndex groups = new NameIndex(compileChildren(element, Dissector.GROUP, Block.Kind.GROUP));
+        for (Block version : versions.candidates()) {
+            version.resolveIncludes(versions);
+        }
+        List<Element> fieldElements = Dissector.getChildElementsByTagName(element, "field");
+        Field[] fields = new Field[fieldElements.size()];
+        for (int i = 0; i < fields.length; i++) {
+            fields[i] = compileField(fieldElements.get(i), strucs);
+        }
+        return new Block(kind, element.getAttribute("name"), element.getAttribute("alias"),
+                element.getAttribute("include"), fields, strucs, versions, groups);
+    }
+
+    private Block[] compileChildren(Element parent, String tagName, Block.Kind kind) {
+        List<Element> children = Dissector.getChildElementsByTagName(parent, tagName);
+        Block[] blocks = new Block[children.size()];
+        for (int i = 0; i < blocks.length; i++) {
+            blocks[i] = compileBlock(children.get(i), kind);
+        }
+        return blocks;
+    }
+
+    private Field compileField(Element field, NameIndex strucs) {
+        String forName = field.getAttribute("for");
+        Element headElement = Dissector.getNextSiblingHeadElement(field);
+        Block head = null;
+        if (headElement != null) {
+            head = heads.get(headElement);
+            if (head == null) {
+                head = compileBlock(headElement, Block.Kind.HEAD);
+                heads.put(headElement, head);
+            }
+        }
+        return new Field(field.getAttribute("name"), field.getAttribute("type"), field.getAttribute("kind"),
+                field.getAttribute(Dissector.LENGTH), field.getAttribute("minus"), field.getAttribute("values"),
+                forName, !field.getAttribute("useForFiller").isEmpty(),
+                field.getAttribute("partofstruc").equalsIgnoreCase("y"), head,
+                strucs.startingWith(forName));
+    }
+}
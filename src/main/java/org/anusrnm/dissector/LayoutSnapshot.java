@@ -0,0 +1,485 @@
+package org.anusrnm.dissector;
+
+import org.xml.sax.SAXException;
+
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32C;
+
+/**
+ * A compiled layout written to a compact binary file, so that dissectors can start without parsing
+ * XML. External layouts of {@code filler for=} fields are compiled too and inlined.
+ * <p>
+ * The file starts with a magic number, the format version and the size and CRC-32C of every XML
+ * source, the layout itself first. A snapshot written by another format version, or whose sources
+ * changed since, is stale and {@link #load(File, Path)} compiles the XML instead. Externals that
+ * could not be loaded are recorded as missing and looked up at parse time, as without a snapshot.
+ * <p>
+ * After the header come a table of the distinct strings and the block tree in post order, so that
+ * every block is built after its strucs, versions, groups and heads; a head shared by several
+ * fields is written once and referred to by number. Numbers are written as zigzag varints.
+ */
+final class LayoutSnapshot {
+
+    static final int FORMAT_VERSION = 1;
+    static final String SUFFIX = ".snap";
+    private static final int MAGIC = 0x44534E50; // "DSNP"
+    private static final int NULL_BLOCK = 0;
+    private static final int NEW_BLOCK = 1;
+
+    private LayoutSnapshot() {
+    }
+
+    /**
+     * Compiles the layout and its externals and writes the snapshot.
+     */
+    static void write(File layout, Path snapshot) throws IOException, SAXException, ParserConfigurationException {
+        Layout compiled = LayoutCompiler.compile(layout);
+        Map<String, Block> externals = new LinkedHashMap<>();
+        List<Source> sources = new ArrayList<>();
+        sources.add(Source.of(layout.getName(), layout.toPath()));
+        List<Block> pending = new ArrayList<>(List.of(compiled.root));
+        for (int i = 0; i < pending.size(); i++) {
+            for (String fileName : externalNames(pending.get(i))) {
+                if (externals.containsKey(fileName)) {
+                    continue;
+                }
+                Block root = null;
+                Path path = null;
+                try {
+                    path = Path.of(compiled.dir, fileName);
+                    root = LayoutCompiler.compile(path.toFile()).root;
+                    pending.add(root);
+                } catch (Exception any) {
+                    // looked up at parse time, which reports it as not found
+                }
+                externals.put(fileName, root);
+                sources.add(Source.of(fileName, path));
+            }
+        }
+        Writer body = new Writer();
+        body.string(compiled.name);
+        body.string(compiled.type);
+        body.string(compiled.codePage.name());
+        body.block(compiled.root);
+        Map<String, Block> inlined = new LinkedHashMap<>(externals);
+        inlined.values().removeIf(root -> root == null);
+        body.number(inlined.size());
+        for (Map.Entry<String, Block> external : inlined.entrySet()) {
+            body.string(external.getKey());
+            body.block(external.getValue());
+        }
+
+        Writer out = new Writer();
+        out.fixed(MAGIC);
+        out.fixed(FORMAT_VERSION);
+        out.number(sources.size());
+        for (Source source : sources) {
+            out.raw(source.name);
+            out.number(source.size);
+            out.fixed(source.crc);
+        }
+        out.number(body.strings.size());
+        for (String string : body.strings.keySet()) {
+            out.raw(string);
+        }
+        out.bytes.write(body.bytes.toByteArray());
+        Path temp = snapshot.resolveSibling(snapshot.getFileName() + ".tmp");
+        try {
+            Files.write(temp, out.bytes.toByteArray());
+            Files.move(temp, snapshot, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * CRC-32C of the layout and its externals as a snapshot holds them, so that it changes with
+     * any edit that changes how records are dissected. Externals that cannot be loaded count as
+     * missing.
+     */
+    static int fingerprint(Layout layout) {
+        Writer body = new Writer();
+        body.string(layout.name);
+        body.string(layout.type);
+        body.string(layout.codePage.name());
+        body.block(layout.root);
+        List<String> done = new ArrayList<>();
+        List<Block> pending = new ArrayList<>(List.of(layout.root));
+        for (int i = 0; i < pending.size(); i++) {
+            for (String fileName : externalNames(pending.get(i))) {
+                if (done.contains(fileName)) {
+                    continue;
+                }
+                done.add(fileName);
+                Block root = null;
+                try {
+                    root = layout.external(fileName);
+                    pending.add(root);
+                } catch (Exception any) {
+                    // missing, as in a snapshot
+                }
+                body.string(fileName);
+                body.block(root);
+            }
+        }
+        Writer table = new Writer();
+        for (String string : body.strings.keySet()) {
+            table.raw(string);
+        }
+        CRC32C crc = new CRC32C();
+        crc.update(table.bytes.toByteArray());
+        crc.update(body.bytes.toByteArray());
+        return (int) crc.getValue();
+    }
+
+    /**
+     * The layout of the snapshot, or the layout compiled from the XML through the
+     * {@linkplain LayoutCache#shared() shared cache} when the snapshot is missing, unreadable or
+     * stale.
+     */
+    static Layout load(File layout, Path snapshot) throws IOException, SAXException, ParserConfigurationException {
+        Layout read = null;
+        try {
+            read = read(layout, snapshot);
+        } catch (IOException | RuntimeException unusable) {
+            // compiled from the XML below
+        }
+        return read != null ? read : LayoutCache.shared().get(layout);
+    }
+
+    /**
+     * The layout of the snapshot, {@code null} when the snapshot was written by another format
+     * version or its sources changed. Fails when the file cannot be read or is damaged.
+     */
+    static Layout read(File layout, Path snapshot) throws IOException {
+        ByteBuffer data = ByteBuffer.wrap(Files.readAllBytes(snapshot));
+        try {
+            if (data.getInt() != MAGIC) {
+                throw new IOException(String.format("%s is not a layout snapshot", snapshot));
+            }
+            if (data.getInt() != FORMAT_VERSION) {
+                return null;
+            }
+            Reader in = new Reader(data);
+            String dir = layout.getParent();
+            int sourceCount = in.number();
+            for (int i = 0; i < sourceCount; i++) {
+                String name = in.raw();
+                Source source;
+                try {
+                    source = Source.of(name, i == 0 ? layout.toPath() : Path.of(dir, name));
+                } catch (RuntimeException invalid) {
+                    source = new Source(name, -1, 0);
+                }
+                if (source.size != in.number() || source.crc != data.getInt()) {
+                    return null;
+                }
+            }
+            String[] strings = new String[in.number()];
+            for (int i = 0; i < strings.length; i++) {
+                strings[i] = in.raw();
+            }
+            in.strings = strings;
+            String name = in.string();
+            String type = in.string();
+            CodePage codePage = CodePage.of(in.string());
+            Block root = in.block();
+            Map<String, Block> externals = new LinkedHashMap<>();
+            int externalCount = in.number();
+            for (int i = 0; i < externalCount; i++) {
+                externals.put(in.string(), in.block());
+            }
+            if (data.hasRemaining()) {
+                throw new IOException(String.format("%s has %d bytes after the layout", snapshot, data.remaining()));
+            }
+            return new Layout(name, type, dir, root, codePage, externals);
+        } catch (RuntimeException damaged) {
+            throw new IOException(String.format("%s is damaged", snapshot), damaged);
+        }
+    }
+
+    /**
+     * File names of the externals the block and its nested blocks refer to: {@code for=} names
+     * that are not strucs of the block holding the field.
+     */
+    private static List<String> externalNames(Block block) {
+        List<String> names = new ArrayList<>();
+        Map<Block, Boolean> seen = new IdentityHashMap<>();
+        List<Block> blocks = new ArrayList<>(List.of(block));
+        for (int i = 0; i < blocks.size(); i++) {
+            Block current = blocks.get(i);
+            for (Block[] children : List.of(current.strucs, current.versions, current.groups)) {
+                blocks.addAll(Arrays.asList(children));
+            }
+            for (Field field : current.fields) {
+                if (field.target == null && !field.forName.isEmpty() && !names.contains(field.forName)) {
+                    names.add(field.forName);
+                }
+                if (field.head != null && seen.put(field.head, Boolean.TRUE) == null) {
+                    blocks.add(field.head);
+                }
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Writes snapshots of layout files, each next to its layout with the suffix {@value #SUFFIX}
+     * unless the {@code -o} option names the snapshot of the layout following it.
+     * <pre>java org.anusrnm.dissector.LayoutSnapshot [-o SNAPSHOT] LAYOUT.xml ...</pre>
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length == 0) {
+            System.err.println("Usage: LayoutSnapshot [-o SNAPSHOT] LAYOUT.xml ...");
+            System.exit(2);
+        }
+        for (int i = 0; i < args.length; i++) {
+            Path snapshot = null;
+            if (args[i].equals("-o") && i + 2 < args.length) {
+                snapshot = Path.of(args[i + 1]);
+                i += 2;
+            }
+            File layout = new File(args[i]);
+            if (snapshot == null) {
+                snapshot = Path.of(args[i] + SUFFIX);
+            }
+            write(layout, snapshot);
+            System.out.printf("%s -> %s (%d bytes)%n", layout, snapshot, Files.size(snapshot));
+        }
+    }
+
+    /**
+     * Size and CRC-32C of an XML source, size -1 when it does not exist.
+     */
+    private static final class Source {
+
+        final String name;
+        final long size;
+        final int crc;
+
+        Source(String name, long size, int crc) {
+            this.name = name;
+            this.size = size;
+            this.crc = crc;
+        }
+
+        static Source of(String name, Path path) throws IOException {
+            if (path == null) {
+                return new Source(name, -1, 0);
+            }
+            byte[] content;
+            try {
+                content = Files.readAllBytes(path);
+            } catch (NoSuchFileException missing) {
+                return new Source(name, -1, 0);
+            }
+            CRC32C crc = new CRC32C();
+            crc.update(content);
+            return new Source(name, content.length, (int) crc.getValue());
+        }
+    }
+
+    private static final class Writer {
+
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final Map<String, Integer> strings = new LinkedHashMap<>();
+        private final Map<Block, Integer> blocks = new IdentityHashMap<>();
+
+        void fixed(int value) {
+            for (int shift = 24; shift >= 0; shift -= 8) {
+                bytes.write(value >>> shift);
+            }
+        }
+
+        void number(long value) {
+            long zigzag = (value << 1) ^ (value >> 63);
+            while ((zigzag & ~0x7FL) != 0) {
+                bytes.write((int) (zigzag & 0x7F) | 0x80);
+                zigzag >>>= 7;
+            }
+            bytes.write((int) zigzag);
+        }
+
+        void raw(String value) {
+            byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+            number(utf8.length);
+            bytes.write(utf8, 0, utf8.length);
+        }
+
+        void string(String value) {
+            Integer index = strings.get(value);
+            if (index == null) {
+                index = strings.size();
+                strings.put(value, index);
+            }
+            number(index);
+        }
+
+        void block(Block block) {
+            if (block == null) {
+                number(NULL_BLOCK);
+                return;
+            }
+            Integer id = blocks.get(block);
+            if (id != null) {
+                number(id + 2);
+                return;
+            }
+            number(NEW_BLOCK);
+            number(block.kind.ordinal());
+            string(block.name);
+            string(block.alias);
+            string(block.include);
+            for (Block[] children : List.of(block.strucs, block.versions, block.groups)) {
+                number(children.length);
+                for (Block child : children) {
+                    block(child);
+                }
+            }
+            number(block.fields.length);
+            for (Field field : block.fields) {
+                field(block, field);
+            }
+            blocks.put(block, blocks.size());
+        }
+
+        private void field(Block block, Field field) {
+            string(field.name);
+            string(field.type);
+            number(field.kind.ordinal());
+            string(field.lengthAttr);
+            number(field.length);
+            number(field.minus);
+            number((field.invalidLength ? 1 : 0) | (field.invalidMinus ? 2 : 0)
+                    | (field.useForFiller ? 4 : 0) | (field.partOfStruc ? 8 : 0));
+            number(field.values.size());
+            for (Map.Entry<String, String> value : field.values.entrySet()) {
+                string(value.getKey());
+                string(value.getValue());
+            }
+            string(field.forName);
+            block(field.head);
+            int target = -1;
+            for (int i = 0; i < block.strucs.length && field.target != null; i++) {
+                if (block.strucs[i] == field.target) {
+                    target = i;
+                    break;
+                }
+            }
+            if (field.target != null && target < 0) {
+                throw new IllegalStateException(String.format("Target of %s is not a struc of %s", field, block));
+            }
+            number(target);
+        }
+    }
+
+    private static final class Reader {
+
+        private final ByteBuffer data;
+        private final List<Block> blocks = new ArrayList<>();
+        String[] strings;
+
+        Reader(ByteBuffer data) {
+            this.data = data;
+        }
+
+        long wide() {
+            long zigzag = 0;
+            for (int shift = 0; ; shift += 7) {
+                if (shift > 63) {
+                    throw new IllegalArgumentException("Number too long");
+                }
+                byte b = data.get();
+                zigzag |= (long) (b & 0x7F) << shift;
+                if (b >= 0) {
+                    break;
+                }
+            }
+            return (zigzag >>> 1) ^ -(zigzag & 1);
+        }
+
+        int number() {
+            return Math.toIntExact(wide());
+        }
+
+        String raw() {
+            byte[] utf8 = new byte[number()];
+            data.get(utf8);
+            return new String(utf8, StandardCharsets.UTF_8);
+        }
+
+        String string() {
+            return strings[number()];
+        }
+
+        Block block() {
+            int ref = number();
+            if (ref == NULL_BLOCK) {
+                return null;
+            }
+            if (ref != NEW_BLOCK) {
+                return blocks.get(ref - 2);
+            }
+            Block.Kind kind = Block.Kind.values()[number()];
+            String name = string();
+            String alias = string();
+            String include = string();
+            NameIndex strucs = new NameIndex(blocks(number()));
+            NameIndex versions = new NameIndex(blocks(number()));
+            NameIndex groups = new NameIndex(blocks(number()));
+            for (Block version : versions.candidates()) {
+                version.resolveIncludes(versions);
+            }
+            Field[] fields = new Field[number()];
+            for (int i = 0; i < fields.length; i++) {
+                fields[i] = field(strucs.candidates());
+            }
+            Block block = new Block(kind, name, alias, include, fields, strucs, versions, groups);
+            blocks.add(block);
+            return block;
+        }
+
+        private Block[] blocks(int count) {
+            Block[] children = new Block[count];
+            for (int i = 0; i < count; i++) {
+                children[i] = block();
+            }
+            return children;
+        }
+
+        private Field field(Block[] strucs) {
+            String name = string();
+            String type = string();
+            Field.Kind kind = Field.Kind.values()[number()];
+            String lengthAttr = string();
+            int length = number();
+            int minus = number();
+            int flags = number();
+            Map<String, String> values = new LinkedHashMap<>();
+            int valueCount = number();
+            for (int i = 0; i < valueCount; i++) {
+                values.put(string(), string());
+            }
+            String forName = string();
+            Block head = block();
+            int target = number();
+            return new Field(name, type, kind, lengthAttr, length, (flags & 1) != 0, minus, (flags & 2) != 0,
+                    values, forName, (flags & 4) != 0, (flags & 8) != 0, head, target < 0 ? null : strucs[target]);
+        }
+    }
+}
@@ -0,0 +1,237 @@
+package org.anusrnm.dissector;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * {@link DissectionMetrics} kept in memory: counts and latency histograms per layout name and per
+ * field kind, counts per message code, bytes read and external layout lookups. Recording only
+ * touches {@link LongAdder}s, so concurrent dissections do not contend.
+ */
+final class MetricsRegistry implements DissectionMetrics {
+
+    private static final int MIN_CODE = Dissector.E_TOO_DEEP;
+    private static final int MAX_CODE = Dissector.STOPPED;
+
+    private final Map<String, LayoutMetrics> layouts = new ConcurrentHashMap<>();
+    private final LongAdder externalLookups = new LongAdder();
+    private final LongAdder externalFailures = new LongAdder();
+    private final Histogram externalLatency = new Histogram();
+
+    private LayoutMetrics of(Layout layout) {
+        LayoutMetrics metrics = layouts.get(layout.name);
+        return metrics != null ? metrics : layouts.computeIfAbsent(layout.name, name -> new LayoutMetrics());
+    }
+
+    @Override
+    public void finished(Layout layout, long nanos, long length, int code) {
+        LayoutMetrics metrics = of(layout);
+        metrics.latency.record(nanos);
+        metrics.bytes.add(length);
+        if (code != 0) {
+            metrics.failures.increment();
+        }
+    }
+
+    @Override
+    public void field(Layout layout, Field.Kind kind, long nanos) {
+        of(layout).fields[kind.ordinal()].record(nanos);
+    }
+
+    @Override
+    public void message(Layout layout, int code) {
+        if (code >= MIN_CODE && code <= MAX_CODE) {
+            of(layout).messages[code - MIN_CODE].increment();
+        }
+    }
+
+    @Override
+    public void external(Layout layout, String fileName, long nanos, boolean found) {
+        externalLookups.increment();
+        externalLatency.record(nanos);
+        if (!found) {
+            externalFailures.increment();
+        }
+    }
+
+    /**
+     * Names of the layouts dissected so far.
+     */
+    Set<String> layouts() {
+        return new TreeSet<>(layouts.keySet());
+    }
+
+    /**
+     * Dissection times of the layout; its count is the number of dissections.
+     */
+    Histogram latency(String layout) {
+        LayoutMetrics metrics = layouts.get(layout);
+        return metrics == null ? new Histogram() : metrics.latency;
+    }
+
+    /**
+     * Number of dissections of the layout that ended with an error or warning code.
+     */
+    long failures(String layout) {
+        LayoutMetrics metrics = layouts.get(layout);
+        return metrics == null ? 0 : metrics.failures.sum();
+    }
+
+    long bytes(String layout) {
+        LayoutMetrics metrics = layouts.get(layout);
+        return metrics == null ? 0 : metrics.bytes.sum();
+    }
+
+    Histogram fields(String layout, Field.Kind kind) {
+        LayoutMetrics metrics = layouts.get(layout);
+        return metrics == null ? new Histogram() : metrics.fields[kind.ordinal()];
+    }
+
+    long messages(String layout, int code) {
+        LayoutMetrics metrics = layouts.get(layout);
+        return metrics == null || code < MIN_CODE || code > MAX_CODE ? 0 : metrics.messages[code - MIN_CODE].sum();
+    }
+
+    long externalLookups() {
+        return externalLookups.sum();
+    }
+
+    long externalFailures() {
+        return externalFailures.sum();
+    }
+
+    Histogram externalLatency() {
+        return externalLatency;
+    }
+
+    void clear() {
+        layouts.clear();
+        externalLookups.reset();
+        externalFailures.reset();
+        externalLatency.reset();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (String name : layouts()) {
+            LayoutMetrics metrics = layouts.get(name);
+            sb.append(String.format("%s: %s, %d failed, %d bytes%n", name, metrics.latency,
+                    metrics.failures.sum(), metrics.bytes.sum()));
+            for (Field.Kind kind : Field.Kind.values()) {
+                Histogram fields = metrics.fields[kind.ordinal()];
+                if (fields.count() > 0) {
+                    sb.append(String.format("  %s: %s%n", kind.name().toLowerCase(), fields));
+                }
+            }
+            for (int code = MIN_CODE; code <= MAX_CODE; code++) {
+                long count = metrics.messages[code - MIN_CODE].sum();
+                if (count > 0) {
+                    sb.append(String.format("  code %d: %d%n", code, count));
+                }
+            }
+        }
+        if (externalLookups.sum() > 0) {
+            sb.append(String.format("external: %s, %d not found%n", externalLatency, externalFailures.sum()));
+        }
+        return sb.toString();
+    }
+
+    private static final class LayoutMetrics {
+
+        final Histogram latency = new Histogram();
+        final LongAdder failures = new LongAdder();
+        final LongAdder bytes = new LongAdder();
+        final Histogram[] fields = new Histogram[Field.Kind.values().length];
+        final LongAdder[] messages = new LongAdder[MAX_CODE - MIN_CODE + 1];
+
+        LayoutMetrics() {
+            for (int i = 0; i < fields.length; i++) {
+                fields[i] = new Histogram();
+            }
+            for (int i = 0; i < messages.length; i++) {
+                messages[i] = new LongAdder();
+            }
+        }
+    }
+
+    /**
+     * Latencies in power of two buckets of nanoseconds; percentiles are the upper bound of the
+     * bucket they fall in, so they are exact to within a factor of two.
+     */
+    static final class Histogram {
+
+        private final LongAdder[] buckets = new LongAdder[64];
+        private final LongAdder total = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+        Histogram() {
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        void record(long nanos) {
+            long value = Math.max(0, nanos);
+            buckets[64 - Long.numberOfLeadingZeros(value)].increment();
+            total.add(value);
+            max.accumulate(value);
+        }
+
+        long count() {
+            long count = 0;
+            for (LongAdder bucket : buckets) {
+                count += bucket.sum();
+            }
+            return count;
+        }
+
+        long totalNanos() {
+            return total.sum();
+        }
+
+        long maxNanos() {
+            return max.get();
+        }
+
+        /**
+         * The upper bound of the bucket holding the given fraction (0 to 1) of the values.
+         */
+        long percentile(double fraction) {
+            long[] counts = new long[buckets.length];
+            long count = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                counts[i] = buckets[i].sum();
+                count += counts[i];
+            }
+            long rank = (long) Math.ceil(fraction * count);
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (counts[i] > 0 && seen >= rank) {
+                    return i == 0 ? 0 : Math.min((1L << i) - 1, maxNanos());
+                }
+            }
+            return 0;
+        }
+
+        void reset() {
+            for (LongAdder bucket : buckets) {
+                bucket.reset();
+            }
+            total.reset();
+            max.reset();
+        }
+
+        @Override
+        public String toString() {
+            long count = count();
+            return String.format("count=%d mean=%dns p50=%dns p99=%dns max=%dns", count,
+                    count == 0 ? 0 : totalNanos() / count, percentile(0.5), percentile(0.99), maxNanos());
+        }
+    }
+}
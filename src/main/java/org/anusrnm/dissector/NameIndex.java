@@ -0,0 +1,195 @@
+package org.anusrnm.dissector;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Lookup of strucs, groups or versions by name, built once per block, with the {@link Dissector#START}
+ * match of {@link Dissector#getMatchingElement}: the first candidate whose name, ignoring case, is a
+ * prefix of the value. Values read while dissecting are looked up straight from their input range in
+ * a trie of the case folded names, one trie step per character, without creating the value's text.
+ * <p>
+ * Folding is only done here for ASCII, where it is the same as {@code toLowerCase()}. Values that
+ * reach a non-ASCII character, or an {@code I} under a Turkish or Azerbaijani default locale, and
+ * names that do not fold to ASCII are searched linearly exactly like the DOM based search.
+ */
+final class NameIndex {
+
+    private static final int NONE = Integer.MAX_VALUE;
+    private static final int FALLBACK = -1;
+
+    private final Block[] candidates;
+    private final String[] lowerNames;
+    private final boolean indexed;
+    private final Trie prefixes;
+
+    NameIndex(Block[] candidates) {
+        this.candidates = candidates;
+        this.lowerNames = new String[candidates.length];
+        boolean ascii = true;
+        for (int i = 0; i < candidates.length; i++) {
+            lowerNames[i] = candidates[i].name.toLowerCase();
+            ascii &= isAscii(lowerNames[i]) && isAscii(candidates[i].name);
+        }
+        this.indexed = ascii;
+        this.prefixes = new Trie();
+        if (ascii) {
+            for (int i = 0; i < candidates.length; i++) {
+                prefixes.add(lowerNames[i], i);
+            }
+        }
+        prefixes.freeze();
+    }
+
+    /**
+     * The candidates in document order.
+     */
+    Block[] candidates() {
+        return candidates;
+    }
+
+    /**
+     * The first candidate whose name, ignoring case, is a prefix of the value, e.g. a {@code for} or
+     * {@code include} attribute.
+     */
+    Block startingWith(String value) {
+        String lowerValue = value.toLowerCase();
+        for (int i = 0; i < candidates.length; i++) {
+            if (lowerValue.startsWith(lowerNames[i])) {
+                return candidates[i];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Same as {@link #startingWith(String)} for the text of the input range.
+     */
+    Block startingWith(Input input, int start, int end) {
+        int found = indexed ? prefixes.find(input, start, input.textLength(start, end)) : FALLBACK;
+        if (found == FALLBACK) {
+            return startingWith(input.text(start, end));
+        }
+        return found == NONE ? null : candidates[found];
+    }
+
+    private static boolean isAscii(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            if (value.charAt(i) >= 0x80) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * ASCII lower case of the character, or -1 where {@code toLowerCase()} may differ.
+     */
+    private static int fold(char c) {
+        if (c >= 0x80) {
+            return -1;
+        }
+        if (c >= 'A' && c <= 'Z') {
+            if (c == 'I' && turkic()) {
+                return -1;
+            }
+            return c + ('a' - 'A');
+        }
+        return c;
+    }
+
+    private static boolean turkic() {
+        String language = Locale.getDefault().getLanguage();
+        return language.equals("tr") || language.equals("az");
+    }
+
+    /**
+     * A trie kept in arrays: node 0 is the root, each node has parallel arrays of child labels and
+     * child nodes, and the lowest candidate index of the names ending at it.
+     */
+    private static final class Trie {
+
+        private final List<char[]> labels = new ArrayList<>();
+        private final List<int[]> children = new ArrayList<>();
+        private final List<Integer> firstList = new ArrayList<>();
+        private char[][] label = new char[0][];
+        private int[][] child = new int[0][];
+        private int[] first = new int[0];
+
+        Trie() {
+            newNode();
+        }
+
+        private int newNode() {
+            labels.add(new char[0]);
+            children.add(new int[0]);
+            firstList.add(NONE);
+            return labels.size() - 1;
+        }
+
+        void add(String name, int index) {
+            int node = 0;
+            for (int i = 0; i < name.length(); i++) {
+                char c = name.charAt(i);
+                int next = step(labels.get(node), children.get(node), c);
+                if (next < 0) {
+                    next = newNode();
+                    char[] l = labels.get(node);
+                    int[] ch = children.get(node);
+                    char[] nl = Arrays.copyOf(l, l.length + 1);
+                    int[] nc = Arrays.copyOf(ch, ch.length + 1);
+                    nl[l.length] = c;
+                    nc[ch.length] = next;
+                    labels.set(node, nl);
+                    children.set(node, nc);
+                }
+                node = next;
+            }
+            firstList.set(node, Math.min(firstList.get(node), index));
+        }
+
+        void freeze() {
+            label = labels.toArray(new char[0][]);
+            child = children.toArray(new int[0][]);
+            first = new int[firstList.size()];
+            for (int i = 0; i < first.length; i++) {
+                first[i] = firstList.get(i);
+            }
+            labels.clear();
+            children.clear();
+            firstList.clear();
+        }
+
+        private static int step(char[] l, int[] ch, char c) {
+            for (int i = 0; i < l.length; i++) {
+                if (l[i] == c) {
+                    return ch[i];
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Lowest index of a name that is a prefix of the text of {@code length} characters from
+         * {@code start}, {@link #NONE}, or {@link #FALLBACK} when the text cannot be folded here.
+         */
+        int find(Input input, int start, int length) {
+            int node = 0;
+            int best = first[0];
+            for (int i = 0; i < length; i++) {
+                int c = fold(input.textAt(start, i));
+                if (c < 0) {
+                    return FALLBACK;
+                }
+                node = step(label[node], child[node], (char) c);
+                if (node < 0) {
+                    return best;
+                }
+                best = Math.min(best, first[node]);
+            }
+            return best;
+        }
+    }
+}
@@ -0,0 +1,309 @@
+package org.anusrnm.dissector;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Where the occurrences of the repeated strucs of one record start, so that occurrence N of a
+ * counter, length or {@code filler for=} struc is dissected on its own instead of after the N-1
+ * before it.
+ * <p>
+ * The index is built by one dissection of the record that wants no fields; only values whose
+ * decoding could fail are decoded, so that it stops with the same result as a dissection that wants
+ * every field. Occurrences of strucs of a {@linkplain Block#fixedSize fixed size} whose fields always
+ * decode are not dissected at all: a run of them is kept as its start and size and occurrence N is
+ * found by arithmetic. Occurrences of other strucs are kept one by one with the state the dissection
+ * had when entering them. Keep the index with the record; it
+ * refers to the record's buffer and is only valid while the bytes do not change.
+ * <p>
+ * A repeat is named by the path of the struc, as in {@link FieldExtractor}: {@code body/item} is
+ * the first {@code item} repeat within a {@code body}, {@code body[2]/item} the one within the second
+ * {@code body}. Occurrences count from 1 and only those the dissection reaches are indexed.
+ */
+final class OccurrenceIndex {
+
+    private final Dissector dissector;
+    private final Layout layout;
+    private final ByteBuffer data;
+    private final int maxDepth;
+    private final List<Repeat> repeats;
+    private final int result;
+
+    OccurrenceIndex(Dissector dissector, ByteBuffer data, int maxDepth) {
+        this.dissector = dissector;
+        this.layout = dissector.getLayout();
+        this.data = data.duplicate();
+        this.maxDepth = maxDepth;
+        Builder builder = new Builder();
+        this.result = new ParseContext(layout, new ByteInput(this.data, layout.codePage), builder, null, maxDepth,
+                builder).parse();
+        this.repeats = builder.repeats;
+    }
+
+    /**
+     * The result of dissecting the whole record, as for a visitor that wants every field: 0, or the
+     * code of the error that stopped it.
+     */
+    int result() {
+        return result;
+    }
+
+    /**
+     * Number of repeats in the record, each occurrence of an enclosing repeat counting separately.
+     */
+    int repeats() {
+        return repeats.size();
+    }
+
+    /**
+     * Number of occurrences of the repeat the dissection reached, 0 when the path names none.
+     */
+    int count(String path) {
+        Repeat repeat = find(path);
+        return repeat == null ? 0 : repeat.count();
+    }
+
+    /**
+     * Offset of the occurrence from the start of the record.
+     */
+    long offset(String path, int occurrence) {
+        return occurrence(path, occurrence).position - data.position();
+    }
+
+    /**
+     * Dissects the occurrence alone, framed by its {@link DissectionVisitor#onEnterStruc} and
+     * {@link DissectionVisitor#onExitStruc} events; offsets are those within the record. Returns 0,
+     * or the code of the error that stopped the dissection of the occurrence.
+     */
+    int parse(String path, int occurrence, DissectionVisitor visitor) {
+        Occurrence at = occurrence(path, occurrence);
+        visitor.onEnterStruc(at.field, at.block, at.displ, at.size, at.number, at.count);
+        int ret = new ParseContext(layout, new ByteInput(data, layout.codePage), visitor, null, maxDepth).parse(at);
+        visitor.onExitStruc(at.field, at.block, at.number);
+        return ret;
+    }
+
+    /**
+     * The text report of the occurrence alone.
+     */
+    String parse(String path, int occurrence) {
+        TextReport report = dissector.textReport(null);
+        parse(path, occurrence, report);
+        return report.toString();
+    }
+
+    /**
+     * The values of fields of the occurrence. Paths start with the name of the repeated struc, e.g.
+     * {@code item/Qty}.
+     */
+    Map<String, String> extract(String path, int occurrence, String... fieldPaths) {
+        FieldExtractor extractor = new FieldExtractor(fieldPaths);
+        parse(path, occurrence, extractor);
+        return extractor.values();
+    }
+
+    private Occurrence occurrence(String path, int occurrence) {
+        Repeat repeat = find(path);
+        if (repeat == null || occurrence < 1 || occurrence > repeat.count()) {
+            throw new IllegalArgumentException(String.format("No occurrence %d of %s in the record", occurrence, path));
+        }
+        return repeat.occurrence(occurrence);
+    }
+
+    private Repeat find(String path) {
+        String[] segments = FieldExtractor.segments(path);
+        for (Repeat repeat : repeats) {
+            if (repeat.matches(segments, path)) {
+                return repeat;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * One occurrence of a repeated struc and the state of the dissection entering it.
+     */
+    static final class Occurrence {
+
+        final Field field;
+        final Block block;
+        final int number;
+        final int count;
+        final long size;
+        final int position;
+        final int limit;
+        final int depth;
+        final long displ;
+        final long fillerLen;
+        final boolean trackLen;
+        final long useFieldLen;
+
+        Occurrence(Repeat repeat, int number, int segment, int index) {
+            long skipped = index * repeat.strides[segment];
+            this.field = repeat.field;
+            this.block = repeat.block;
+            this.number = number;
+            this.count = repeat.counter;
+            this.size = repeat.size;
+            this.position = (int) (repeat.positions[segment] + skipped);
+            this.limit = repeat.limit;
+            this.depth = repeat.depth;
+            this.displ = repeat.displs[segment] + skipped;
+            this.trackLen = repeat.trackLens[segment];
+            this.fillerLen = repeat.fillerLens[segment] + (trackLen ? skipped : 0);
+            this.useFieldLen = repeat.useFieldLens[segment];
+        }
+    }
+
+    /**
+     * The occurrences of one counter or window, in runs: a run of occurrences of a fixed size struc
+     * is one entry, other occurrences have an entry each.
+     */
+    private static final class Repeat {
+
+        final Field field;
+        final Block block;
+        final int counter;
+        final long size;
+        final Block[] levels;
+        final int[] levelOccurrences;
+        int limit;
+        int depth;
+        int runs;
+        // last occurrence number of each run
+        int[] ends = new int[4];
+        long[] strides = new long[4];
+        int[] positions = new int[4];
+        long[] displs = new long[4];
+        long[] fillerLens = new long[4];
+        boolean[] trackLens = new boolean[4];
+        long[] useFieldLens = new long[4];
+
+        Repeat(Field field, Block block, long size, int counter, Block[] levels, int[] levelOccurrences) {
+            this.field = field;
+            this.block = block;
+            this.size = size;
+            this.counter = counter;
+            this.levels = levels;
+            this.levelOccurrences = levelOccurrences;
+        }
+
+        int count() {
+            return runs == 0 ? 0 : ends[runs - 1];
+        }
+
+        void add(int count, long stride, int position, int limit, int depth, long displ, long fillerLen,
+                 boolean trackLen, long useFieldLen) {
+            if (runs == ends.length) {
+                int grown = runs * 2;
+                ends = Arrays.copyOf(ends, grown);
+                strides = Arrays.copyOf(strides, grown);
+                positions = Arrays.copyOf(positions, grown);
+                displs = Arrays.copyOf(displs, grown);
+                fillerLens = Arrays.copyOf(fillerLens, grown);
+                trackLens = Arrays.copyOf(trackLens, grown);
+                useFieldLens = Arrays.copyOf(useFieldLens, grown);
+            }
+            this.limit = limit;
+            this.depth = depth;
+            ends[runs] = count() + count;
+            strides[runs] = stride;
+            positions[runs] = position;
+            displs[runs] = displ;
+            fillerLens[runs] = fillerLen;
+            trackLens[runs] = trackLen;
+            useFieldLens[runs] = useFieldLen;
+            runs++;
+        }
+
+        Occurrence occurrence(int number) {
+            int run = number <= ends[0] ? 0 : Arrays.binarySearch(ends, 1, runs, number);
+            if (run < 0) {
+                run = -run - 1;
+            }
+            int first = run == 0 ? 1 : ends[run - 1] + 1;
+            return new Occurrence(this, number, run, number - first);
+        }
+
+        boolean matches(String[] segments, String path) {
+            if (segments.length != levels.length + 1 || !FieldExtractor.name(segments[levels.length]).equals(block.name)) {
+                return false;
+            }
+            for (int j = 0; j < levels.length; j++) {
+                Block level = levels[j];
+                String name = FieldExtractor.name(segments[j]);
+                if (!name.equals(level.name) && !(level.kind == Block.Kind.GROUP && name.equals(level.alias))) {
+                    return false;
+                }
+                int occurrence = FieldExtractor.occurrence(segments[j], path);
+                if (occurrence != 0 && occurrence != levelOccurrences[j]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Collects the repeats while the record is dissected: the levels leading to each repeat from the
+     * struc events, the occurrences from {@link ParseContext}.
+     */
+    static final class Builder implements DissectionVisitor {
+
+        final List<Repeat> repeats = new ArrayList<>();
+        private final List<Repeat> open = new ArrayList<>();
+        private Block[] levels = new Block[8];
+        private int[] levelOccurrences = new int[8];
+        private int depth = 0;
+
+        @Override
+        public boolean wants(Field field) {
+            return false;
+        }
+
+        @Override
+        public void onEnterStruc(Field field, Block block, long offset, long size, int occurrence, int count) {
+            if (isRepeat(field, block, occurrence)) {
+                Repeat repeat = new Repeat(field, block, size, count, Arrays.copyOf(levels, depth),
+                        Arrays.copyOf(levelOccurrences, depth));
+                repeats.add(repeat);
+                open.add(repeat);
+            } else if (FieldExtractor.isLevel(field, block, occurrence)) {
+                if (depth == levels.length) {
+                    levels = Arrays.copyOf(levels, depth * 2);
+                    levelOccurrences = Arrays.copyOf(levelOccurrences, depth * 2);
+                }
+                levels[depth] = block;
+                levelOccurrences[depth] = occurrence;
+                depth++;
+            }
+        }
+
+        @Override
+        public void onExitStruc(Field field, Block block, int occurrence) {
+            if (isRepeat(field, block, occurrence)) {
+                open.remove(open.size() - 1);
+            } else if (FieldExtractor.isLevel(field, block, occurrence)) {
+                levels[--depth] = null;
+            }
+        }
+
+        /**
+         * Occurrences of the innermost open repeat starting at {@code position}: {@code count} of them,
+         * {@code stride} bytes apart.
+         */
+        void add(int count, long stride, int position, int limit, int depth, long displ, long fillerLen,
+                 boolean trackLen, long useFieldLen) {
+            open.get(open.size() - 1).add(count, stride, position, limit, depth, displ, fillerLen, trackLen,
+                    useFieldLen);
+        }
+
+        private static boolean isRepeat(Field field, Block block, int occurrence) {
+            return occurrence == 0 && block != field.head && (field.kind == Field.Kind.COUNTER
+                    || field.kind == Field.Kind.LENGTH || field.kind == Field.Kind.FILLER);
+        }
+    }
+}
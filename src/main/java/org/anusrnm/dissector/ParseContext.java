@@ -0,0 +1,878 @@
+package org.anusrnm.dissector;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * State of a single dissection: the input cursor, the running displacement and the filler
+ * bookkeeping. Results go to a {@link DissectionVisitor}, measurements to the optional
+ * {@link DissectionMetrics}. A context is created per call and never shared.
+ * <p>
+ * Nesting is handled with an explicit stack of {@link Frame}s instead of recursion: a block frame
+ * walks the fields of a block, and a field that selects strucs pushes a frame that enters them one
+ * after the other, each as a new block frame. A frame that needs a nested block pushes it and
+ * returns {@link #PUSHED}; the result of the nested block is handed to the frame when it is resumed.
+ * The events and results are the same as those of the recursive parser this replaced, but the depth
+ * is only limited by {@code maxDepth}; blocks nested deeper end the dissection with
+ * {@link Dissector#E_TOO_DEEP}.
+ * <p>
+ * The stack also lets a dissection of {@linkplain Input#available() partly available} input stop
+ * and continue later: a step that would read, or decide on, data that has not arrived returns
+ * {@link #SUSPENDED} before changing any state, and {@link #resume()} repeats it. Once the input is
+ * complete, {@link #endOfInput()} narrows the limits taken while the end was unknown, so the
+ * result is that of dissecting the whole input at once.
+ */
+final class ParseContext {
+
+    /**
+     * Returned by a step that pushed a frame, instead of a result.
+     */
+    private static final int PUSHED = Integer.MIN_VALUE;
+    /**
+     * Returned by {@link #resume()} while the dissection waits for more input.
+     */
+    static final int SUSPENDED = Integer.MIN_VALUE + 1;
+
+    private final Layout layout;
+    private final Input input;
+    private final DissectionVisitor visitor;
+    private final FieldValue value;
+    private final DissectionMetrics metrics;
+    private final int maxDepth;
+    private final OccurrenceIndex.Builder occurrences;
+    private long displ = 0;
+    private long fillerLen = -1;
+    private boolean trackLen = false;
+    private long useFieldLen = 0;
+    private Frame[] stack = new Frame[16];
+    private int top = 0;
+    private int baseDepth = 0;
+    private int pending = 0;
+    private long startNanos;
+    private int startPosition;
+    private int startLimit;
+
+    ParseContext(Layout layout, Input input, DissectionVisitor visitor) {
+        this(layout, input, visitor, null, Dissector.MAX_DEPTH);
+    }
+
+    ParseContext(Layout layout, Input input, DissectionVisitor visitor, DissectionMetrics metrics, int maxDepth) {
+        this(layout, input, visitor, metrics, maxDepth, null);
+    }
+
+    /**
+     * A context that reports where the occurrences of repeated strucs start to the builder. The
+     * occurrences of fixed size strucs are then not dissected but skipped by arithmetic, which only
+     * leaves out their events; the builder wants no fields, so those events would be all there is.
+     * Values the builder does not want are still checked, and decoded where that fails, for the error.
+     */
+    ParseContext(Layout layout, Input input, DissectionVisitor visitor, DissectionMetrics metrics, int maxDepth,
+                 OccurrenceIndex.Builder occurrences) {
+        this.layout = layout;
+        this.input = input;
+        this.visitor = visitor;
+        this.value = new FieldValue(input);
+        this.metrics = metrics;
+        this.maxDepth = maxDepth;
+        this.occurrences = occurrences;
+        Decoders.lookUpZone();
+    }
+
+    /**
+     * Runs the dissection and returns 0, or the error code that stopped it. Stopping because the
+     * visitor is {@linkplain DissectionVisitor#done() done} is not an error.
+     */
+    int parse() {
+        start();
+        return resume();
+    }
+
+    /**
+     * Dissects one occurrence of a repeated struc as it is dissected within its record: from its
+     * position, with the displacement and filler bookkeeping it starts with.
+     */
+    int parse(OccurrenceIndex.Occurrence occurrence) {
+        input.window(occurrence.position, occurrence.limit);
+        displ = occurrence.displ;
+        fillerLen = occurrence.fillerLen;
+        trackLen = occurrence.trackLen;
+        useFieldLen = occurrence.useFieldLen;
+        baseDepth = occurrence.depth;
+        start(occurrence.block);
+        return resume();
+    }
+
+    void start() {
+        start(layout.root);
+    }
+
+    private void start(Block block) {
+        if (metrics != null) {
+            metrics.started(layout);
+            startNanos = System.nanoTime();
+        }
+        startPosition = input.position();
+        startLimit = input.limit();
+        pushBlock(block);
+    }
+
+    /**
+     * Continues the dissection as far as the available input allows. Returns the result as
+     * {@link #parse()} does, or {@link #SUSPENDED}.
+     */
+    int resume() {
+        int ret = run();
+        if (ret == SUSPENDED) {
+            return ret;
+        }
+        ret = visitor.done() ? 0 : ret;
+        if (metrics != null) {
+            int end = startLimit <= input.available() ? startLimit : input.position();
+            metrics.finished(layout, System.nanoTime() - startNanos, input.length(startPosition, end), ret);
+        }
+        return ret;
+    }
+
+    /**
+     * No more input will become available: limits that were taken while the end was unknown are
+     * narrowed to the end, as they would have been had the input been complete from the start.
+     */
+    void endOfInput() {
+        int available = input.available();
+        for (int i = 0; i < top; i++) {
+            stack[i].end = Math.min(stack[i].end, available);
+            stack[i].savedLimit = Math.min(stack[i].savedLimit, available);
+        }
+        input.window(input.position(), Math.min(input.limit(), available));
+    }
+
+    private boolean missing(int end) {
+        return end > input.available();
+    }
+
+    /**
+     * Whether the end of the current window is not known yet, i.e. it lies beyond the available
+     * input and the cursor has reached the end of what is available.
+     */
+    private boolean openEnded() {
+        return input.limit() > input.available() && input.position() >= input.available();
+    }
+
+    private enum Step {BLOCK, HEAD, COUNTER, VERSION, GROUP, LENGTH, WINDOW}
+
+    /**
+     * One level of the dissection. Frames are reused as the stack grows and shrinks, so a
+     * dissection only allocates them for its deepest path.
+     */
+    private static final class Frame {
+        Step step;
+        int state;
+        int depth;
+        Block block;
+        Field field;
+        /**
+         * Next field of a block, repetition of a counter or window, or included version.
+         */
+        int index;
+        int count;
+        int ret;
+        Block current;
+        String text;
+        long size;
+        int start;
+        int end;
+        int savedLimit;
+        long fieldStart;
+    }
+
+    private Frame push(Step step, Field field, Block block) {
+        if (top == stack.length) {
+            stack = Arrays.copyOf(stack, top * 2);
+        }
+        Frame frame = stack[top];
+        if (frame == null) {
+            frame = new Frame();
+            stack[top] = frame;
+        }
+        int parentDepth = top == 0 ? baseDepth - 1 : stack[top - 1].depth;
+        top++;
+        frame.step = step;
+        frame.state = 0;
+        frame.depth = step == Step.BLOCK ? parentDepth + 1 : parentDepth;
+        frame.block = block;
+        frame.field = field;
+        frame.index = 0;
+        frame.count = 0;
+        frame.ret = 0;
+        frame.current = null;
+        frame.text = null;
+        return frame;
+    }
+
+    private int pushBlock(Block block) {
+        push(Step.BLOCK, null, block);
+        return PUSHED;
+    }
+
+    private int run() {
+        int ret = pending;
+        while (top > 0) {
+            Frame frame = stack[top - 1];
+            int result;
+            switch (frame.step) {
+                case BLOCK:
+                    result = block(frame, ret);
+                    break;
+                case HEAD:
+                    result = head(frame, ret);
+                    break;
+                case COUNTER:
+                    result = counter(frame, ret);
+                    break;
+                case VERSION:
+                    result = version(frame, ret);
+                    break;
+                case GROUP:
+                    result = group(frame, ret);
+                    break;
+                case LENGTH:
+                    result = length(frame, ret);
+                    break;
+                default:
+                    result = window(frame, ret);
+            }
+            if (result == PUSHED) {
+                ret = 0;
+            } else if (result == SUSPENDED) {
+                pending = ret;
+                return SUSPENDED;
+            } else {
+                top--;
+                stack[top].block = null;
+                stack[top].current = null;
+                ret = result;
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Walks the fields of a block. In state 1 a field's frame was pushed and {@code ret} is its
+     * result; state 2 is between fields.
+     */
+    private int block(Frame frame, int ret) {
+        Field[] fl = frame.block.fields;
+        if (frame.state == 0) {
+            if (frame.depth > maxDepth) {
+                return message(Dissector.E_TOO_DEEP, null, displ,
+                        String.format("%nError: %s nested deeper than %d levels%n", frame.block, maxDepth));
+            }
+            if (fl.length == 0 && missing(input.limit())) {
+                return SUSPENDED;
+            }
+            frame.state = 2;
+            if (fl.length == 0) {
+                report(Dissector.W_NO_FIELDS, null, displ,
+                        String.format("Warning: No fields found in the layout to parse %n%s%n", input.takeRest()));
+            }
+        } else if (frame.state == 1) {
+            frame.state = 2;
+            ret = fieldDone(frame, ret);
+            if (ret != 0) {
+                return ret;
+            }
+        }
+        while (frame.index < fl.length) {
+            Field field = fl[frame.index];
+            if (visitor.done()) {
+                return Dissector.STOPPED;
+            }
+            if (field.invalidMinus) {
+                return message(Dissector.E_INVALID, null, displ,
+                        String.format("%nInvalid attribute (minus) for %s %n", field.name));
+            }
+            if (field.invalidLength) {
+                return message(Dissector.E_INVALID, null, displ,
+                        String.format("%nError: Invalid length attribute for %s%n", field.name));
+            }
+            if (field.useForFiller && missing(input.end(field.length))) {
+                return SUSPENDED;
+            }
+            long savedDispl = displ;
+            long savedFillerLen = fillerLen;
+            boolean savedTrackLen = trackLen;
+            long savedUseFieldLen = useFieldLen;
+            long offset = displ;
+            if (!field.lengthAttr.isEmpty()) {
+                displ += field.length;
+            }
+            if (field.useForFiller) {
+                trackLen = true;
+                fillerLen = 0;
+                try {
+                    useFieldLen = Integer.parseInt(input.decode(input.position(), input.end(field.length), "D"));
+                } catch (Exception inh) {
+                    return message(Dissector.E_COUNTER, null, offset,
+                            String.format("%nError: Invalid Hex. %s%n", inh.getMessage()));
+                }
+            }
+            if (trackLen && !field.lengthAttr.isEmpty()) {
+                fillerLen += field.length;
+            }
+            if (missing(needed(field))) {
+                displ = savedDispl;
+                fillerLen = savedFillerLen;
+                trackLen = savedTrackLen;
+                useFieldLen = savedUseFieldLen;
+                return SUSPENDED;
+            }
+            frame.index++;
+            frame.field = field;
+            frame.fieldStart = metrics == null ? 0 : System.nanoTime();
+            switch (field.kind) {
+                case COUNTER:
+                    ret = handleCounter(field, offset);
+                    break;
+                case VERSION:
+                    ret = handleVersion(frame.block, field, offset);
+                    break;
+                case GROUP:
+                    ret = handleGroup(frame.block, field, offset);
+                    break;
+                case LENGTH:
+                    ret = handleLength(field, offset);
+                    break;
+                case FILLER:
+                    ret = handleFiller(field, offset);
+                    break;
+                default:
+                    ret = handleField(field, offset);
+            }
+            if (ret == PUSHED) {
+                frame.state = 1;
+                return PUSHED;
+            }
+            ret = fieldDone(frame, ret);
+            if (ret != 0) {
+                return ret;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * The input position up to which the field reads, the same way its handler computes it.
+     */
+    private int needed(Field field) {
+        if (field.kind == Field.Kind.FILLER) {
+            long length = useFieldLen != 0 ? useFieldLen - fillerLen : fillerLen;
+            return length != 0 ? input.end(length) : input.position();
+        }
+        return field.lengthAttr.isEmpty() ? input.position() : input.end(field.length);
+    }
+
+    private int fieldDone(Frame frame, int ret) {
+        if (metrics != null) {
+            metrics.field(layout, frame.field.kind, System.nanoTime() - frame.fieldStart);
+        }
+        return ret;
+    }
+
+    private int message(int code, Field field, long offset, String message) {
+        report(code, field, offset, message);
+        return code;
+    }
+
+    private void report(int code, Field field, long offset, String message) {
+        if (metrics != null) {
+            metrics.message(layout, code);
+        }
+        visitor.onMessage(code, field, offset, message);
+    }
+
+    private int handleField(Field field, long offset) {
+        if (field.lengthAttr.isEmpty()) {
+            return message(Dissector.E_INVALID, field, offset, "Error: Length attribute not provided\n");
+        }
+        int start = input.position();
+        input.skip(field.length);
+        int end = input.position();
+        value.reset(start, end);
+        if (!decodes(field, start, end)) {
+            return checkLength(field);
+        }
+        var fieldValuesMap = field.values;
+        var fieldValueMeaning = fieldValuesMap.isEmpty() ? null : fieldValuesMap.get(value.text());
+        List<String> meanings = fieldValueMeaning != null ? List.of(fieldValueMeaning) : List.of();
+        if (field.type.equalsIgnoreCase("B") && !fieldValuesMap.isEmpty()) {
+            int i;
+            try {
+                i = input.parseInt(start, end, 16);
+            } catch (NumberFormatException nfe) {
+                return message(Dissector.E_INVALID, field, offset,
+                        String.format("%nInvalid data: %s%n", value.text()));
+            }
+            List<String> bitValueList = Dissector.getBitValue(i, fieldValuesMap);
+            if (!bitValueList.isEmpty()) {
+                meanings = bitValueList;
+            }
+        }
+        if (layout.dsect) {
+            String fit;
+            try {
+                fit = input.decode(start, end, field.type);
+            } catch (Exception any) {
+                return message(Dissector.E_INVALID, field, offset,
+                        String.format("%nInvalid data %s %s%n", any.getMessage(), value.text()));
+            }
+            value.decoded(fit);
+            if (fieldValueMeaning == null && !fieldValuesMap.isEmpty()) {
+                var fval = fieldValuesMap.get(fit);
+                if (fval != null) {
+                    meanings = List.of(fval);
+                }
+            }
+        }
+        value.meanings(meanings);
+        visitor.onField(field, offset, value);
+        return checkLength(field);
+    }
+
+    /**
+     * Whether the value is decoded: when the visitor wants it or, while building an occurrence index,
+     * when decoding it fails, so that the index stops where a dissection wanting every field does.
+     */
+    private boolean decodes(Field field, int start, int end) {
+        return visitor.wants(field) || occurrences != null && !decodable(field, start, end);
+    }
+
+    /**
+     * Whether reading the value as a wanted field succeeds. Bit values with meanings are parsed as a
+     * hex int, which fails where decoding as {@code D} does; values of {@code dsect} layouts are
+     * decoded.
+     */
+    private boolean decodable(Field field, int start, int end) {
+        if (field.type.equalsIgnoreCase("B") && !field.values.isEmpty() && !input.decodes(start, end, "D")) {
+            return false;
+        }
+        return !layout.dsect || input.decodes(start, end, field.type);
+    }
+
+    /**
+     * Whether {@link #decodable} holds for all values of the field's length.
+     */
+    private boolean alwaysDecodable(Field field) {
+        if (field.type.equalsIgnoreCase("B") && !field.values.isEmpty()
+                && !(layout.dsect && Dissector.alwaysDecodes("D", field.length))) {
+            return false;
+        }
+        return !layout.dsect || Dissector.alwaysDecodes(field.type, field.length);
+    }
+
+    private int checkLength(Field field) {
+        int textLength = value.textLength();
+        if (layout.dsect) {
+            if (textLength != 2 * field.length) {
+                return message(Dissector.W_SHORT_VALUE, null, displ,
+                        String.format("Warning: %s value not lengthy enough (Current length: %d)%n", field.name, textLength / 2));
+            }
+        } else {
+            if (textLength != field.length) {
+                return message(Dissector.W_SHORT_VALUE, null, displ,
+                        String.format("Warning: %s value not lengthy enough (Current Length: %d%n", field.name, textLength));
+            }
+        }
+        return 0;
+    }
+
+    private int handleCounter(Field field, long offset) {
+        int start = input.position();
+        input.skip(field.length);
+        int end = input.position();
+        value.reset(start, end);
+        var currentStruc = field.target;
+        if (currentStruc == null) {
+            return message(Dissector.E_STRUC_NOT_FOUND, field, offset,
+                    String.format("'%s'%nError: '%s' Struc layout not found.%n", value.text(), field.forName));
+        }
+        var iRepeatCount = 0;
+        var radix = layout.dsect ? 16 : 10;
+        try {
+            iRepeatCount = input.parseInt(start, end, radix);
+        } catch (NumberFormatException nfe) {
+            return message(Dissector.E_COUNTER, field, offset, String.format("Invalid counter %s%n", value.text()));
+        }
+        if (iRepeatCount > Dissector.MAX_COUNTER) {
+            return message(Dissector.E_COUNTER, field, offset,
+                    String.format("Warning: Counter value %d ('%s') too high (max=%d)%n",
+                            iRepeatCount, value.text(), Dissector.MAX_COUNTER));
+        }
+        visitor.onField(field, offset, value);
+        Frame frame = push(Step.COUNTER, field, null);
+        frame.current = currentStruc;
+        frame.count = iRepeatCount;
+        return PUSHED;
+    }
+
+    /**
+     * Head, then the struc once per count.
+     */
+    private int counter(Frame frame, int ret) {
+        Field field = frame.field;
+        if (frame.state == 0 && field.head != null) {
+            frame.state = 1;
+            return pushHead(field);
+        }
+        if (frame.state <= 1) {
+            if (ret != 0) {
+                return Dissector.E_NESTED;
+            }
+            visitor.onEnterStruc(field, frame.current, displ, -1, 0, frame.count);
+            skipFixed(frame, frame.count);
+        } else {
+            visitor.onExitStruc(field, frame.current, frame.index);
+            frame.ret = ret;
+        }
+        if (frame.index < frame.count && frame.ret == 0) {
+            frame.index++;
+            visitor.onEnterStruc(field, frame.current, displ, -1, frame.index, frame.count);
+            if (occurrences != null) {
+                occurrences.add(1, 0, input.position(), input.limit(), frame.depth + 1, displ, fillerLen, trackLen,
+                        useFieldLen);
+            }
+            frame.state = 2;
+            return pushBlock(frame.current);
+        }
+        visitor.onExitStruc(field, frame.current, 0);
+        return frame.ret != 0 ? Dissector.E_NESTED : 0;
+    }
+
+    private int handleVersion(Block parent, Field field, long offset) {
+        int start = input.position();
+        input.skip(field.length);
+        value.reset(start, input.position());
+        if (layout.dsect && decodes(field, start, input.position())) {
+            try {
+                value.decoded(input.decode(start, input.position(), field.type));
+            } catch (Exception any) {
+                return message(Dissector.E_INVALID, field, offset, String.format("Invalid hex %s", any.getMessage()));
+            }
+        }
+        visitor.onField(field, offset, value);
+        Frame frame = push(Step.VERSION, field, null);
+        frame.current = parent.findVersion(input, start, input.position());
+        // only for the message when the version is not found
+        frame.text = frame.current == null ? value.text() : null;
+        return PUSHED;
+    }
+
+    /**
+     * Head, then the included versions and the version itself.
+     */
+    private int version(Frame frame, int ret) {
+        Field field = frame.field;
+        Block currentVersion = frame.current;
+        if (frame.state == 0 && field.head != null) {
+            frame.state = 1;
+            return pushHead(field);
+        }
+        if (frame.state <= 1) {
+            if (ret != 0) {
+                return Dissector.E_NESTED;
+            }
+            if (currentVersion == null) {
+                return message(Dissector.E_VERSION_NOT_FOUND, null, displ,
+                        String.format("Error: '%s' Version layout not found%n", frame.text));
+            }
+            visitor.onEnterStruc(field, currentVersion, displ, -1, 0, 0);
+            if (!currentVersion.include.isEmpty()) {
+                report(Dissector.NOTE, null, displ, String.format("Includes %d version(s): %s%n",
+                        currentVersion.includeNames.length, currentVersion.include));
+            }
+        } else if (frame.state == 2) {
+            visitor.onExitStruc(field, frame.block, 0);
+            frame.ret = ret;
+        } else {
+            visitor.onExitStruc(field, currentVersion, 0);
+            return ret != 0 ? Dissector.E_NESTED : 0;
+        }
+        String[] includeVers = currentVersion.includeNames;
+        while (frame.index < includeVers.length && frame.ret == 0) {
+            int i = frame.index++;
+            if (!includeVers[i].isEmpty()) {
+                Block includedVersion = currentVersion.includes[i];
+                if (includedVersion != null) {
+                    visitor.onEnterStruc(field, includedVersion, displ, -1, 0, 0);
+                    frame.block = includedVersion;
+                    frame.state = 2;
+                    return pushBlock(includedVersion);
+                }
+                frame.ret = message(Dissector.E_VERSION_NOT_FOUND, null, displ,
+                        String.format("Error: %s version layout not found%n", includeVers[i]));
+            }
+        }
+        if (frame.ret == 0) {
+            frame.state = 3;
+            return pushBlock(currentVersion);
+        }
+        visitor.onExitStruc(field, currentVersion, 0);
+        return Dissector.E_NESTED;
+    }
+
+    private int handleGroup(Block parent, Field field, long offset) {
+        int start = input.position();
+        input.skip(field.length);
+        value.reset(start, input.position());
+        String fit = null;
+        if (layout.dsect && decodes(field, start, input.position())) {
+            try {
+                fit = input.decode(start, input.position(), field.type);
+            } catch (Exception any) {
+                return message(Dissector.E_INVALID, field, offset,
+                        String.format("%nError: Invalid hex %s%n", any.getMessage()));
+            }
+        }
+        Block currentGroup = parent.findGroup(input, start, input.position());
+        if (currentGroup == null) {
+            String groupName = value.text();
+            String shown = layout.dsect ? String.format("%s = '%s'", groupName, fit) : groupName;
+            return message(Dissector.E_GROUP_NOT_FOUND, field, offset,
+                    String.format("%s%nError: '%s' Group layout not found%n", shown, groupName));
+        }
+        value.decoded(fit);
+        if (!currentGroup.alias.isEmpty()) {
+            value.meanings(List.of(currentGroup.alias));
+        }
+        visitor.onField(field, offset, value);
+        Frame frame = push(Step.GROUP, field, null);
+        frame.current = currentGroup;
+        return PUSHED;
+    }
+
+    /**
+     * Head, then the group.
+     */
+    private int group(Frame frame, int ret) {
+        Field field = frame.field;
+        if (frame.state == 0 && field.head != null) {
+            frame.state = 1;
+            return pushHead(field);
+        }
+        if (frame.state <= 1) {
+            if (ret != 0) {
+                return Dissector.E_NESTED;
+            }
+            visitor.onEnterStruc(field, frame.current, displ, -1, 0, 0);
+            frame.state = 2;
+            return pushBlock(frame.current);
+        }
+        visitor.onExitStruc(field, frame.current, 0);
+        return ret != 0 ? Dissector.E_NESTED : 0;
+    }
+
+    private int handleLength(Field field, long offset) {
+        int start = input.position();
+        input.skip(field.length);
+        int end = input.position();
+        value.reset(start, end);
+        int intFieldValue;
+        try {
+            intFieldValue = input.parseInt(start, end, 16);
+        } catch (NumberFormatException nfe) {
+            return message(Dissector.E_INVALID, field, offset,
+                    String.format("%nError: Invalid hex. %s%n", nfe.getMessage()));
+        }
+        if (layout.dsect && decodes(field, start, end)) {
+            try {
+                value.decoded(input.decode(start, end, field.type));
+            } catch (Exception any) {
+                return message(Dissector.E_INVALID, field, offset,
+                        String.format("%nError: Invalid hex. %s%n", any.getMessage()));
+            }
+        }
+        visitor.onField(field, offset, value);
+        if (layout.dsect && value.length() != field.length) {
+            report(Dissector.W_SHORT_VALUE, null, displ,
+                    String.format("Warning: %s value not lengthy enough (Current length: %d)%n", field.name, value.length()));
+        }
+        if (field.partOfStruc) {
+            intFieldValue -= field.length;
+        }
+        intFieldValue -= field.minus;
+        if (intFieldValue > 0) {
+            Frame frame = push(Step.LENGTH, field, null);
+            frame.size = intFieldValue;
+            return PUSHED;
+        }
+        return 0;
+    }
+
+    /**
+     * Head, then the window of the struc.
+     */
+    private int length(Frame frame, int ret) {
+        Field field = frame.field;
+        if (frame.state == 0 && field.head != null) {
+            frame.state = 1;
+            return pushHead(field);
+        }
+        if (ret != 0) {
+            return Dissector.E_NESTED;
+        }
+        int strucStart = input.position();
+        int strucEnd = input.end(frame.size);
+        Block currentStruc = field.target;
+        if (currentStruc == null) {
+            if (missing(strucEnd)) {
+                return SUSPENDED;
+            }
+            return message(Dissector.E_LENGTH_STRUC_NOT_FOUND, null, displ,
+                    String.format("Error: '%s' Struc layout not found.%n'%s'%n", field.forName,
+                            input.text(strucStart, strucEnd)));
+        }
+        frame.step = Step.WINDOW;
+        frame.state = 0;
+        frame.current = currentStruc;
+        frame.start = strucStart;
+        frame.end = strucEnd;
+        return window(frame, 0);
+    }
+
+    private int handleFiller(Field field, long offset) {
+        if (useFieldLen != 0) {
+            fillerLen = useFieldLen - fillerLen;
+        }
+        int fillerStart = input.position();
+        if (fillerLen != 0) {
+            input.skip(fillerLen);
+        }
+        int fillerEnd = input.position();
+        trackLen = false;
+        fillerLen = -1;
+        useFieldLen = 0;
+        if (fillerEnd > fillerStart) {
+            String strucName = field.forName;
+            if (strucName.isEmpty()) {
+                if (!decodes(field, fillerStart, fillerEnd)) {
+                    return 0;
+                }
+                value.reset(fillerStart, fillerEnd);
+                if (layout.dsect && value.textLength() <= 32) {
+                    try {
+                        value.decoded(input.decode(fillerStart, fillerEnd, field.type));
+                    } catch (Exception any) {
+                        return message(Dissector.E_INVALID, null, offset,
+                                String.format("%nInvalid data %s %s %s%n", field.name, any.getMessage(), value.text()));
+                    }
+                }
+                visitor.onField(field, offset, value);
+            } else {
+                Block currentStruc2 = field.target;
+                if (currentStruc2 == null) {
+                    long lookupStart = metrics == null ? 0 : System.nanoTime();
+                    try {
+                        currentStruc2 = layout.external(strucName);
+                    } catch (Exception any) {
+                        if (metrics != null) {
+                            metrics.external(layout, strucName, System.nanoTime() - lookupStart, false);
+                        }
+                        return message(Dissector.E_EXTERNAL_NOT_FOUND, null, offset,
+                                String.format("Error: '%s' Struc layout not found. %s%n", strucName, "File not found"));
+                    }
+                    if (metrics != null) {
+                        metrics.external(layout, strucName, System.nanoTime() - lookupStart, true);
+                    }
+                }
+                Frame frame = push(Step.WINDOW, field, null);
+                frame.current = currentStruc2;
+                frame.start = fillerStart;
+                frame.end = fillerEnd;
+                frame.size = input.length(fillerStart, fillerEnd);
+                return PUSHED;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * While building an occurrence index, moves past the occurrences of a fixed size struc that fit
+     * in the input, at most {@code count}, as dissecting them without wanting any field would. A
+     * last occurrence that does not fit is left to be dissected, for its warning, and strucs with a
+     * field that is not {@linkplain #alwaysDecodable always decodable} are dissected for their errors.
+     */
+    private void skipFixed(Frame frame, int count) {
+        long size = frame.current.fixedSize;
+        if (occurrences == null || size < 0 || frame.depth + 1 > maxDepth) {
+            return;
+        }
+        for (Field field : frame.current.fields) {
+            if (!alwaysDecodable(field)) {
+                return;
+            }
+        }
+        long fit = Math.min(count, input.length(input.position(), input.limit()) / size);
+        if (fit <= 0) {
+            return;
+        }
+        occurrences.add((int) fit, size, input.position(), input.limit(), frame.depth + 1, displ, fillerLen, trackLen,
+                useFieldLen);
+        input.skip(fit * size);
+        displ += fit * size;
+        if (trackLen) {
+            fillerLen += fit * size;
+        }
+        frame.index = (int) fit;
+    }
+
+    private int pushHead(Field field) {
+        push(Step.HEAD, field, field.head);
+        return PUSHED;
+    }
+
+    private int head(Frame frame, int ret) {
+        Field field = frame.field;
+        if (frame.state == 0) {
+            visitor.onEnterStruc(field, field.head, displ, -1, 0, 0);
+            frame.state = 1;
+            return pushBlock(field.head);
+        }
+        visitor.onExitStruc(field, field.head, 0);
+        return ret;
+    }
+
+    /**
+     * Parses the struc repeatedly over the window {@code [start, end)} of the input until the window
+     * is used up, then continues after the window.
+     */
+    private int window(Frame frame, int ret) {
+        Field field = frame.field;
+        Block struc = frame.current;
+        if (frame.state == 0) {
+            visitor.onEnterStruc(field, struc, displ, frame.size, 0, 0);
+            frame.savedLimit = input.limit();
+            input.window(frame.start, frame.end);
+            frame.state = 2;
+            skipFixed(frame, Integer.MAX_VALUE);
+        } else if (frame.state == 1) {
+            visitor.onExitStruc(field, struc, frame.index);
+            frame.ret = ret;
+            frame.state = 2;
+        }
+        if (frame.ret == 0 && openEnded()) {
+            return SUSPENDED;
+        }
+        if (!input.isEmpty() && frame.ret == 0) {
+            frame.index++;
+            visitor.onEnterStruc(field, struc, displ, frame.size, frame.index, 0);
+            if (occurrences != null) {
+                occurrences.add(1, 0, input.position(), input.limit(), frame.depth + 1, displ, fillerLen, trackLen,
+                        useFieldLen);
+            }
+            frame.state = 1;
+            return pushBlock(struc);
+        }
+        input.window(frame.end, frame.savedLimit);
+        visitor.onExitStruc(field, struc, 0);
+        return frame.ret;
+    }
+}
@@ -0,0 +1,504 @@
+package org.anusrnm.dissector;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.invoke.MethodHandles;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.security.CodeSource;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Generates a {@link SpecializedParser} for a layout: Java source with one method per struc, where
+ * the field kinds and types are resolved when the source is written instead of for every field of
+ * every record. Runs of plain fields are read at constant offsets from the start of the run once
+ * the run is known to fit, and values are decoded by the {@code Dissector.decode*} method of their
+ * type. The source is compiled in memory and defined as a hidden class next to this one.
+ * <p>
+ * Layouts of {@code dsect} type made of plain, counter and length fields are supported, as long as
+ * the counter and length fields have their struc and no head. Layouts with versions, groups,
+ * fillers, empty strucs or invalid attributes are left to the interpreter, as are all layouts when
+ * no Java compiler is available (e.g. on a JRE).
+ */
+final class ParserGenerator {
+
+    /**
+     * Plain fields per generated method, which keeps methods well below the size the JIT compiles.
+     */
+    private static final int MAX_RUN = 32;
+
+    private final Layout layout;
+    private final Map<Block, Integer> blocks = new IdentityHashMap<>();
+    private final List<Block> blockOrder = new ArrayList<>();
+    private final Map<Field, Integer> fields = new IdentityHashMap<>();
+    private final List<Field> fieldOrder = new ArrayList<>();
+    private final List<Field[]> runs = new ArrayList<>();
+    private final StringBuilder out = new StringBuilder();
+    private int depth;
+
+    private ParserGenerator(Layout layout) {
+        this.layout = layout;
+    }
+
+    /**
+     * Returns a parser for the layout, or {@code null} if the layout is not supported or there is
+     * no compiler.
+     */
+    static SpecializedParser generate(Layout layout) {
+        ParserGenerator generator = new ParserGenerator(layout);
+        if (!generator.supported()) {
+            return null;
+        }
+        if (ModuleLayer.boot().findModule("java.compiler").isEmpty()) {
+            return null;
+        }
+        String className = generator.className();
+        byte[] bytes = InMemoryCompiler.compile(className, generator.source(className));
+        if (bytes == null) {
+            return null;
+        }
+        try {
+            Class<?> parserClass = MethodHandles.lookup().defineHiddenClass(bytes, true).lookupClass();
+            return (SpecializedParser) parserClass.getDeclaredConstructor(Layout.class, Field[].class)
+                    .newInstance(layout, generator.fieldOrder.toArray(new Field[0]));
+        } catch (ReflectiveOperationException roe) {
+            throw new IllegalStateException("cannot define the parser of " + layout, roe);
+        }
+    }
+
+    /**
+     * The source of the parser of the layout, or {@code null} if the layout is not supported.
+     */
+    static String source(Layout layout) {
+        ParserGenerator generator = new ParserGenerator(layout);
+        return generator.supported() ? generator.source(generator.className()) : null;
+    }
+
+    private String className() {
+        StringBuilder name = new StringBuilder("GeneratedParser_");
+        for (int i = 0; i < layout.name.length(); i++) {
+            char ch = layout.name.charAt(i);
+            name.append(ch < 128 && Character.isLetterOrDigit(ch) ? ch : '_');
+        }
+        return name.toString();
+    }
+
+    private boolean supported() {
+        return layout.dsect && supported(layout.root, 0);
+    }
+
+    private boolean supported(Block block, int level) {
+        if (blocks.containsKey(block)) {
+            return true;
+        }
+        if (block.fields.length == 0) {
+            return false;
+        }
+        blocks.put(block, blocks.size());
+        blockOrder.add(block);
+        depth = Math.max(depth, level);
+        for (Field field : block.fields) {
+            if (field.invalidMinus || field.invalidLength || field.useForFiller || field.length <= 0) {
+                return false;
+            }
+            fields.put(field, fields.size());
+            fieldOrder.add(field);
+            switch (field.kind) {
+                case PLAIN:
+                    break;
+                case COUNTER:
+                case LENGTH:
+                    if (field.head != null || field.target == null || !supported(field.target, level + 1)) {
+                        return false;
+                    }
+                    break;
+                default:
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    private String source(String className) {
+        for (Block block : blockOrder) {
+            block(block);
+        }
+        for (int i = 0; i < runs.size(); i++) {
+            runMethod(i);
+        }
+        String methods = out.toString();
+        out.setLength(0);
+        out.append("package org.anusrnm.dissector;\n\n")
+                .append("import java.nio.ByteBuffer;\n\n")
+                .append("/**\n * Generated for layout ").append(comment(layout.name)).append(".\n */\n")
+                .append("final class ").append(className).append(" extends SpecializedParser {\n\n");
+        for (int i = 0; i < fieldOrder.size(); i++) {
+            out.append("    private final Field f").append(i).append(";\n");
+        }
+        for (int i = 0; i < runs.size(); i++) {
+            out.append("    private final Field[] r").append(i).append(";\n");
+        }
+        out.append("\n    ").append(className).append("(Layout layout, Field[] fields) {\n")
+                .append("        super(layout, ").append(depth).append(");\n");
+        for (int i = 0; i < fieldOrder.size(); i++) {
+            out.append("        f").append(i).append(" = fields[").append(i).append("];\n");
+        }
+        for (int i = 0; i < runs.size(); i++) {
+            out.append("        r").append(i).append(" = new Field[] {");
+            Field[] run = runs.get(i);
+            for (int j = 0; j < run.length; j++) {
+                out.append(j > 0 ? ", " : "").append("fields[").append(fields.get(run[j])).append(']');
+            }
+            out.append("};\n");
+        }
+        return out.append("    }\n\n")
+                .append("    @Override\n")
+                .append("    int root(Cursor c) {\n")
+                .append("        return b0(c);\n")
+                .append("    }\n")
+                .append(methods)
+                .append("}\n")
+                .toString();
+    }
+
+    private void block(Block block) {
+        out.append("\n    // ").append(comment(block.toString())).append('\n')
+                .append("    private int b").append(blocks.get(block)).append("(Cursor c) {\n")
+                .append("        DissectionVisitor v = c.visitor;\n")
+                .append("        FieldValue value = c.value;\n")
+                .append("        int ret;\n")
+                .append("        int start;\n")
+                .append("        int end;\n")
+                .append("        long offset;\n");
+        Field[] fl = block.fields;
+        for (int i = 0; i < fl.length; ) {
+            if (fl[i].kind == Field.Kind.PLAIN) {
+                int j = i;
+                while (j < fl.length && fl[j].kind == Field.Kind.PLAIN) {
+                    j++;
+                }
+                run(fl, i, j);
+                i = j;
+            } else {
+                selecting(fl[i]);
+                i++;
+            }
+        }
+        out.append("        return 0;\n")
+                .append("    }\n");
+    }
+
+    /**
+     * Plain fields {@code [from, to)}, in methods of at most {@value #MAX_RUN} fields each.
+     */
+    private void run(Field[] fl, int from, int to) {
+        for (int i = from; i < to; i += MAX_RUN) {
+            int runIndex = runs.size();
+            runs.add(Arrays.copyOfRange(fl, i, Math.min(to, i + MAX_RUN)));
+            out.append("        ret = run").append(runIndex).append("(c);\n")
+                    .append("        if (ret != 0) {\n")
+                    .append("            return ret;\n")
+                    .append("        }\n");
+        }
+    }
+
+    /**
+     * A run of plain fields: at constant offsets if the whole run fits, one by one through
+     * {@link SpecializedParser#plainRun} otherwise.
+     */
+    private void runMethod(int runIndex) {
+        Field[] run = runs.get(runIndex);
+        long total = 0;
+        for (Field field : run) {
+            total += field.length;
+        }
+        out.append("\n    //");
+        for (Field field : run) {
+            out.append(' ').append(comment(field.toString()));
+        }
+        out.append('\n')
+                .append("    private int run").append(runIndex).append("(Cursor c) {\n");
+        if (total > Integer.MAX_VALUE) {
+            out.append("        return plainRun(c, r").append(runIndex).append(");\n")
+                    .append("    }\n");
+            return;
+        }
+        out.append("        if (c.limit - c.pos < ").append(total).append(") {\n")
+                .append("            return plainRun(c, r").append(runIndex).append(");\n")
+                .append("        }\n")
+                .append("        DissectionVisitor v = c.visitor;\n")
+                .append("        ByteBuffer data = c.data;\n")
+                .append("        CodePage cp = c.codePage;\n")
+                .append("        FieldValue value = c.value;\n")
+                .append("        int p0 = c.pos;\n")
+                .append("        long d0 = c.displ;\n")
+                .append("        int ret;\n");
+        long at = 0;
+        for (Field field : run) {
+            String f = "f" + fields.get(field);
+            String start = "p0 + " + at;
+            String end = "p0 + " + (at + field.length);
+            String offset = "d0 + " + at;
+            out.append("        if (v.done()) {\n")
+                    .append("            return Dissector.STOPPED;\n")
+                    .append("        }\n");
+            String decoder = decoder(field.type);
+            if (decoder == null || !field.values.isEmpty()) {
+                out.append("        ret = plain(c, ").append(f).append(", ").append(offset).append(", ")
+                        .append(start).append(", ").append(end).append(");\n")
+                        .append("        if (ret != 0) {\n")
+                        .append("            return ret;\n")
+                        .append("        }\n");
+            } else {
+                out.append("        if (v.wants(").append(f).append(")) {\n")
+                        .append("            value.reset(").append(start).append(", ").append(end).append(");\n")
+                        .append("            try {\n")
+                        .append("                value.decoded(Dissector.").append(decoder)
+                        .append("(data, ").append(start).append(", ").append(end).append(", cp));\n")
+                        .append("            } catch (Exception any) {\n")
+                        .append("                return invalidData(c, ").append(f).append(", ").append(offset)
+                        .append(", any);\n")
+                        .append("            }\n")
+                        .append("            v.onField(").append(f).append(", ").append(offset).append(", value);\n")
+                        .append("        }\n");
+            }
+            at += field.length;
+        }
+        out.append("        c.pos = p0 + ").append(total).append(";\n")
+                .append("        c.displ = d0 + ").append(total).append(";\n")
+                .append("        return 0;\n")
+                .append("    }\n");
+    }
+
+    /**
+     * A counter or length field and the strucs it selects.
+     */
+    private void selecting(Field field) {
+        String f = "f" + fields.get(field);
+        String target = f + ".target";
+        String struc = "b" + blocks.get(field.target);
+        int length = field.length;
+        out.append("        // ").append(comment(field.toString())).append('\n')
+                .append("        if (v.done()) {\n")
+                .append("            return Dissector.STOPPED;\n")
+                .append("        }\n")
+                .append("        offset = c.displ;\n")
+                .append("        c.displ = offset + ").append(length).append(";\n")
+                .append("        start = c.pos;\n")
+                .append("        end = c.limit - start >= ").append(length).append(" ? start + ").append(length)
+                .append(" : c.limit;\n")
+                .append("        c.pos = end;\n")
+                .append("        value.reset(start, end);\n");
+        if (field.kind == Field.Kind.COUNTER) {
+            out.append("        {\n")
+                    .append("            int count;\n")
+                    .append("            try {\n")
+                    .append("                count = c.input.parseInt(start, end, 16);\n")
+                    .append("            } catch (NumberFormatException nfe) {\n")
+                    .append("                return invalidCounter(c, ").append(f).append(", offset);\n")
+                    .append("            }\n")
+                    .append("            if (count > Dissector.MAX_COUNTER) {\n")
+                    .append("                return counterTooHigh(c, ").append(f).append(", offset, count);\n")
+                    .append("            }\n")
+                    .append("            v.onField(").append(f).append(", offset, value);\n")
+                    .append("            v.onEnterStruc(").append(f).append(", ").append(target)
+                    .append(", c.displ, -1, 0, count);\n")
+                    .append("            ret = 0;\n")
+                    .append("            for (int i = 1; i <= count && ret == 0; i++) {\n")
+                    .append("                v.onEnterStruc(").append(f).append(", ").append(target)
+                    .append(", c.displ, -1, i, count);\n")
+                    .append("                ret = ").append(struc).append("(c);\n")
+                    .append("                v.onExitStruc(").append(f).append(", ").append(target).append(", i);\n")
+                    .append("            }\n")
+                    .append("            v.onExitStruc(").append(f).append(", ").append(target).append(", 0);\n")
+                    .append("            if (ret != 0) {\n")
+                    .append("                return Dissector.E_NESTED;\n")
+                    .append("            }\n")
+                    .append("        }\n");
+            return;
+        }
+        String decoder = decoder(field.type);
+        String decode = decoder == null
+                ? "c.input.decode(start, end, " + f + ".type)"
+                : "Dissector." + decoder + "(c.data, start, end, c.codePage)";
+        out.append("        {\n")
+                .append("            int size;\n")
+                .append("            try {\n")
+                .append("                size = c.input.parseInt(start, end, 16);\n")
+                .append("            } catch (NumberFormatException nfe) {\n")
+                .append("                return invalidLength(c, ").append(f).append(", offset, nfe);\n")
+                .append("            }\n")
+                .append("            if (v.wants(").append(f).append(")) {\n")
+                .append("                try {\n")
+                .append("                    value.decoded(").append(decode).append(");\n")
+                .append("                } catch (Exception any) {\n")
+                .append("                    return invalidLength(c, ").append(f).append(", offset, any);\n")
+                .append("                }\n")
+                .append("            }\n")
+                .append("            v.onField(").append(f).append(", offset, value);\n")
+                .append("            if (end - start != ").append(length).append(") {\n")
+                .append("                shortValue(c, ").append(f).append(", end - start);\n")
+                .append("            }\n");
+        if (field.partOfStruc) {
+            out.append("            size -= ").append(length).append(";\n");
+        }
+        if (field.minus != 0) {
+            out.append("            size -= ").append(field.minus).append(";\n");
+        }
+        out.append("            if (size > 0) {\n")
+                .append("                int strucEnd = c.limit - c.pos >= size ? c.pos + size : c.limit;\n")
+                .append("                v.onEnterStruc(").append(f).append(", ").append(target)
+                .append(", c.displ, size, 0, 0);\n")
+                .append("                int savedLimit = c.limit;\n")
+                .append("                c.limit = strucEnd;\n")
+                .append("                ret = 0;\n")
+                .append("                for (int i = 1; c.pos < c.limit && ret == 0; i++) {\n")
+                .append("                    v.onEnterStruc(").append(f).append(", ").append(target)
+                .append(", c.displ, size, i, 0);\n")
+                .append("                    ret = ").append(struc).append("(c);\n")
+                .append("                    v.onExitStruc(").append(f).append(", ").append(target).append(", i);\n")
+                .append("                }\n")
+                .append("                c.pos = strucEnd;\n")
+                .append("                c.limit = savedLimit;\n")
+                .append("                v.onExitStruc(").append(f).append(", ").append(target).append(", 0);\n")
+                .append("                if (ret != 0) {\n")
+                .append("                    return ret;\n")
+                .append("                }\n")
+                .append("            }\n")
+                .append("        }\n");
+    }
+
+    /**
+     * The {@code Dissector.decode*} method that {@code getInType} picks for the type, or
+     * {@code null} if the choice depends on the default locale, which lower cases {@code I}
+     * differently in some languages.
+     */
+    private static String decoder(String type) {
+        for (int i = 0; i < type.length(); i++) {
+            char ch = type.charAt(i);
+            if (ch >= 128 || ch == 'I') {
+                return null;
+            }
+        }
+        switch (type.toLowerCase(Locale.ROOT)) {
+            case Dissector.PARSD:
+                return "decodeParsd";
+            case Dissector.TOD:
+                return "decodeTod";
+            case Dissector.ZTOD:
+                return "decodeZtod";
+            case Dissector.MINS:
+                return "decodeMins";
+            case Dissector.HHMM:
+                return "decodeHhmm";
+            case "b":
+                return "decodeBits";
+            case "d":
+                return "decodeDecimal";
+            case "n":
+                return "decodeNibbles";
+            default:
+                return "decodeText";
+        }
+    }
+
+    /**
+     * Text safe to put in a line comment: no line breaks, unicode escapes or non-ASCII characters.
+     */
+    private static String comment(String text) {
+        StringBuilder sb = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            char ch = text.charAt(i);
+            sb.append(ch >= ' ' && ch < 127 && ch != '\\' && ch != '*' ? ch : '_');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Kept apart so that {@code javax.tools} is only loaded when the {@code java.compiler} module is
+     * there.
+     */
+    private static final class InMemoryCompiler {
+
+        /**
+         * The class file, or {@code null} if there is no system compiler.
+         */
+        static byte[] compile(String className, String source) {
+            JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+            if (compiler == null) {
+                return null;
+            }
+            DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+            StandardJavaFileManager standard = compiler.getStandardFileManager(diagnostics, Locale.ROOT, null);
+            ByteArrayOutputStream classFile = new ByteArrayOutputStream();
+            JavaFileManager fileManager = new ForwardingJavaFileManager<>(standard) {
+                @Override
+                public JavaFileObject getJavaFileForOutput(Location location, String name, JavaFileObject.Kind kind,
+                                                           FileObject sibling) {
+                    return new SimpleJavaFileObject(URI.create("mem:///" + name.replace('.', '/') + kind.extension), kind) {
+                        @Override
+                        public OutputStream openOutputStream() {
+                            return classFile;
+                        }
+                    };
+                }
+            };
+            JavaFileObject unit = new SimpleJavaFileObject(
+                    URI.create("mem:///org/anusrnm/dissector/" + className + ".java"), JavaFileObject.Kind.SOURCE) {
+                @Override
+                public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+                    return source;
+                }
+            };
+            List<String> options = List.of("-classpath", classPath(), "-proc:none", "-g:source,lines");
+            boolean compiled = compiler.getTask(null, fileManager, diagnostics, options, null, List.of(unit)).call();
+            try {
+                fileManager.close();
+            } catch (IOException ignore) {
+                // nothing was written to disk
+            }
+            if (!compiled) {
+                StringBuilder errors = new StringBuilder("cannot compile the generated parser ").append(className);
+                for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+                    errors.append(System.lineSeparator()).append(diagnostic.getMessage(Locale.ROOT));
+                }
+                throw new IllegalStateException(errors.toString());
+            }
+            return classFile.toByteArray();
+        }
+
+        /**
+         * Where the classes of this package come from, followed by the class path of the application.
+         */
+        private static String classPath() {
+            String classPath = System.getProperty("java.class.path", "");
+            CodeSource codeSource = InMemoryCompiler.class.getProtectionDomain().getCodeSource();
+            if (codeSource != null && codeSource.getLocation() != null) {
+                try {
+                    String own = new File(codeSource.getLocation().toURI()).getPath();
+                    return classPath.isEmpty() ? own : own + File.pathSeparator + classPath;
+                } catch (URISyntaxException | IllegalArgumentException ignore) {
+                    // not a file; the application class path has to do
+                }
+            }
+            return classPath;
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package org.anusrnm.dissector;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Finds record boundaries in a stream of {@code dsect} records: either every record has the same
+ * length, or the length is read from the layout's top-level {@code kind="length"} field.
+ */
+abstract class RecordFraming {
+
+    /**
+     * Number of bytes at the start of a record needed by {@link #recordLength}.
+     */
+    abstract int headerLength();
+
+    /**
+     * Length of the record whose first {@link #headerLength()} bytes start at {@code offset}, or -1
+     * when its header does not hold a usable length.
+     */
+    abstract long recordLength(ByteBuffer data, int offset);
+
+    static RecordFraming fixed(int recordLength) {
+        if (recordLength <= 0) {
+            throw new IllegalArgumentException(String.format("Invalid record length %d", recordLength));
+        }
+        return new RecordFraming() {
+            @Override
+            int headerLength() {
+                return 0;
+            }
+
+            @Override
+            long recordLength(ByteBuffer data, int offset) {
+                return recordLength;
+            }
+
+            @Override
+            public String toString() {
+                return String.format("fixed(%d)", recordLength);
+            }
+        };
+    }
+
+    /**
+     * Frames records by the first top-level field of kind {@code length}. Only fixed length plain
+     * fields may come before it, so that it is found at the same offset in every record.
+     */
+    static RecordFraming lengthField(Layout layout) {
+        if (!layout.dsect) {
+            throw new IllegalArgumentException(String.format("Record framing needs a %s layout, %s is '%s'",
+                    Dissector.DSECT, layout.name, layout.type));
+        }
+        int prefix = 0;
+        for (Field field : layout.root.fields) {
+            if (field.kind == Field.Kind.LENGTH && fixedLength(field) > 0) {
+                return new LengthFieldFraming(field, prefix, fixedLength(field.head));
+            }
+            int length = fixedLength(field);
+            if (length < 0) {
+                break;
+            }
+            prefix += length;
+        }
+        throw new IllegalArgumentException(String.format("No top-level length field at a fixed offset in %s",
+                layout.name));
+    }
+
+    /**
+     * Length a plain field always takes, or -1 when it depends on the data.
+     */
+    private static int fixedLength(Field field) {
+        if (field.invalidLength || field.invalidMinus || field.useForFiller || field.length <= 0) {
+            return -1;
+        }
+        return field.kind == Field.Kind.PLAIN || field.kind == Field.Kind.LENGTH ? field.length : -1;
+    }
+
+    private static int fixedLength(Block head) {
+        if (head == null) {
+            return 0;
+        }
+        int length = 0;
+        for (Field field : head.fields) {
+            if (field.kind != Field.Kind.PLAIN || fixedLength(field) < 0) {
+                throw new IllegalArgumentException(String.format("Head of the length field is not of fixed length: %s",
+                        field));
+            }
+            length += field.length;
+        }
+        return length;
+    }
+
+    private static final class LengthFieldFraming extends RecordFraming {
+
+        private final Field field;
+        private final int offset;
+        private final int headLength;
+
+        LengthFieldFraming(Field field, int offset, int headLength) {
+            this.field = field;
+            this.offset = offset;
+            this.headLength = headLength;
+        }
+
+        @Override
+        int headerLength() {
+            return offset + field.length;
+        }
+
+        @Override
+        long recordLength(ByteBuffer data, int start) {
+            int from = start + offset;
+            int to = from + field.length;
+            if (!Dissector.fitsInt(data, from, to)) {
+                return -1;
+            }
+            long payload = Dissector.toUnsigned(data, from, to) - field.minus;
+            if (field.partOfStruc) {
+                payload -= field.length;
+            }
+            return headerLength() + (payload > 0 ? headLength + payload : 0);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("lengthField(%s at %d)", field.name, offset);
+        }
+    }
+}
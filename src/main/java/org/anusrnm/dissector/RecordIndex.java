@@ -0,0 +1,436 @@
+package org.anusrnm.dissector;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+
+/**
+ * Record number to file offset of a {@link DumpFile}, built in one pass and kept in a sidecar file,
+ * so that a record is read without going through the records before it.
+ * <p>
+ * Optionally the index also holds key fields of every record, e.g. the {@code version} or
+ * {@code group} field that selects its layout, named by {@link FieldExtractor} paths. Records are
+ * then found by key value without dissecting the file again. Key values are kept once per distinct
+ * value and referred to by number per record; records without the field have no value.
+ * <p>
+ * The sidecar holds the size and modification time of the dump file, the framing, the
+ * {@linkplain LayoutSnapshot#fingerprint fingerprint} of the layout and the key paths;
+ * {@link #open} builds the index again when any of them differ. Record lengths and key numbers are
+ * written as varints, a few bytes per record.
+ */
+final class RecordIndex {
+
+    static final int FORMAT_VERSION = 2;
+    static final String SUFFIX = ".idx";
+    private static final int MAGIC = 0x44494458; // "DIDX"
+
+    private final long dumpSize;
+    private final long dumpModified;
+    private final String framing;
+    private final int layout;
+    private final long[] offsets;
+    private final int records;
+    private final List<String> keyPaths;
+    private final String[][] keyValues;
+    // per key path the number of the value of each record, -1 without one
+    private final int[][] keys;
+
+    private RecordIndex(long dumpSize, long dumpModified, String framing, int layout, long[] offsets,
+                        int records, List<String> keyPaths, String[][] keyValues, int[][] keys) {
+        this.dumpSize = dumpSize;
+        this.dumpModified = dumpModified;
+        this.framing = framing;
+        this.layout = layout;
+        this.offsets = offsets;
+        this.records = records;
+        this.keyPaths = List.copyOf(keyPaths);
+        this.keyValues = keyValues;
+        this.keys = keys;
+    }
+
+    /**
+     * Frames the records of the dump file and, when key paths are given, extracts their keys with the
+     * dissector.
+     */
+    static RecordIndex build(Path dump, RecordFraming framing, Dissector dissector, List<String> keyPaths)
+            throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(dump, BasicFileAttributes.class);
+        FieldExtractor extractor = keyPaths.isEmpty() ? null : new FieldExtractor(keyPaths);
+        List<Map<String, Integer>> numbers = new ArrayList<>();
+        int[][] keys = new int[keyPaths.size()][16];
+        for (int k = 0; k < keyPaths.size(); k++) {
+            numbers.add(new HashMap<>());
+        }
+        long[] offsets = new long[16];
+        int records = 0;
+        try (DumpFile file = DumpFile.open(dump, framing)) {
+            Iterator<DumpRecord> iterator = file.iterator();
+            while (iterator.hasNext()) {
+                DumpRecord record = iterator.next();
+                if (records == Integer.MAX_VALUE - 8) {
+                    throw new IOException(String.format("Too many records in %s", dump));
+                }
+                if (records == offsets.length) {
+                    int grown = (int) Math.min(2L * records, Integer.MAX_VALUE - 8);
+                    offsets = Arrays.copyOf(offsets, grown);
+                    for (int k = 0; k < keys.length; k++) {
+                        keys[k] = Arrays.copyOf(keys[k], grown);
+                    }
+                }
+                offsets[records] = record.offset;
+                if (extractor != null) {
+                    extractor.reset();
+                    dissector.parseWith(record.data, extractor);
+                    Map<String, String> values = extractor.values();
+                    for (int k = 0; k < keys.length; k++) {
+                        String value = values.get(keyPaths.get(k));
+                        Map<String, Integer> valueNumbers = numbers.get(k);
+                        keys[k][records] = value == null ? -1
+                                : valueNumbers.computeIfAbsent(value, v -> valueNumbers.size());
+                    }
+                }
+                records++;
+            }
+        } catch (UncheckedIOException uioe) {
+            throw uioe.getCause();
+        }
+        String[][] keyValues = new String[keyPaths.size()][];
+        for (int k = 0; k < keyValues.length; k++) {
+            keyValues[k] = new String[numbers.get(k).size()];
+            for (Map.Entry<String, Integer> value : numbers.get(k).entrySet()) {
+                keyValues[k][value.getValue()] = value.getKey();
+            }
+        }
+        return new RecordIndex(attributes.size(), attributes.lastModifiedTime().toMillis(), framing.toString(),
+                LayoutSnapshot.fingerprint(dissector.getLayout()), offsets, records, keyPaths, keyValues, keys);
+    }
+
+    /**
+     * The index of the sidecar file when it is current for the dump file, framing, layout and key
+     * paths; otherwise the index is built and the sidecar file written.
+     */
+    static RecordIndex open(Path dump, Path sidecar, RecordFraming framing, Dissector dissector,
+                            List<String> keyPaths) throws IOException {
+        RecordIndex index = null;
+        try {
+            index = read(sidecar);
+        } catch (NoSuchFileException missing) {
+            // built below
+        } catch (IOException unusable) {
+            // written again below
+        }
+        if (index != null && index.isCurrent(dump) && index.framing.equals(framing.toString())
+                && index.layout == LayoutSnapshot.fingerprint(dissector.getLayout()) && index.keyPaths.equals(keyPaths)) {
+            return index;
+        }
+        index = build(dump, framing, dissector, keyPaths);
+        index.write(sidecar);
+        return index;
+    }
+
+    /**
+     * Whether the dump file still has the size and modification time it had when it was indexed.
+     */
+    boolean isCurrent(Path dump) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(dump, BasicFileAttributes.class);
+        return attributes.size() == dumpSize && attributes.lastModifiedTime().toMillis() == dumpModified;
+    }
+
+    /**
+     * Number of records.
+     */
+    int size() {
+        return records;
+    }
+
+    long offset(int record) {
+        if (record < 0 || record >= records) {
+            throw new IndexOutOfBoundsException(String.format("Record %d of %d", record, records));
+        }
+        return offsets[record];
+    }
+
+    /**
+     * Reads a record of the dump file without reading the records before it.
+     */
+    DumpRecord read(DumpFile file, int record) throws IOException {
+        return file.read(record, offset(record));
+    }
+
+    List<String> keyPaths() {
+        return keyPaths;
+    }
+
+    /**
+     * The value of the key field of the record, {@code null} when the record does not have it.
+     */
+    String key(int record, String keyPath) {
+        offset(record);
+        int k = keyIndex(keyPath);
+        int code = keys[k][record];
+        return code < 0 ? null : keyValues[k][code];
+    }
+
+    /**
+     * The distinct values of the key field.
+     */
+    List<String> values(String keyPath) {
+        return List.of(keyValues[keyIndex(keyPath)]);
+    }
+
+    /**
+     * Numbers of the records whose key field has the value, in file order.
+     */
+    LongStream records(String keyPath, String value) {
+        int k = keyIndex(keyPath);
+        int code = Arrays.asList(keyValues[k]).indexOf(value);
+        if (code < 0) {
+            return LongStream.empty();
+        }
+        int[] codes = keys[k];
+        return LongStream.range(0, records).filter(record -> codes[(int) record] == code);
+    }
+
+    /**
+     * The records whose key field has the value, read from the dump file in file order.
+     */
+    Stream<DumpRecord> records(DumpFile file, String keyPath, String value) {
+        return records(keyPath, value).mapToObj(record -> {
+            try {
+                return read(file, (int) record);
+            } catch (IOException ioe) {
+                throw new UncheckedIOException(ioe);
+            }
+        });
+    }
+
+    private int keyIndex(String keyPath) {
+        int k = keyPaths.indexOf(keyPath);
+        if (k < 0) {
+            throw new IllegalArgumentException(String.format("%s is not a key of the index", keyPath));
+        }
+        return k;
+    }
+
+    void write(Path sidecar) throws IOException {
+        Path temp = sidecar.resolveSibling(sidecar.getFileName() + ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                number(out, dumpSize);
+                number(out, dumpModified);
+                string(out, framing);
+                out.writeInt(layout);
+                number(out, records);
+                for (int i = 0; i < records; i++) {
+                    number(out, offsets[i] - (i == 0 ? 0 : offsets[i - 1]));
+                }
+                number(out, keyPaths.size());
+                for (int k = 0; k < keyPaths.size(); k++) {
+                    string(out, keyPaths.get(k));
+                    number(out, keyValues[k].length);
+                    for (String value : keyValues[k]) {
+                        string(out, value);
+                    }
+                    for (int i = 0; i < records; i++) {
+                        number(out, keys[k][i]);
+                    }
+                }
+            }
+            Files.move(temp, sidecar, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Reads a sidecar file; {@code null} when it was written by another format version.
+     */
+    static RecordIndex read(Path sidecar) throws IOException {
+        ByteBuffer data = ByteBuffer.wrap(Files.readAllBytes(sidecar));
+        try {
+            if (data.getInt() != MAGIC) {
+                throw new IOException(String.format("%s is not a record index", sidecar));
+            }
+            if (data.getInt() != FORMAT_VERSION) {
+                return null;
+            }
+            long dumpSize = number(data);
+            long dumpModified = number(data);
+            String framing = string(data);
+            int layout = data.getInt();
+            int records = count(data);
+            long[] offsets = new long[records];
+            for (int i = 0; i < records; i++) {
+                offsets[i] = (i == 0 ? 0 : offsets[i - 1]) + number(data);
+            }
+            int keyCount = count(data);
+            List<String> keyPaths = new ArrayList<>();
+            String[][] keyValues = new String[keyCount][];
+            int[][] keys = new int[keyCount][];
+            for (int k = 0; k < keyCount; k++) {
+                keyPaths.add(string(data));
+                keyValues[k] = new String[count(data)];
+                for (int v = 0; v < keyValues[k].length; v++) {
+                    keyValues[k][v] = string(data);
+                }
+                if (records > data.remaining()) {
+                    throw new IllegalArgumentException("Truncated keys");
+                }
+                keys[k] = new int[records];
+                for (int i = 0; i < records; i++) {
+                    keys[k][i] = Math.toIntExact(number(data));
+                }
+            }
+            if (data.hasRemaining()) {
+                throw new IOException(String.format("%s has %d bytes after the index", sidecar, data.remaining()));
+            }
+            return new RecordIndex(dumpSize, dumpModified, framing, layout, offsets, records, keyPaths, keyValues, keys);
+        } catch (RuntimeException damaged) {
+            throw new IOException(String.format("%s is damaged", sidecar), damaged);
+        }
+    }
+
+    // Numbers as zigzag varints, strings as their UTF-8 length and bytes
+
+    private static void number(OutputStream out, long value) throws IOException {
+        long zigzag = (value << 1) ^ (value >> 63);
+        while ((zigzag & ~0x7FL) != 0) {
+            out.write((int) (zigzag & 0x7F) | 0x80);
+            zigzag >>>= 7;
+        }
+        out.write((int) zigzag);
+    }
+
+    private static void string(OutputStream out, String value) throws IOException {
+        byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+        number(out, utf8.length);
+        out.write(utf8);
+    }
+
+    private static long number(ByteBuffer data) {
+        long zigzag = 0;
+        for (int shift = 0; ; shift += 7) {
+            if (shift > 63) {
+                throw new IllegalArgumentException("Number too long");
+            }
+            byte b = data.get();
+            zigzag |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                break;
+            }
+        }
+        return (zigzag >>> 1) ^ -(zigzag & 1);
+    }
+
+    /**
+     * A number of entries that follow, each taking at least one byte, so a damaged count fails
+     * before anything is allocated for it.
+     */
+    private static int count(ByteBuffer data) {
+        long count = number(data);
+        if (count < 0 || count > data.remaining()) {
+            throw new IllegalArgumentException(String.format("Count %d exceeds the %d bytes left", count,
+                    data.remaining()));
+        }
+        return (int) count;
+    }
+
+    private static String string(ByteBuffer data) {
+        byte[] utf8 = new byte[count(data)];
+        data.get(utf8);
+        return new String(utf8, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("RecordIndex[records=%d framing=%s keys=%s]", records, framing, keyPaths);
+    }
+
+    /**
+     * Indexes a dump file into a sidecar next to it with the suffix {@value #SUFFIX}, or the file
+     * given with {@code -o}, and optionally dissects one record or lists the records with a key value.
+     * Records are framed by the layout's top-level length field unless {@code --fixed} gives a length.
+     * <pre>java org.anusrnm.dissector.RecordIndex LAYOUT.xml DUMP [-o INDEX] [--fixed LENGTH] [-k PATH]...
+     *     [--record N | --where PATH=VALUE]</pre>
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            usage();
+        }
+        File layout = new File(args[0]);
+        Path dump = Path.of(args[1]);
+        Path sidecar = Path.of(args[1] + SUFFIX);
+        Integer fixed = null;
+        List<String> keyPaths = new ArrayList<>();
+        Integer record = null;
+        String where = null;
+        for (int i = 2; i < args.length; i++) {
+            if (i + 1 == args.length) {
+                usage();
+            }
+            String value = args[++i];
+            switch (args[i - 1]) {
+                case "-o":
+                    sidecar = Path.of(value);
+                    break;
+                case "--fixed":
+                    fixed = Integer.parseInt(value);
+                    break;
+                case "-k":
+                    keyPaths.add(value);
+                    break;
+                case "--record":
+                    record = Integer.parseInt(value);
+                    break;
+                case "--where":
+                    where = value;
+                    break;
+                default:
+                    usage();
+            }
+        }
+        Dissector dissector = new Dissector(layout, "d");
+        RecordFraming framing = fixed != null ? RecordFraming.fixed(fixed) : RecordFraming.lengthField(dissector.getLayout());
+        RecordIndex index = open(dump, sidecar, framing, dissector, keyPaths);
+        if (record != null) {
+            try (DumpFile file = DumpFile.open(dump, framing)) {
+                System.out.print(dissector.parseWith(index.read(file, record).data));
+            }
+        } else if (where != null) {
+            int equals = where.indexOf('=');
+            if (equals < 0) {
+                usage();
+            }
+            index.records(where.substring(0, equals), where.substring(equals + 1))
+                    .forEach(r -> System.out.printf("%d %d%n", r, index.offset((int) r)));
+        } else {
+            System.out.printf("%s: %d records -> %s (%d bytes)%n", dump, index.size(), sidecar, Files.size(sidecar));
+        }
+    }
+
+    private static void usage() {
+        System.err.println("Usage: RecordIndex LAYOUT.xml DUMP [-o INDEX] [--fixed LENGTH] [-k PATH]... "
+                + "[--record N | --where PATH=VALUE]");
+        System.exit(2);
+    }
+}
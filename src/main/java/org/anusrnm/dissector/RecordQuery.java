@@ -0,0 +1,380 @@
+package org.anusrnm.dissector;
+
+import java.io.File;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.text.DateFormatSymbols;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Finds the records whose fields satisfy all of a few predicates, such as {@code body/Region=E} or
+ * {@code body/Created>=01-Jan-2019}, without building reports.
+ * <p>
+ * A predicate is a {@link FieldExtractor} path, an operator ({@code =}, {@code !=}, {@code <},
+ * {@code <=}, {@code >}, {@code >=}) and a value. {@code =} and {@code !=} compare the field value
+ * as text. The other operators compare numbers as numbers, {@code parsd} dates ({@code dd-MMM-yyyy})
+ * as dates and anything else as text. A record without the field does not match.
+ * <p>
+ * Only the fields on the paths are decoded, and the dissection of a record stops as soon as a
+ * predicate fails or all of them have been checked. A dump file is searched in parallel: records are
+ * framed in file order, which only reads their length fields, and dissected in chunks on the executor.
+ */
+final class RecordQuery {
+
+    /** Records per chunk handed to the executor. */
+    static final int CHUNK = 1024;
+
+    private final Dissector dissector;
+    private final List<Condition> conditions;
+    private final List<String> paths;
+
+    RecordQuery(Dissector dissector, String... predicates) {
+        this(dissector, Arrays.asList(predicates));
+    }
+
+    RecordQuery(Dissector dissector, List<String> predicates) {
+        if (predicates.isEmpty()) {
+            throw new IllegalArgumentException("No predicates");
+        }
+        this.dissector = dissector;
+        List<Condition> parsed = new ArrayList<>();
+        LinkedHashSet<String> fieldPaths = new LinkedHashSet<>();
+        for (String predicate : predicates) {
+            Condition condition = Condition.parse(predicate);
+            parsed.add(condition);
+            fieldPaths.add(condition.path);
+        }
+        this.conditions = List.copyOf(parsed);
+        this.paths = List.copyOf(fieldPaths);
+    }
+
+    /**
+     * Whether the record satisfies all predicates.
+     */
+    boolean matches(ByteBuffer data) {
+        return new Matcher().matches(data);
+    }
+
+    /**
+     * The matching records of the dump file in file order, searched on the common fork-join pool.
+     */
+    Stream<DumpRecord> search(DumpFile file) {
+        return search(file, ForkJoinPool.commonPool(), ForkJoinPool.getCommonPoolParallelism());
+    }
+
+    /**
+     * The matching records of the dump file in file order. At most a few chunks per thread are in
+     * flight, so memory stays bounded however large the file is; {@code parallelism} is the number of
+     * threads the executor is expected to keep busy.
+     */
+    Stream<DumpRecord> search(DumpFile file, Executor executor, int parallelism) {
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException(String.format("Invalid parallelism %d", parallelism));
+        }
+        Iterator<DumpRecord> records = file.iterator();
+        int window = 4 * parallelism;
+        Iterator<DumpRecord> matches = new Iterator<>() {
+            private final ArrayDeque<CompletableFuture<List<DumpRecord>>> inFlight = new ArrayDeque<>(window);
+            private Iterator<DumpRecord> current = Collections.emptyIterator();
+
+            private void fill() {
+                while (inFlight.size() < window && records.hasNext()) {
+                    List<DumpRecord> chunk = new ArrayList<>(CHUNK);
+                    while (chunk.size() < CHUNK && records.hasNext()) {
+                        chunk.add(records.next());
+                    }
+                    inFlight.add(CompletableFuture.supplyAsync(() -> matching(chunk), executor));
+                }
+            }
+
+            @Override
+            public boolean hasNext() {
+                while (!current.hasNext()) {
+                    fill();
+                    if (inFlight.isEmpty()) {
+                        return false;
+                    }
+                    current = BatchDissector.join(inFlight.poll()).iterator();
+                }
+                return true;
+            }
+
+            @Override
+            public DumpRecord next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return current.next();
+            }
+        };
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(matches,
+                Spliterator.ORDERED | Spliterator.NONNULL), false);
+    }
+
+    private List<DumpRecord> matching(List<DumpRecord> chunk) {
+        Matcher matcher = new Matcher();
+        List<DumpRecord> matching = new ArrayList<>();
+        for (DumpRecord record : chunk) {
+            if (matcher.matches(record.data)) {
+                matching.add(record);
+            }
+        }
+        return matching;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("RecordQuery[%s %s]", dissector.getLayout(), conditions);
+    }
+
+    private enum Operator {
+        EQ("="), NE("!="), LT("<"), LE("<="), GT(">"), GE(">=");
+
+        final String symbol;
+
+        Operator(String symbol) {
+            this.symbol = symbol;
+        }
+
+        boolean test(int comparison) {
+            switch (this) {
+                case LT:
+                    return comparison < 0;
+                case LE:
+                    return comparison <= 0;
+                case GT:
+                    return comparison > 0;
+                default:
+                    return comparison >= 0;
+            }
+        }
+    }
+
+    /**
+     * One parsed predicate; the value is parsed once as number and date for the ordering operators.
+     */
+    private static final class Condition {
+
+        final String path;
+        final Operator operator;
+        final String value;
+        final BigDecimal number;
+        final String[] months = DateFormatSymbols.getInstance().getShortMonths();
+        final int day;
+
+        private Condition(String path, Operator operator, String value) {
+            this.path = path;
+            this.operator = operator;
+            this.value = value;
+            this.number = number(value);
+            this.day = day(value);
+        }
+
+        static Condition parse(String predicate) {
+            int at = 0;
+            while (at < predicate.length() && "=!<>".indexOf(predicate.charAt(at)) < 0) {
+                at++;
+            }
+            int end = at + (at + 1 < predicate.length() && predicate.charAt(at + 1) == '=' ? 2 : 1);
+            String path = predicate.substring(0, at).trim();
+            if (at == predicate.length() || path.isEmpty()) {
+                throw new IllegalArgumentException(String.format("Invalid predicate '%s'", predicate));
+            }
+            String symbol = predicate.substring(at, end);
+            for (Operator operator : Operator.values()) {
+                if (operator.symbol.equals(symbol)) {
+                    FieldExtractor.segments(path);
+                    return new Condition(path, operator, predicate.substring(end));
+                }
+            }
+            throw new IllegalArgumentException(String.format("Invalid operator in predicate '%s'", predicate));
+        }
+
+        boolean test(String actual) {
+            switch (operator) {
+                case EQ:
+                    return actual.equals(value);
+                case NE:
+                    return !actual.equals(value);
+                default:
+                    return operator.test(compare(actual));
+            }
+        }
+
+        private int compare(String actual) {
+            if (number != null) {
+                BigDecimal actualNumber = number(actual);
+                if (actualNumber != null) {
+                    return actualNumber.compareTo(number);
+                }
+            }
+            if (day >= 0) {
+                int actualDay = day(actual);
+                if (actualDay >= 0) {
+                    return Integer.compare(actualDay, day);
+                }
+            }
+            return actual.compareTo(value);
+        }
+
+        private static BigDecimal number(String value) {
+            try {
+                return new BigDecimal(value.trim());
+            } catch (NumberFormatException nfe) {
+                return null;
+            }
+        }
+
+        /**
+         * A date in the format of {@link Dissector#convertToParsDate} as {@code yyyymmdd}, -1 when the
+         * value is not one.
+         */
+        private int day(String value) {
+            String[] parts = value.trim().split("-");
+            if (parts.length != 3 || parts[0].length() != 2 || parts[2].length() != 4) {
+                return -1;
+            }
+            int month = 0;
+            while (month < 12 && !months[month].equalsIgnoreCase(parts[1])) {
+                month++;
+            }
+            try {
+                int dayOfMonth = Integer.parseInt(parts[0]);
+                int year = Integer.parseInt(parts[2]);
+                return month == 12 || dayOfMonth < 1 || year < 0 ? -1 : year * 10_000 + (month + 1) * 100 + dayOfMonth;
+            } catch (NumberFormatException nfe) {
+                return -1;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return path + operator.symbol + value;
+        }
+    }
+
+    /**
+     * Checks the predicates while one record at a time is dissected; not thread safe.
+     */
+    private final class Matcher implements DissectionVisitor {
+
+        private final FieldExtractor extractor = new FieldExtractor(paths);
+        private final boolean[] checked = new boolean[conditions.size()];
+        private int pending;
+        private boolean failed;
+
+        boolean matches(ByteBuffer data) {
+            extractor.reset();
+            Arrays.fill(checked, false);
+            pending = checked.length;
+            failed = false;
+            dissector.parseWith(data, this);
+            return !failed && pending == 0;
+        }
+
+        @Override
+        public boolean wants(Field field) {
+            return extractor.wants(field);
+        }
+
+        @Override
+        public boolean done() {
+            return failed || extractor.done();
+        }
+
+        @Override
+        public void onField(Field field, long offset, FieldValue value) {
+            extractor.onField(field, offset, value);
+            for (int i = 0; i < checked.length; i++) {
+                if (checked[i]) {
+                    continue;
+                }
+                Condition condition = conditions.get(i);
+                String actual = extractor.value(condition.path);
+                if (actual != null) {
+                    checked[i] = true;
+                    pending--;
+                    failed |= !condition.test(actual);
+                }
+            }
+        }
+
+        @Override
+        public void onEnterStruc(Field field, Block block, long offset, long size, int occurrence, int count) {
+            extractor.onEnterStruc(field, block, offset, size, occurrence, count);
+        }
+
+        @Override
+        public void onExitStruc(Field field, Block block, int occurrence) {
+            extractor.onExitStruc(field, block, occurrence);
+        }
+    }
+
+    /**
+     * Searches a dump file and prints the number and offset of every matching record, or its report
+     * with {@code --dissect}. Records are framed by the layout's top-level length field unless
+     * {@code --fixed} gives a length; quote predicates with {@code <} or {@code >} in the shell.
+     * <pre>java org.anusrnm.dissector.RecordQuery LAYOUT.xml DUMP [--fixed LENGTH] [--dissect] PREDICATE...</pre>
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 3) {
+            usage();
+        }
+        Integer fixed = null;
+        boolean dissect = false;
+        List<String> predicates = new ArrayList<>();
+        for (int i = 2; i < args.length; i++) {
+            switch (args[i]) {
+                case "--fixed":
+                    if (++i == args.length) {
+                        usage();
+                    }
+                    fixed = Integer.parseInt(args[i]);
+                    break;
+                case "--dissect":
+                    dissect = true;
+                    break;
+                default:
+                    predicates.add(args[i]);
+            }
+        }
+        if (predicates.isEmpty()) {
+            usage();
+        }
+        Dissector dissector = new Dissector(new File(args[0]), "d");
+        RecordFraming framing = fixed != null ? RecordFraming.fixed(fixed) : RecordFraming.lengthField(dissector.getLayout());
+        RecordQuery query = new RecordQuery(dissector, predicates);
+        boolean reports = dissect;
+        try (DumpFile file = DumpFile.open(Path.of(args[1]), framing)) {
+            query.search(file).forEach(record -> {
+                System.out.printf("%d %d%n", record.index, record.offset);
+                if (reports) {
+                    System.out.print(dissector.parseWith(record.data));
+                }
+            });
+        } catch (UncheckedIOException uioe) {
+            throw uioe.getCause();
+        }
+    }
+
+    private static void usage() {
+        System.err.println("Usage: RecordQuery LAYOUT.xml DUMP [--fixed LENGTH] [--dissect] PATH=VALUE...");
+        System.exit(2);
+    }
+}
@@ -0,0 +1,175 @@
+package org.anusrnm.dissector;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * Where a streamed text report goes. The report is built in a buffer of at most about
+ * {@link #bufferSize()} characters, which is handed to the sink and reused whenever it fills up, so
+ * output starts before the dissection ends and memory use does not grow with the report.
+ * <p>
+ * Sinks do not close what they write to; {@link #flush()} is called once the report is complete.
+ */
+abstract class ReportSink implements Flushable {
+
+    static final int DEFAULT_BUFFER_SIZE = 8192;
+
+    private final int bufferSize;
+
+    ReportSink(int bufferSize) {
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException("buffer size must be positive: " + bufferSize);
+        }
+        this.bufferSize = bufferSize;
+    }
+
+    int bufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * Writes the characters. They are only valid during the call.
+     */
+    abstract void write(CharSequence chars) throws IOException;
+
+    @Override
+    public void flush() throws IOException {
+    }
+
+    static ReportSink of(Appendable out) {
+        return of(out, DEFAULT_BUFFER_SIZE);
+    }
+
+    static ReportSink of(Appendable out, int bufferSize) {
+        return new ReportSink(bufferSize) {
+            @Override
+            void write(CharSequence chars) throws IOException {
+                out.append(chars);
+            }
+
+            @Override
+            public void flush() throws IOException {
+                if (out instanceof Flushable) {
+                    ((Flushable) out).flush();
+                }
+            }
+        };
+    }
+
+    static ReportSink of(Writer out) {
+        return of(out, DEFAULT_BUFFER_SIZE);
+    }
+
+    static ReportSink of(Writer out, int bufferSize) {
+        char[] chars = new char[bufferSize];
+        return new ReportSink(bufferSize) {
+            @Override
+            void write(CharSequence text) throws IOException {
+                for (int i = 0; i < text.length(); i += chars.length) {
+                    int n = Math.min(chars.length, text.length() - i);
+                    if (text instanceof StringBuilder) {
+                        ((StringBuilder) text).getChars(i, i + n, chars, 0);
+                    } else {
+                        for (int j = 0; j < n; j++) {
+                            chars[j] = text.charAt(i + j);
+                        }
+                    }
+                    out.write(chars, 0, n);
+                }
+            }
+
+            @Override
+            public void flush() throws IOException {
+                out.flush();
+            }
+        };
+    }
+
+    /**
+     * Encodes the report in the platform charset, like the report string printed to a stream.
+     */
+    static ReportSink of(OutputStream out) {
+        return of(out, Charset.defaultCharset(), DEFAULT_BUFFER_SIZE);
+    }
+
+    static ReportSink of(OutputStream out, Charset charset, int bufferSize) {
+        return new Encoding(charset, bufferSize) {
+            @Override
+            void writeBytes(ByteBuffer bytes) throws IOException {
+                out.write(bytes.array(), bytes.position(), bytes.remaining());
+            }
+
+            @Override
+            public void flush() throws IOException {
+                out.flush();
+            }
+        };
+    }
+
+    static ReportSink of(WritableByteChannel out) {
+        return of(out, Charset.defaultCharset(), DEFAULT_BUFFER_SIZE);
+    }
+
+    static ReportSink of(WritableByteChannel out, Charset charset, int bufferSize) {
+        return new Encoding(charset, bufferSize) {
+            @Override
+            void writeBytes(ByteBuffer bytes) throws IOException {
+                while (bytes.hasRemaining()) {
+                    out.write(bytes);
+                }
+            }
+        };
+    }
+
+    /**
+     * Encodes through one fixed byte buffer. Unmappable characters are replaced, as
+     * {@link String#getBytes(Charset)} does.
+     */
+    private abstract static class Encoding extends ReportSink {
+
+        private final CharsetEncoder encoder;
+        private final ByteBuffer bytes;
+
+        Encoding(Charset charset, int bufferSize) {
+            super(bufferSize);
+            this.encoder = charset.newEncoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            this.bytes = ByteBuffer.allocate(Math.max(bufferSize, (int) Math.ceil(encoder.maxBytesPerChar()) * 16));
+        }
+
+        abstract void writeBytes(ByteBuffer bytes) throws IOException;
+
+        @Override
+        void write(CharSequence chars) throws IOException {
+            // chunks end between events or, within long text, never inside a surrogate pair, so no
+            // character is split between chunks
+            CharBuffer in = CharBuffer.wrap(chars);
+            encoder.reset();
+            CoderResult result;
+            do {
+                result = encoder.encode(in, bytes, true);
+                drain();
+            } while (result.isOverflow());
+            do {
+                result = encoder.flush(bytes);
+                drain();
+            } while (result.isOverflow());
+        }
+
+        private void drain() throws IOException {
+            bytes.flip();
+            writeBytes(bytes);
+            bytes.clear();
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package org.anusrnm.dissector;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * A parser for the raw bytes of one layout, generated by {@link ParserGenerator}. Generated parsers
+ * hold nothing but the fields of their layout, so one instance serves concurrent callers; the state
+ * of a dissection is its {@link Cursor}.
+ * <p>
+ * The events and results are those of {@link ParseContext}. The helpers here are the parts of its
+ * field handling that generated code does not inline: fields with {@code values}, types that cannot
+ * be resolved when the parser is generated, and the messages.
+ */
+abstract class SpecializedParser {
+
+    final Layout layout;
+    /**
+     * How deep strucs are nested in the layout; dissectors with a lower maximum depth do not use
+     * the parser, so that they report {@link Dissector#E_TOO_DEEP}.
+     */
+    final int depth;
+
+    SpecializedParser(Layout layout, int depth) {
+        this.layout = layout;
+        this.depth = depth;
+    }
+
+    /**
+     * Dissects the remaining bytes of the buffer, leaving its position and limit untouched. Returns
+     * 0, or the code of the error that stopped the dissection.
+     */
+    final int parse(ByteBuffer data, DissectionVisitor visitor) {
+        int ret = root(new Cursor(layout, data, visitor));
+        return visitor.done() ? 0 : ret;
+    }
+
+    abstract int root(Cursor c);
+
+    /**
+     * The state of one dissection.
+     */
+    static final class Cursor {
+
+        final ByteBuffer data;
+        final CodePage codePage;
+        final ByteInput input;
+        final FieldValue value;
+        final DissectionVisitor visitor;
+        int pos;
+        int limit;
+        long displ;
+
+        Cursor(Layout layout, ByteBuffer data, DissectionVisitor visitor) {
+            this.data = data;
+            this.codePage = layout.codePage;
+            this.input = new ByteInput(data, codePage);
+            this.value = new FieldValue(input);
+            this.visitor = visitor;
+            this.pos = data.position();
+            this.limit = data.limit();
+        }
+    }
+
+    /**
+     * Plain fields one by one, each checked against the limit.
+     */
+    static int plainRun(Cursor c, Field[] run) {
+        for (Field field : run) {
+            if (c.visitor.done()) {
+                return Dissector.STOPPED;
+            }
+            long offset = c.displ;
+            c.displ += field.length;
+            int start = c.pos;
+            int end = c.limit - start >= field.length ? start + field.length : c.limit;
+            c.pos = end;
+            int ret = plain(c, field, offset, start, end);
+            if (ret != 0) {
+                return ret;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * A plain field read from {@code [start, end)}, as {@link ParseContext} reports it.
+     */
+    static int plain(Cursor c, Field field, long offset, int start, int end) {
+        DissectionVisitor visitor = c.visitor;
+        if (visitor.wants(field)) {
+            FieldValue value = c.value;
+            value.reset(start, end);
+            var fieldValuesMap = field.values;
+            var fieldValueMeaning = fieldValuesMap.isEmpty() ? null : fieldValuesMap.get(value.text());
+            List<String> meanings = fieldValueMeaning != null ? List.of(fieldValueMeaning) : List.of();
+            if (field.type.equalsIgnoreCase("B") && !fieldValuesMap.isEmpty()) {
+                int i;
+                try {
+                    i = c.input.parseInt(start, end, 16);
+                } catch (NumberFormatException nfe) {
+                    return message(c, Dissector.E_INVALID, field, offset,
+                            String.format("%nInvalid data: %s%n", value.text()));
+                }
+                List<String> bitValueList = Dissector.getBitValue(i, fieldValuesMap);
+                if (!bitValueList.isEmpty()) {
+                    meanings = bitValueList;
+                }
+            }
+            String fit;
+            try {
+                fit = c.input.decode(start, end, field.type);
+            } catch (Exception any) {
+                return invalidData(c, field, offset, any);
+            }
+            value.decoded(fit);
+            if (fieldValueMeaning == null && !fieldValuesMap.isEmpty()) {
+                var fval = fieldValuesMap.get(fit);
+                if (fval != null) {
+                    meanings = List.of(fval);
+                }
+            }
+            value.meanings(meanings);
+            visitor.onField(field, offset, value);
+        }
+        return end - start != field.length ? shortValue(c, field, end - start) : 0;
+    }
+
+    static int invalidData(Cursor c, Field field, long offset, Exception any) {
+        return message(c, Dissector.E_INVALID, field, offset,
+                String.format("%nInvalid data %s %s%n", any.getMessage(), c.value.text()));
+    }
+
+    static int shortValue(Cursor c, Field field, int length) {
+        return message(c, Dissector.W_SHORT_VALUE, null, c.displ,
+                String.format("Warning: %s value not lengthy enough (Current length: %d)%n", field.name, length));
+    }
+
+    static int invalidCounter(Cursor c, Field field, long offset) {
+        return message(c, Dissector.E_COUNTER, field, offset, String.format("Invalid counter %s%n", c.value.text()));
+    }
+
+    static int counterTooHigh(Cursor c, Field field, long offset, int count) {
+        return message(c, Dissector.E_COUNTER, field, offset,
+                String.format("Warning: Counter value %d ('%s') too high (max=%d)%n",
+                        count, c.value.text(), Dissector.MAX_COUNTER));
+    }
+
+    static int invalidLength(Cursor c, Field field, long offset, Exception any) {
+        return message(c, Dissector.E_INVALID, field, offset,
+                String.format("%nError: Invalid hex. %s%n", any.getMessage()));
+    }
+
+    static int message(Cursor c, int code, Field field, long offset, String message) {
+        c.visitor.onMessage(code, field, offset, message);
+        return code;
+    }
+}
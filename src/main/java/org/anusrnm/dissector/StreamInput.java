@@ -0,0 +1,110 @@
+package org.anusrnm.dissector;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Raw bytes of a {@code dsect} layout arriving in chunks. Positions count from the first byte ever
+ * appended; only the bytes from the cursor on are kept, so memory is bounded by the largest value
+ * still waiting for its last byte rather than by the length of the stream.
+ * <p>
+ * The limit is open ({@link Integer#MAX_VALUE}) until the end of the input is known, and
+ * {@link #available()} tells how far data has arrived.
+ */
+final class StreamInput extends Input {
+
+    private final CodePage codePage;
+    private byte[] buffer = new byte[256];
+    private ByteBuffer data = ByteBuffer.wrap(buffer);
+    /**
+     * Position of {@code buffer[0]}.
+     */
+    private int base;
+    private int available;
+
+    StreamInput(CodePage codePage) {
+        super(1, 0, Integer.MAX_VALUE);
+        this.codePage = codePage;
+    }
+
+    @Override
+    int available() {
+        return available;
+    }
+
+    /**
+     * Appends the remaining bytes of the chunk, dropping what lies before {@code keepFrom}.
+     */
+    void append(ByteBuffer chunk, int keepFrom) {
+        int drop = keepFrom - base;
+        int kept = available - keepFrom;
+        int needed = kept + chunk.remaining();
+        if (needed > buffer.length) {
+            byte[] grown = new byte[Math.max(needed, buffer.length * 2)];
+            System.arraycopy(buffer, drop, grown, 0, kept);
+            buffer = grown;
+            data = ByteBuffer.wrap(buffer);
+        } else if (drop > 0) {
+            System.arraycopy(buffer, drop, buffer, 0, kept);
+        }
+        base = keepFrom;
+        int length = chunk.remaining();
+        chunk.get(buffer, kept, length);
+        available += length;
+    }
+
+    /**
+     * The bytes from {@code from} to what is available, e.g. those following a record.
+     */
+    ByteBuffer rest(int from) {
+        return ByteBuffer.wrap(Arrays.copyOfRange(buffer, from - base, available - base));
+    }
+
+    @Override
+    String text(int start, int end) {
+        return Dissector.toHexString(data, start - base, end - base);
+    }
+
+    @Override
+    void appendText(StringBuilder out, int start, int end) {
+        Dissector.appendHex(out, data, start - base, end - base);
+    }
+
+    @Override
+    char textAt(int start, int index) {
+        return Dissector.hexChar(data, start - base, index);
+    }
+
+    @Override
+    int textLength(int start, int end) {
+        return 2 * (end - start);
+    }
+
+    @Override
+    byte[] bytes(int start, int end) {
+        return Arrays.copyOfRange(buffer, start - base, end - base);
+    }
+
+    @Override
+    int parseInt(int start, int end, int radix) {
+        if (radix == 16 && end > start && Dissector.fitsInt(data, start - base, end - base)) {
+            return (int) Dissector.toUnsigned(data, start - base, end - base);
+        }
+        return Integer.parseInt(text(start, end), radix);
+    }
+
+    @Override
+    String decode(int start, int end, String fieldType) {
+        return Dissector.getInType(data, start - base, end - base, fieldType, codePage);
+    }
+
+    @Override
+    boolean decodes(int start, int end, String fieldType) {
+        return Dissector.decodes(data, start - base, end - base, fieldType);
+    }
+
+    @Override
+    void appendHexDump(StringBuilder out, StreamingReport report, int start, int end, HexDump dump) {
+        dump.append(out, report, data, start - base, end - base, codePage);
+    }
+}
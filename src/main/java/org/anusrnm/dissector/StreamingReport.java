@@ -0,0 +1,92 @@
+package org.anusrnm.dissector;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * A report built from dissection events into a character buffer.
+ * <p>
+ * Without a sink the whole report is kept for {@link #toString()}. With a {@link ReportSink} the
+ * buffer is handed over whenever it reaches the sink's buffer size, and the rest on {@link #finish()}.
+ * Text longer than the buffer itself, such as a long value or the rest of the input, is added in
+ * pieces with the buffer handed over in between, never splitting a surrogate pair. Failures of the
+ * sink are thrown as {@link UncheckedIOException}.
+ */
+abstract class StreamingReport implements DissectionVisitor {
+
+    final StringBuilder res;
+    private final ReportSink sink;
+
+    StreamingReport(ReportSink sink) {
+        this.sink = sink;
+        this.res = sink == null ? new StringBuilder() : new StringBuilder(sink.bufferSize() + 256);
+    }
+
+    /**
+     * Hands the buffer to the sink once it is full. Reports call this between the units of output
+     * they want kept together, e.g. lines.
+     */
+    final void spill() {
+        if (sink != null && res.length() >= sink.bufferSize()) {
+            try {
+                sink.write(res);
+            } catch (IOException ioe) {
+                throw new UncheckedIOException(ioe);
+            }
+            res.setLength(0);
+        }
+    }
+
+    /**
+     * Whether text of this length is appended whole; longer text goes in pieces of {@link #room()}.
+     */
+    final boolean fits(long length) {
+        return sink == null || length <= sink.bufferSize();
+    }
+
+    /**
+     * Characters that fit before the buffer is full, at least 1.
+     */
+    final int room() {
+        return sink == null ? Integer.MAX_VALUE : Math.max(1, sink.bufferSize() - res.length());
+    }
+
+    /**
+     * Appends the text, in pieces with the buffer handed over in between when it does not
+     * {@linkplain #fits fit}. A piece never ends between the two chars of a surrogate pair.
+     */
+    final void append(CharSequence text) {
+        if (fits(text.length())) {
+            res.append(text);
+            return;
+        }
+        int at = 0;
+        while (at < text.length()) {
+            int next = Math.min(text.length(), at + room());
+            if (next < text.length() && Character.isHighSurrogate(text.charAt(next - 1))) {
+                next += next - 1 > at ? -1 : 1;
+            }
+            res.append(text, at, next);
+            spill();
+            at = next;
+        }
+    }
+
+    /**
+     * Writes what is left in the buffer to the sink and flushes it.
+     */
+    void finish() throws IOException {
+        if (sink != null) {
+            if (res.length() > 0) {
+                sink.write(res);
+                res.setLength(0);
+            }
+            sink.flush();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return res.toString();
+    }
+}
@@ -0,0 +1,63 @@
+package org.anusrnm.dissector;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Input given as a string: hex text for {@code dsect} layouts, the record text itself otherwise.
+ */
+final class StringInput extends Input {
+
+    private final String data;
+    private final CodePage codePage;
+
+    StringInput(String data, int scale) {
+        this(data, scale, CodePage.DEFAULT);
+    }
+
+    StringInput(String data, int scale, CodePage codePage) {
+        super(scale, 0, data.length());
+        this.data = data;
+        this.codePage = codePage;
+    }
+
+    @Override
+    String text(int start, int end) {
+        return data.substring(start, end);
+    }
+
+    @Override
+    void appendText(StringBuilder out, int start, int end) {
+        out.append(data, start, end);
+    }
+
+    @Override
+    char textAt(int start, int index) {
+        return data.charAt(start + index);
+    }
+
+    @Override
+    int textLength(int start, int end) {
+        return end - start;
+    }
+
+    @Override
+    byte[] bytes(int start, int end) {
+        return scale() == 2 ? Dissector.hexStringToBytes(text(start, end)) : text(start, end).getBytes();
+    }
+
+    @Override
+    int parseInt(int start, int end, int radix) {
+        return Integer.parseInt(text(start, end), radix);
+    }
+
+    @Override
+    String decode(int start, int end, String fieldType) {
+        return Dissector.getInType(text(start, end), fieldType, codePage);
+    }
+
+    @Override
+    void appendHexDump(StringBuilder out, StreamingReport report, int start, int end, HexDump dump) {
+        byte[] raw = Dissector.hexStringToBytes(text(start, end));
+        dump.append(out, report, ByteBuffer.wrap(raw), 0, raw.length, codePage);
+    }
+}
@@ -0,0 +1,260 @@
+package org.anusrnm.dissector;
+
+import java.util.List;
+
+/**
+ * Builds the classic text report of {@link Dissector#parseWith(String)} from dissection events. With
+ * a sink, chunks are handed over between lines of the report, and within values and messages longer
+ * than the buffer.
+ * <p>
+ * The report is appended piece by piece instead of through {@code String.format}: labels are the
+ * offset followed by the {@linkplain Field#labelTail precomputed tail} of the field, padding is
+ * inserted in place and values are copied straight from the input. The text is the same as the
+ * {@code String.format} patterns noted on each method; numbers only go through
+ * {@code String.format} when the default locale does not use ASCII digits.
+ */
+final class TextReport extends StreamingReport {
+
+    private static final String LINE = System.lineSeparator();
+    private static final int WIDTH = 35;
+    private static final String SPACES = " ".repeat(WIDTH);
+
+    private final boolean dsect;
+    private final boolean hexOffsets;
+    private final boolean decimalOffsets;
+    private final boolean asciiDigits;
+    private final HexDump hexDump;
+
+    TextReport(Layout layout, String formatting) {
+        this(layout, formatting, null);
+    }
+
+    TextReport(Layout layout, String formatting, ReportSink sink) {
+        this(layout, formatting, HexDump.DEFAULT, sink);
+    }
+
+    /**
+     * A report that shows long values and fillers as {@code hexDump} renders them.
+     */
+    TextReport(Layout layout, String formatting, HexDump hexDump, ReportSink sink) {
+        super(sink);
+        this.hexDump = hexDump;
+        this.dsect = layout.dsect;
+        this.hexOffsets = formatting.equals("h");
+        this.decimalOffsets = formatting.equals("d");
+        this.asciiDigits = Decoders.asciiDigits();
+    }
+
+    private void appendDecimal(long value) {
+        if (asciiDigits) {
+            res.append(value);
+        } else {
+            res.append(String.format("%d", value));
+        }
+    }
+
+    /**
+     * Left pads what was appended since {@code start} to {@code %35s}.
+     */
+    private void padLeft(int start) {
+        int pad = WIDTH - (res.length() - start);
+        if (pad > 0) {
+            res.insert(start, SPACES, 0, pad);
+        }
+    }
+
+    /**
+     * Right pads what was appended since {@code start} to {@code %-35s}.
+     */
+    private void padRight(int start) {
+        int pad = WIDTH - (res.length() - start);
+        if (pad > 0) {
+            res.append(SPACES, 0, pad);
+        }
+    }
+
+    /**
+     * {@code %35s : } of {@code (%x.%s) %s}, {@code (%d.%s) %s} or the field name.
+     */
+    private void label(Field field, long offset) {
+        int start = res.length();
+        if (hexOffsets) {
+            res.append('(').append(Long.toHexString(offset)).append(field.labelTail);
+        } else if (decimalOffsets) {
+            res.append('(');
+            appendDecimal(offset);
+            res.append(field.labelTail);
+        } else {
+            res.append(field.name);
+        }
+        padLeft(start);
+        res.append(" : ");
+    }
+
+    /**
+     * {@code  = '%s'} of the converted value.
+     */
+    private void appendDecoded(String decoded) {
+        res.append(" = '").append(decoded).append('\'');
+    }
+
+    @Override
+    public void onField(Field field, long offset, FieldValue value) {
+        switch (field.kind) {
+            case COUNTER:
+                // '%s%n
+                label(field, offset);
+                res.append('\'');
+                value.appendText(this);
+                res.append(LINE);
+                break;
+            case VERSION:
+            case LENGTH:
+                // %s = '%s'%n
+                label(field, offset);
+                if (dsect) {
+                    value.appendText(this);
+                    appendDecoded(value.decoded());
+                    res.append(LINE);
+                }
+                break;
+            case GROUP:
+                // %s = '%s', then " (%s)" of the alias and a line feed
+                label(field, offset);
+                value.appendText(this);
+                if (dsect) {
+                    appendDecoded(value.decoded());
+                }
+                if (!value.meanings().isEmpty()) {
+                    res.append(" (").append(value.meanings().get(0)).append(')'); //Show Alias name, if any
+                }
+                res.append('\n');
+                break;
+            case FILLER:
+                appendFiller(field, offset, value);
+                break;
+            default:
+                appendField(field, offset, value);
+        }
+        spill();
+    }
+
+    /**
+     * {@code %s%s%s%n} of value, converted value and meaning, or the hex dump of long values;
+     * {@code '%s' (%s)%n} or {@code '%s'%n} for other layouts.
+     */
+    private void appendField(Field field, long offset, FieldValue value) {
+        label(field, offset);
+        List<String> meanings = value.meanings();
+        if (dsect) {
+            if (value.textLength() > 32) {
+                res.append(LINE);
+                value.appendHexDump(this, hexDump);
+                res.append(LINE);
+            } else {
+                String fit = value.decoded();
+                value.appendText(this);
+                if (!fit.isEmpty()) {
+                    appendDecoded(fit);
+                }
+                if (!meanings.isEmpty()) {
+                    appendMeaning(meanings);
+                }
+                res.append(LINE);
+            }
+        } else {
+            res.append('\'');
+            value.appendText(this);
+            res.append('\'');
+            if (!meanings.isEmpty()) {
+                res.append(" (");
+                appendMeaning(meanings);
+                res.append(')');
+            }
+            res.append(LINE);
+        }
+    }
+
+    /**
+     * {@code  (%s)} of a single meaning, {@code %n%-35s} of several joined by line feeds.
+     */
+    private void appendMeaning(List<String> meanings) {
+        if (meanings.size() > 1) {
+            res.append(LINE);
+            int start = res.length();
+            for (int i = 0; i < meanings.size(); i++) {
+                if (i > 0) {
+                    res.append('\n');
+                }
+                res.append(meanings.get(i));
+            }
+            padRight(start);
+        } else {
+            res.append(" (").append(meanings.get(0)).append(')');
+        }
+    }
+
+    /**
+     * {@code %35s : } of {@code (%d.%d) %s} whatever the formatting, then the value as for plain
+     * fields; other layouts use {@code %35s: '%s'%n}.
+     */
+    private void appendFiller(Field field, long offset, FieldValue value) {
+        int start = res.length();
+        res.append('(');
+        appendDecimal(offset);
+        res.append('.');
+        appendDecimal(value.length());
+        res.append(") ").append(field.name);
+        padLeft(start);
+        if (dsect) {
+            res.append(" : ");
+            if (value.textLength() > 32) {
+                res.append(LINE);
+                value.appendHexDump(this, hexDump);
+                res.append(LINE);
+            } else {
+                value.appendText(this);
+                appendDecoded(value.decoded());
+                res.append(LINE);
+            }
+        } else {
+            res.append(": '");
+            value.appendText(this);
+            res.append('\'').append(LINE);
+        }
+    }
+
+    /**
+     * {@code %s %d of %d :%n} per counter occurrence, {@code ---%s Size=%d%n} and
+     * {@code ---%s [Rest of the data]:%n} before length and filler windows.
+     */
+    @Override
+    public void onEnterStruc(Field field, Block block, long offset, long size, int occurrence, int count) {
+        if (block == field.head) {
+            return;
+        }
+        if (field.kind == Field.Kind.COUNTER && occurrence > 0) {
+            res.append(field.forName).append(' ');
+            appendDecimal(occurrence);
+            res.append(" of ");
+            appendDecimal(count);
+            res.append(" :").append(LINE);
+        } else if (field.kind == Field.Kind.LENGTH && occurrence == 0) {
+            res.append("---").append(field.forName).append(" Size=");
+            appendDecimal(size);
+            res.append(LINE);
+        } else if (field.kind == Field.Kind.FILLER && occurrence == 0) {
+            res.append("---").append(field.forName).append(" [Rest of the data]:").append(LINE);
+        }
+        spill();
+    }
+
+    @Override
+    public void onMessage(int code, Field field, long offset, String message) {
+        if (field != null) {
+            label(field, offset);
+        }
+        append(message);
+        spill();
+    }
+}
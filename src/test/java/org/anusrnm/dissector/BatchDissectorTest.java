@@ -0,0 +1,69 @@
+package org.anusrnm.dissector;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class BatchDissectorTest {
+    private final ClassLoader classloader = Thread.currentThread().getContextClassLoader();
+
+    private File resource(String name) {
+        return new File(Objects.requireNonNull(classloader.getResource(name)).getFile());
+    }
+
+    private List<String> inputs(int count) throws Exception {
+        String input = Files.readString(resource("COMPLEX_in.txt").toPath());
+        assertTrue(input.contains("E8F20010"));
+        List<String> inputs = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            inputs.add(input.replace("E8F20010", String.format("E8F2%04X", i)));
+        }
+        return inputs;
+    }
+
+    @Test
+    public void testOrderedResults() throws Exception {
+        Dissector dissector = new Dissector(resource("COMPLEX.xml"), "d");
+        List<String> inputs = inputs(500);
+        List<String> expected = inputs.stream().map(dissector::parseWith).collect(Collectors.toList());
+
+        assertEquals(expected, new BatchDissector(dissector).dissect(inputs));
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            BatchDissector batch = new BatchDissector(dissector, executor, 3);
+            assertEquals(expected, batch.dissect(inputs.toArray(new String[0])));
+            assertEquals(expected, batch.dissect(inputs.stream(), 8).collect(Collectors.toList()));
+            List<ByteBuffer> buffers = inputs.stream()
+                    .map(s -> ByteBuffer.wrap(Dissector.hexStringToBytes(s))).collect(Collectors.toList());
+            assertEquals(expected, batch.dissectBuffers(buffers));
+            assertEquals(expected, batch.dissectBuffers(buffers.stream(), 1).collect(Collectors.toList()));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testFailurePropagates() throws Exception {
+        Dissector dissector = new Dissector(resource("COMPLEX.xml"));
+        List<String> inputs = inputs(10);
+        inputs.set(7, null);
+        try {
+            new BatchDissector(dissector).dissect(inputs);
+            fail();
+        } catch (NullPointerException expected) {
+            // the failure of the record itself, not a CompletionException
+        }
+    }
+}
@@ -11,22 +11,37 @@ import org.w3c.dom.Node;
 import javax.xml.XMLConstants;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.time.Instant;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class DissectorTest {
     private static final Logger log = LoggerFactory.getLogger(DissectorTest.class);
     private final ClassLoader classloader = Thread.currentThread().getContextClassLoader();
 
-    @Ignore
     @Test
     public void testLayout() throws Exception {
         File layoutFile = new File(Objects.requireNonNull(classloader.getResource("COMPLEX.xml")).getFile());
@@ -40,6 +55,37 @@ public class DissectorTest {
         assertEquals(expected, actual);
     }
 
+    @Test
+    public void testReuseAcrossCalls() throws Exception {
+        File layoutFile = new File(Objects.requireNonNull(classloader.getResource("TEST.xml")).getFile());
+        Dissector dissector = new Dissector(layoutFile, "d");
+        String first = dissector.parseWith("00000004C1C2C3C4");
+        String second = dissector.parseWith("00000004C1C2C3C4");
+        assertEquals(first, second);
+    }
+
+    @Test
+    public void testConcurrentParse() throws Exception {
+        File layoutFile = new File(Objects.requireNonNull(classloader.getResource("COMPLEX.xml")).getFile());
+        File inputFile = new File(Objects.requireNonNull(classloader.getResource("COMPLEX_in.txt")).getFile());
+        File resultFile = new File(Objects.requireNonNull(classloader.getResource("COMPLEX_result.txt")).getFile());
+        String hexString = Files.readString(inputFile.toPath());
+        String expected = Files.readString(resultFile.toPath());
+        Dissector dissector = new Dissector(Layout.load(layoutFile), "d");
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<String>> results = new ArrayList<>();
+            for (int i = 0; i < 64; i++) {
+                results.add(pool.submit(() -> dissector.parseWith(hexString)));
+            }
+            for (Future<String> result : results) {
+                assertEquals(expected, result.get());
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
     @Ignore
     @Test
     public void testParser() throws Exception {
@@ -56,6 +102,65 @@ public class DissectorTest {
         assertEquals(expected, actual);
     }
 
+    @Test
+    public void testReportLocale() throws Exception {
+        File layoutFile = new File(Objects.requireNonNull(classloader.getResource("TEST.xml")).getFile());
+        Locale saved = Locale.getDefault(Locale.Category.FORMAT);
+        Locale.setDefault(Locale.Category.FORMAT, new Locale("ar", "EG"));
+        try {
+            String expected = String.format("%35s : 00000004 = '4'%n---data Size=%d%n%35s : C1C2C3C4 = 'ABCD'%n",
+                    String.format("(%d.4) Len", 0), 4, String.format("(%d.%d) Data", 4, 4));
+            assertEquals(expected, new Dissector(layoutFile, "d").parseWith("00000004C1C2C3C4"));
+        } finally {
+            Locale.setDefault(Locale.Category.FORMAT, saved);
+        }
+    }
+
+    @Test
+    public void testCompiledLayout() throws Exception {
+        File layoutFile = new File(Objects.requireNonNull(classloader.getResource("COMPLEX.xml")).getFile());
+        Layout layout = Layout.load(layoutFile);
+        assertTrue(layout.dsect);
+        assertEquals(1, layout.root.fields.length);
+        Field recLen = layout.root.fields[0];
+        assertEquals(Field.Kind.LENGTH, recLen.kind);
+        assertEquals(2, recLen.length);
+        assertTrue(recLen.partOfStruc);
+        Block body = recLen.target;
+        assertNotNull(body);
+        assertEquals("body", body.name);
+        Field flags = body.fields[1];
+        assertEquals("Active", flags.values.get("80"));
+        Field version = body.fields[8];
+        assertEquals(Field.Kind.VERSION, version.kind);
+        assertNotNull(version.head);
+        assertEquals(Block.Kind.HEAD, version.head.kind);
+        Block f1 = body.findVersion(new StringInput("F1", 1), 0, 2);
+        assertSame(body.versions[1], f1.includes[0]);
+        Field items = body.fields[9];
+        assertSame(body.strucs[0], items.target);
+        assertSame(body.groups[0], body.findGroup(new StringInput("C5", 1), 0, 2));
+        assertSame(body.groups[1], body.findGroup(new StringInput("C6", 1), 0, 2));
+        Field trailer = body.fields[body.fields.length - 1];
+        assertNull(trailer.target);
+        assertEquals(2, layout.external(trailer.forName).fields.length);
+    }
+
+    @Test
+    public void testInputCursor() {
+        Input input = new StringInput("00000004C1C2C3C4", 2);
+        assertEquals("00000004", input.take(4));
+        assertEquals("C1C2", input.peek(2));
+        int start = input.position();
+        int end = input.end(2);
+        input.window(start, end);
+        assertEquals("C1C2", input.takeRest());
+        assertTrue(input.isEmpty());
+        input.window(end, 16);
+        assertEquals("C3C4", input.take(10));
+        assertTrue(input.isEmpty());
+    }
+
     @Test
     public void testGetChildElementsByTagName() throws Exception {
         File layoutFile = new File(Objects.requireNonNull(classloader.getResource("TestField.xml")).getFile());
@@ -134,6 +239,673 @@ public class DissectorTest {
         assertEquals(expected, result);
     }
 
+    @Test
+    public void testFastDecoders() {
+        Random random = new Random(10);
+        for (int i = 0; i < 20000; i++) {
+            long tod = random.nextLong() & 0xFFFFFFFFL;
+            assertEquals(Dissector.convertToTODByCalendar(tod), Dissector.convertToTOD(tod));
+            int ztod = random.nextInt() & Integer.MAX_VALUE;
+            assertEquals(Dissector.convertToZTODByCalendar(ztod), Dissector.convertToZTOD(ztod));
+            int parsd = random.nextInt(i % 2 == 0 ? 100_000 : Integer.MAX_VALUE);
+            assertEquals(Dissector.convertToParsDateByCalendar(parsd), Dissector.convertToParsDate(parsd));
+        }
+        assertEquals("", Dissector.convertToTOD(0));
+        assertEquals("01-Jan-1900 12:00:01", Dissector.convertToTOD(1));
+        assertEquals(Dissector.convertToZTODByCalendar(-5), Dissector.convertToZTOD("FFFFFFFB"));
+        assertEquals("00:00", Dissector.convertToMins(0));
+        assertEquals("255:255", Dissector.convertToHHMM("FFFF"));
+    }
+
+    @Test
+    public void testFastDecodersInRegionZones() {
+        TimeZone saved = TimeZone.getDefault();
+        try {
+            for (String zone : List.of("Europe/Berlin", "America/New_York", "America/Sao_Paulo", "Africa/Nairobi")) {
+                TimeZone.setDefault(TimeZone.getTimeZone(zone));
+                Decoders.lookUpZone();
+                Random random = new Random(zone.hashCode());
+                int fast = 0;
+                for (int i = 0; i < 5000; i++) {
+                    long tod = random.nextLong() & 0xFFFFFFFFL;
+                    int ztod = random.nextInt() & Integer.MAX_VALUE;
+                    int parsd = random.nextInt(0x10000);
+                    String[] decoded = {Decoders.tod(tod), Decoders.ztod(ztod), Decoders.parsd(parsd)};
+                    String[] expected = {Dissector.convertToTODByCalendar(tod),
+                            Dissector.convertToZTODByCalendar(ztod), Dissector.convertToParsDateByCalendar(parsd)};
+                    for (int j = 0; j < decoded.length; j++) {
+                        if (decoded[j] != null) {
+                            assertEquals(zone, expected[j], decoded[j]);
+                            fast++;
+                        }
+                    }
+                }
+                assertTrue(zone + " " + fast, fast > 14_500);
+            }
+        } finally {
+            TimeZone.setDefault(saved);
+            Decoders.lookUpZone();
+        }
+    }
+
+    @Test
+    public void testCodePages() throws Exception {
+        byte[] all = new byte[256];
+        for (int i = 0; i < all.length; i++) {
+            all[i] = (byte) i;
+        }
+        for (String name : List.of("cp500", "cp037", "cp1047")) {
+            byte[] platform = new String(all, name).getBytes();
+            CodePage codePage = CodePage.of(name);
+            assertSame(codePage, CodePage.of(name.toUpperCase()));
+            assertTrue(Arrays.equals(platform, codePage.toPlatform(all)));
+            assertEquals(Dissector.getSafeString(platform), codePage.safeString(all));
+            assertEquals(codePage.safeString(all), codePage.safeString(ByteBuffer.wrap(all), 0, all.length));
+        }
+        assertEquals("[", Dissector.getInType("4A", "C"));
+        assertEquals("|", Dissector.getInType("4F", "C", CodePage.of("cp037")));
+
+        File layoutFile = new File(Objects.requireNonNull(classloader.getResource("COMPLEX.xml")).getFile());
+        Path copy = Files.createTempFile("cp037", ".xml");
+        try {
+            Files.writeString(copy, Files.readString(layoutFile.toPath())
+                    .replace("type=\"dsect\">", "type=\"dsect\" codepage=\"cp037\">"));
+            assertEquals("cp037", Layout.load(copy.toFile()).codePage.name());
+            assertSame(CodePage.DEFAULT, Layout.load(layoutFile).codePage);
+        } finally {
+            Files.delete(copy);
+        }
+        try {
+            CodePage.of("utf-8");
+            fail();
+        } catch (IllegalArgumentException expected) {
+            assertEquals("Code page 'utf-8' is not a single byte code page", expected.getMessage());
+        }
+    }
+
+    @Test
+    public void testHexDump() throws Exception {
+        byte[] all = new byte[256];
+        for (int i = 0; i < all.length; i++) {
+            all[i] = (byte) i;
+        }
+        for (String name : List.of("cp500", "cp037")) {
+            CodePage codePage = CodePage.of(name);
+            StringBuilder dump = new StringBuilder();
+            HexDump.DEFAULT.append(dump, ByteBuffer.wrap(all), 0, all.length, codePage);
+            assertEquals(Dissector.getHexDumpWithOffset(codePage.toPlatform(all), 16), dump.toString());
+        }
+        StringBuilder dump = new StringBuilder();
+        HexDump.of(4, 10).append(dump, ByteBuffer.wrap(all), 0x40, 0x50, null);
+        assertEquals(String.format("00000000: 40 41 42 43  @ABC%n00000004: 44 45 46 47  DEFG%n"
+                + "00000008: 48 49        HI%n... 6 more bytes%n"), dump.toString());
+
+        File layoutFile = new File(Objects.requireNonNull(classloader.getResource("COMPLEX.xml")).getFile());
+        File inputFile = new File(Objects.requireNonNull(classloader.getResource("COMPLEX_in.txt")).getFile());
+        File resultFile = new File(Objects.requireNonNull(classloader.getResource("COMPLEX_result.txt")).getFile());
+        String input = Files.readString(inputFile.toPath());
+        String expected = Files.readString(resultFile.toPath());
+        Dissector dissector = new Dissector(layoutFile, "d").withHexDump(HexDump.of(8, 12));
+        String blob = String.format("%n00000000: 6F 50 61 79 6C 6F 61 64  oPayload%n"
+                + "00000008: 2D 30 31 32              -012%n... 8 more bytes%n%n");
+        String report = expected.replaceFirst("(?s)\\R00000000: 6F.*?789\\[\\R\\R", blob.replace("[", "\\["));
+        assertEquals(report, dissector.parseWith(input));
+        assertEquals(report, dissector.parseWith(Dissector.hexStringToBytes(input)));
+    }
+
+    @Test
+    public void testHexDumpSpillsPerLine() throws Exception {
+        File layoutFile = new File(Objects.requireNonNull(classloader.getResource("TEST.xml")).getFile());
+        Dissector dissector = new Dissector(layoutFile, "d");
+        byte[] data = new byte[4 + 5000];
+        ByteBuffer.wrap(data).putInt(5000);
+        for (int i = 4; i < data.length; i++) {
+            data[i] = (byte) (0xC1 + i % 9);
+        }
+        String expected = dissector.parseWith(data);
+        StringBuilder appended = new StringBuilder();
+        List<Integer> chunks = new ArrayList<>();
+        ReportSink sink = new ReportSink(256) {
+            @Override
+            void write(CharSequence chars) {
+                chunks.add(chars.length());
+                appended.append(chars);
+            }
+        };
+        dissector.parseWith(Dissector.toHexString(ByteBuffer.wrap(data), 0, data.length), sink);
+        dissector.parseWith(ByteBuffer.wrap(data), sink);
+        dissector.incremental(sink).feed(ByteBuffer.wrap(data));
+        assertEquals(expected.repeat(3), appended.toString());
+        assertTrue(chunks.size() > 3 * 5000 / 16 * 78 / (256 + 80));
+        for (int chunk : chunks) {
+            // at most one dump line past the buffer size
+            assertTrue(chunk <= 256 + 80);
+        }
+    }
+
+    @Test
+    public void testNameIndex() {
+        String alphabet = "abAB1I\u0130i\u212AK\u00e9";
+        Random random = new Random(12);
+        NameIndex none = new NameIndex(new Block[0]);
+        Locale saved = Locale.getDefault();
+        try {
+            for (Locale locale : List.of(Locale.ROOT, new Locale("tr"))) {
+                Locale.setDefault(locale);
+                for (int round = 0; round < 300; round++) {
+                    Block[] blocks = new Block[random.nextInt(8)];
+                    for (int i = 0; i < blocks.length; i++) {
+                        blocks[i] = new Block(Block.Kind.GROUP, randomName(random, alphabet, 3), "", "",
+                                new Field[0], none, none, none);
+                    }
+                    NameIndex index = new NameIndex(blocks);
+                    for (int i = 0; i < 50; i++) {
+                        String value = randomName(random, alphabet, 5);
+                        String lowerValue = value.toLowerCase();
+                        Block start = null;
+                        for (Block block : blocks) {
+                            String lowerName = block.name.toLowerCase();
+                            start = start == null && lowerValue.startsWith(lowerName) ? block : start;
+                        }
+                        assertSame(start, index.startingWith(value));
+                        assertSame(start, index.startingWith(new StringInput("#" + value, 1), 1, value.length() + 1));
+                    }
+                }
+            }
+        } finally {
+            Locale.setDefault(saved);
+        }
+    }
+
+    private static String randomName(Random random, String alphabet, int maxLength) {
+        StringBuilder sb = new StringBuilder();
+        int length = random.nextInt(maxLength + 1);
+        for (int i = 0; i < length; i++) {
+            sb.append(alphabet.charAt(random.nextInt(alphabet.length())));
+        }
+        return sb.toString();
+    }
+
+    @Test
+    public void testGetInTypeFromBytes() {
+        Random random = new Random(42);
+        String[] types = {"PARSD", "TOD", "ZTOD", "MINS", "HHMM", "B", "D", "N", "C"};
+        for (int i = 0; i < 2000; i++) {
+            byte[] data = new byte[1 + random.nextInt(9)];
+            random.nextBytes(data);
+            if (random.nextBoolean()) {
+                data[0] = 0;
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            String hex = Dissector.toHexString(buffer, 0, data.length);
+            for (String type : types) {
+                String expected;
+                try {
+                    expected = Dissector.getInType(hex, type);
+                } catch (Exception e) {
+                    expected = e.toString();
+                }
+                String actual;
+                try {
+                    actual = Dissector.getInType(buffer, 0, data.length, type);
+                } catch (Exception e) {
+                    actual = e.toString();
+                }
+                assertEquals(type + " " + hex, expected, actual);
+            }
+        }
+    }
+
+    @Test
+    public void testParseBytes() throws Exception {
+        File layoutFile = new File(Objects.requireNonNull(classloader.getResource("COMPLEX.xml")).getFile());
+        File inputFile = new File(Objects.requireNonNull(classloader.getResource("COMPLEX_in.txt")).getFile());
+        File resultFile = new File(Objects.requireNonNull(classloader.getResource("COMPLEX_result.txt")).getFile());
+        byte[] data = Dissector.hexStringToBytes(Files.readString(inputFile.toPath()));
+        String expected = Files.readString(resultFile.toPath());
+        Dissector dissector = new Dissector(layoutFile, "d");
+        assertEquals(expected, dissector.parseWith(data));
+        byte[] framed = new byte[data.length + 3];
+        System.arraycopy(data, 0, framed, 2, data.length);
+        assertEquals(expected, dissector.parseWith(framed, 2, data.length));
+        ByteBuffer buffer = ByteBuffer.allocateDirect(data.length).put(data).flip();
+        assertEquals(expected, dissector.parseWith(buffer));
+        assertEquals(0, buffer.position());
+    }
+
+    @Test
+    public void testIncremental() throws Exception {
+        File layoutFile = new File(Objects.requireNonNull(classloader.getResource("COMPLEX.xml")).getFile());
+        File inputFile = new File(Objects.requireNonNull(classloader.getResource("COMPLEX_in.txt")).getFile());
+        File resultFile = new File(Objects.requireNonNull(classloader.getResource("COMPLEX_result.txt")).getFile());
+        byte[] data = Dissector.hexStringToBytes(Files.readString(inputFile.toPath()));
+        String expected = Files.readString(resultFile.toPath());
+        Dissector dissector = new Dissector(layoutFile, "d");
+        for (int chunk = 1; chunk <= data.length; chunk += 7) {
+            StringBuilder out = new StringBuilder();
+            IncrementalParser parser = dissector.incremental(ReportSink.of(out));
+            for (int i = 0; i < data.length; i += chunk) {
+                assertFalse(parser.complete());
+                parser.feed(ByteBuffer.wrap(data, i, Math.min(chunk, data.length - i)));
+            }
+            // the record length field tells where the record ends
+            assertTrue(parser.complete());
+            assertEquals(0, parser.result());
+            assertEquals(expected, out.toString());
+        }
+        StringBuilder out = new StringBuilder();
+        IncrementalParser parser = dissector.incremental(ReportSink.of(out, 1));
+        assertFalse(parser.feed(ByteBuffer.wrap(data, 0, 20)));
+        assertTrue(out.length() > 0);
+        assertTrue(parser.feed(ByteBuffer.wrap(Arrays.copyOfRange(data, 20, data.length + 2))));
+        assertEquals(expected, out.toString());
+        assertEquals(ByteBuffer.wrap(new byte[2]), parser.rest());
+        byte[] truncated = Arrays.copyOf(data, 50);
+        out.setLength(0);
+        parser = dissector.incremental(ReportSink.of(out));
+        assertFalse(parser.feed(ByteBuffer.wrap(truncated)));
+        assertEquals(dissector.parseWith(ByteBuffer.wrap(truncated), new DissectionVisitor() {
+        }), parser.finish());
+        assertEquals(dissector.parseWith(truncated), out.toString());
+    }
+
+    @Test
+    public void testGeneratedParser() throws Exception {
+        Path dir = Files.createTempDirectory("generated");
+        Path layoutFile = dir.resolve("ORDERS.xml");
+        try {
+            Files.writeString(layoutFile, "<layout name=\"ORDERS\" type=\"dsect\">"
+                    + "<field type=\"D\" name=\"RecLen\" length=\"2\" kind=\"length\" for=\"order\" partofstruc=\"Y\"/>"
+                    + "<struc name=\"order\">"
+                    + "<field type=\"C\" name=\"Id\" length=\"2\" values=\"C1C2=Sales\"/>"
+                    + "<field type=\"B\" name=\"Flags\" length=\"1\" values=\"80=Active,01=Test\"/>"
+                    + "<field type=\"PARSD\" name=\"Created\" length=\"2\"/>"
+                    + "<field type=\"HHMM\" name=\"Start\" length=\"2\"/>"
+                    + "<field type=\"D\" name=\"Items\" length=\"1\" kind=\"counter\" for=\"item\"/>"
+                    + "<struc name=\"item\"><field type=\"C\" name=\"Code\" length=\"2\"/>"
+                    + "<field type=\"D\" name=\"Qty\" length=\"2\"/></struc>"
+                    + "<field type=\"N\" name=\"Tail\" length=\"1\"/>"
+                    + "</struc></layout>");
+            Dissector dissector = new Dissector(layoutFile.toFile(), "d");
+            Dissector generated = dissector.withGeneratedParser();
+            assertTrue(generated.hasGeneratedParser());
+            assertTrue(ParserGenerator.source(dissector.getLayout()).contains("Dissector.decodeParsd("));
+            byte[] data = Dissector.hexStringToBytes("0014C1C28100100A1E02E7F10003E8F2001033");
+            String[] inputs = {"0014C1C28100100A1E02E7F10003E8F2001033", "0014C1C28100100A1E02E7F1", "0014C1",
+                    "0014C1C28100100A1EFF", "0028C1C28100100A1E01E7F100033400000000000000000000000000000000000000"};
+            for (String input : inputs) {
+                ByteBuffer bytes = ByteBuffer.wrap(Dissector.hexStringToBytes(input));
+                assertEquals(dissector.parseWith(bytes), generated.parseWith(bytes));
+                assertEquals(dissector.toJson(bytes), generated.toJson(bytes));
+                assertEquals(0, bytes.position());
+            }
+            assertEquals(dissector.extract(ByteBuffer.wrap(data), "order/item/Qty", "order/Tail"),
+                    generated.extract(ByteBuffer.wrap(data), "order/item/Qty", "order/Tail"));
+            // metrics are collected by the interpreter
+            MetricsRegistry registry = new MetricsRegistry();
+            generated.withMetrics(registry).parseWith(data);
+            assertEquals(1, registry.latency("ORDERS").count());
+            File complex = new File(Objects.requireNonNull(classloader.getResource("COMPLEX.xml")).getFile());
+            assertFalse(new Dissector(complex, "d").withGeneratedParser().hasGeneratedParser());
+        } finally {
+            LayoutCache.shared().clear();
+            Files.delete(layoutFile);
+            Files.delete(dir);
+        }
+    }
+
+    @Test
+    public void testReportSinks() throws Exception {
+        File layoutFile = new File(Objects.requireNonNull(classloader.getResource("COMPLEX.xml")).getFile());
+        File inputFile = new File(Objects.requireNonNull(classloader.getResource("COMPLEX_in.txt")).getFile());
+        File resultFile = new File(Objects.requireNonNull(classloader.getResource("COMPLEX_result.txt")).getFile());
+        String input = Files.readString(inputFile.toPath());
+        String expected = Files.readString(resultFile.toPath());
+        Dissector dissector = new Dissector(layoutFile, "d");
+        List<String> chunks = new ArrayList<>();
+        StringBuilder appended = new StringBuilder();
+        int ret = dissector.parseWith(input, new ReportSink(64) {
+            @Override
+            void write(CharSequence chars) {
+                chunks.add(chars.toString());
+                appended.append(chars);
+            }
+        });
+        assertEquals(0, ret);
+        assertEquals(expected, appended.toString());
+        assertTrue(chunks.size() > 1);
+        for (String chunk : chunks) {
+            assertTrue(chunk.endsWith("\n"));
+        }
+        StringWriter writer = new StringWriter();
+        dissector.parseWith(input, ReportSink.of(writer, 16));
+        assertEquals(expected, writer.toString());
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        dissector.parseWith(ByteBuffer.wrap(Dissector.hexStringToBytes(input)),
+                ReportSink.of(bytes, StandardCharsets.UTF_8, 32));
+        assertEquals(expected, bytes.toString(StandardCharsets.UTF_8));
+        bytes.reset();
+        dissector.parseWith(input, ReportSink.of(Channels.newChannel(bytes), StandardCharsets.UTF_8, 100));
+        assertEquals(expected, bytes.toString(StandardCharsets.UTF_8));
+        try {
+            dissector.parseWith(input, ReportSink.of(new Writer() {
+                @Override
+                public void write(char[] cbuf, int off, int len) throws IOException {
+                    throw new IOException("closed");
+                }
+
+                @Override
+                public void flush() {
+                }
+
+                @Override
+                public void close() {
+                }
+            }, 16));
+            fail();
+        } catch (IOException expectedFailure) {
+            assertEquals("closed", expectedFailure.getMessage());
+        }
+    }
+
+    @Test
+    public void testReportSinkBoundsLongValues() throws Exception {
+        Path dir = Files.createTempDirectory("long");
+        Path layoutFile = dir.resolve("NOTE.xml");
+        Path emptyFile = dir.resolve("EMPTY.xml");
+        try {
+            Files.writeString(layoutFile, "<layout name=\"NOTE\" type=\"text\">"
+                    + "<field type=\"C\" name=\"Code\" length=\"2\"/>"
+                    + "<field type=\"C\" name=\"Note\" length=\"5000\"/></layout>");
+            Files.writeString(emptyFile, "<layout name=\"EMPTY\" type=\"text\"></layout>");
+            String input = "AB" + "0123456789".repeat(500);
+            for (Path file : List.of(layoutFile, emptyFile)) {
+                Dissector dissector = new Dissector(file.toFile(), "d");
+                String expected = dissector.parseWith(input);
+                assertTrue(expected.length() > 5000);
+                StringBuilder appended = new StringBuilder();
+                int[] largest = new int[1];
+                dissector.parseWith(input, new ReportSink(256) {
+                    @Override
+                    void write(CharSequence chars) {
+                        largest[0] = Math.max(largest[0], chars.length());
+                        appended.append(chars);
+                    }
+                });
+                assertEquals(expected, appended.toString());
+                assertTrue(largest[0] <= 256 + 80);
+            }
+        } finally {
+            LayoutCache.shared().clear();
+            Files.delete(layoutFile);
+            Files.delete(emptyFile);
+            Files.delete(dir);
+        }
+    }
+
+    @Test
+    public void testReportSinkKeepsSurrogatePairs() throws Exception {
+        Path dir = Files.createTempDirectory("astral");
+        Path layoutFile = dir.resolve("SMILE.xml");
+        try {
+            Files.writeString(layoutFile, "<layout name=\"SMILE\" type=\"text\">"
+                    + "<field type=\"C\" name=\"Faces\" length=\"300\"/></layout>");
+            String input = "\uD83D\uDE00".repeat(150);
+            Dissector dissector = new Dissector(layoutFile.toFile(), "d");
+            String expected = dissector.parseWith(input);
+            for (int bufferSize : new int[]{1, 7, 16, 33, 64, 100}) {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                dissector.parseWith(input, ReportSink.of(bytes, StandardCharsets.UTF_8, bufferSize));
+                assertEquals(expected, bytes.toString(StandardCharsets.UTF_8));
+            }
+        } finally {
+            LayoutCache.shared().clear();
+            Files.delete(layoutFile);
+            Files.delete(dir);
+        }
+    }
+
+    @Test
+    public void testJsonReportSinkBoundsLongValues() throws Exception {
+        Path dir = Files.createTempDirectory("long");
+        Path textFile = dir.resolve("QUOTE.xml");
+        Path dsectFile = dir.resolve("BLOB.xml");
+        try {
+            Files.writeString(textFile, "<layout name=\"QUOTE\" type=\"text\">"
+                    + "<field type=\"C\" name=\"Quote\" length=\"5000\"/></layout>");
+            Files.writeString(dsectFile, "<layout name=\"BLOB\" type=\"dsect\">"
+                    + "<field type=\"X\" name=\"Blob\" length=\"3000\"/></layout>");
+            Map<Path, String> inputs = Map.of(textFile, "a\"\uD83D\uDE00".repeat(1250),
+                    dsectFile, "C1F0".repeat(1500));
+            for (Map.Entry<Path, String> input : inputs.entrySet()) {
+                Dissector dissector = new Dissector(input.getKey().toFile(), "d");
+                String expected = dissector.toJson(input.getValue());
+                assertTrue(expected.length() > 5000);
+                StringBuilder appended = new StringBuilder();
+                int[] largest = new int[1];
+                JsonReport report = new JsonReport(dissector.getLayout(), false, new ReportSink(256) {
+                    @Override
+                    void write(CharSequence chars) {
+                        largest[0] = Math.max(largest[0], chars.length());
+                        appended.append(chars);
+                    }
+                });
+                report.beginRecord();
+                report.endRecord(dissector.parseWith(input.getValue(), report));
+                report.finish();
+                assertEquals(expected, appended.toString());
+                // the quotes are escaped after the pieces are cut
+                assertTrue(largest[0] <= 2 * 256 + 80);
+                for (int bufferSize : new int[]{1, 7, 16, 33}) {
+                    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                    report = new JsonReport(dissector.getLayout(), false,
+                            ReportSink.of(bytes, StandardCharsets.UTF_8, bufferSize));
+                    report.beginRecord();
+                    report.endRecord(dissector.parseWith(input.getValue(), report));
+                    report.finish();
+                    assertEquals(expected, bytes.toString(StandardCharsets.UTF_8));
+                }
+            }
+        } finally {
+            LayoutCache.shared().clear();
+            Files.delete(textFile);
+            Files.delete(dsectFile);
+            Files.delete(dir);
+        }
+    }
+
+    @Test
+    public void testJsonAndCsv() throws Exception {
+        File layoutFile = new File(Objects.requireNonNull(classloader.getResource("COMPLEX.xml")).getFile());
+        File inputFile = new File(Objects.requireNonNull(classloader.getResource("COMPLEX_in.txt")).getFile());
+        String input = Files.readString(inputFile.toPath());
+        Dissector dissector = new Dissector(layoutFile);
+        String json = dissector.toJson(input);
+        assertTrue(json.startsWith("{\"layout\":\"COMPLEX\",\"fields\":[{\"name\":\"RecLen\",\"kind\":\"length\","
+                + "\"type\":\"D\",\"offset\":0,\"length\":2,\"hex\":\"004C\",\"value\":\"76\"},"
+                + "{\"struc\":\"body\",\"field\":\"RecLen\",\"offset\":2,\"size\":74,\"occurrences\":[{\"occurrence\":1,"));
+        assertTrue(json.endsWith("],\"code\":0}"));
+        assertTrue(json.contains("{\"occurrence\":2,\"offset\":38,\"fields\":[{\"name\":\"ItemCode\",\"kind\":\"plain\","
+                + "\"type\":\"C\",\"offset\":38,\"length\":2,\"hex\":\"E8F2\",\"value\":\"Y2\"}"));
+        assertTrue(json.contains("{\"group\":\"C5\",\"alias\":\"Europe\",\"field\":\"Region\",\"offset\":43,\"fields\":["));
+        assertTrue(json.contains("\"meanings\":[\"Test\",\"Archived\",\"Active\"]"));
+        assertEquals(json, dissector.toJson(ByteBuffer.wrap(Dissector.hexStringToBytes(input))));
+        assertTrue(dissector.toJson(input.substring(0, 30)).endsWith(
+                "{\"code\":-11,\"offset\":16,\"message\":\"Warning: Stamp value not lengthy enough (Current length: 7)\"}]}]}],\"code\":-11}"));
+        StringBuilder escaped = new StringBuilder();
+        JsonReport.appendString(escaped, "a\"b\\c\n\u0001");
+        assertEquals("\"a\\\"b\\\\c\\n\\u0001\"", escaped.toString());
+
+        List<String> columns = CsvReport.columns(dissector.getLayout());
+        assertEquals(List.of("RecLen", "body/RecId", "body/Flags", "body/Nibbles", "body/Created", "body/Stamp",
+                "body/Zoned", "body/Duration", "body/Start", "body/Version", "body/VerTag", "body/F1/F0/V0Code",
+                "body/F1/V1Amount", "body/F0/V0Code", "body/Items", "body/item/ItemCode", "body/item/Qty",
+                "body/Region", "body/C5/Country", "body/NoteLen", "body/Note", "body/Blob"), columns);
+        CsvReport csv = new CsvReport(List.of("body/item[2]/Qty", "body/Nibbles", "body/Missing"));
+        csv.header();
+        dissector.parseWith(input, csv);
+        csv.endRecord();
+        dissector.parseWith(input, csv);
+        csv.endRecord();
+        assertEquals("body/item[2]/Qty,body/Nibbles,body/Missing\n16,\"2,15\",\n16,\"2,15\",\n", csv.toString());
+    }
+
+    @Test
+    public void testMetrics() throws Exception {
+        File layoutFile = new File(Objects.requireNonNull(classloader.getResource("COMPLEX.xml")).getFile());
+        File inputFile = new File(Objects.requireNonNull(classloader.getResource("COMPLEX_in.txt")).getFile());
+        File resultFile = new File(Objects.requireNonNull(classloader.getResource("COMPLEX_result.txt")).getFile());
+        String input = Files.readString(inputFile.toPath());
+        MetricsRegistry registry = new MetricsRegistry();
+        Dissector dissector = new Dissector(layoutFile, "d").withMetrics(registry);
+        assertEquals(Files.readString(resultFile.toPath()), dissector.parseWith(input));
+        dissector.parseWith(ByteBuffer.wrap(Dissector.hexStringToBytes(input)));
+        dissector.parseWith(input.substring(0, 30));
+        assertEquals(Set.of("COMPLEX"), registry.layouts());
+        assertEquals(3, registry.latency("COMPLEX").count());
+        assertEquals(1, registry.failures("COMPLEX"));
+        assertEquals(76 + 76 + 15, registry.bytes("COMPLEX"));
+        assertEquals(3, registry.fields("COMPLEX", Field.Kind.LENGTH).count());
+        assertEquals(2, registry.fields("COMPLEX", Field.Kind.COUNTER).count());
+        assertEquals(2, registry.fields("COMPLEX", Field.Kind.GROUP).count());
+        assertEquals(1, registry.messages("COMPLEX", Dissector.W_SHORT_VALUE));
+        assertEquals(2, registry.messages("COMPLEX", Dissector.NOTE));
+        assertEquals(2, registry.externalLookups());
+        assertEquals(0, registry.externalFailures());
+        assertTrue(registry.latency("COMPLEX").percentile(0.5) <= registry.latency("COMPLEX").maxNanos());
+        assertTrue(registry.toString().startsWith("COMPLEX: count=3 "));
+        registry.clear();
+        assertEquals(0, registry.latency("COMPLEX").count());
+    }
+
+    @Test
+    public void testDeepNesting() throws Exception {
+        Path dir = Files.createTempDirectory("deep");
+        Path layoutFile = dir.resolve("SELF.xml");
+        try {
+            Files.writeString(layoutFile, "<layout name=\"SELF\" type=\"dsect\">"
+                    + "<field type=\"C\" name=\"Tag\" length=\"1\"/>"
+                    + "<field type=\"C\" name=\"Rest\" kind=\"filler\" for=\"SELF.xml\"/></layout>");
+            String input = "C1".repeat(20_000);
+            Dissector dissector = new Dissector(layoutFile.toFile(), "d");
+            int[] tags = new int[1];
+            DissectionVisitor counting = new DissectionVisitor() {
+                @Override
+                public void onField(Field field, long offset, FieldValue value) {
+                    tags[0]++;
+                }
+            };
+            assertEquals(Dissector.E_TOO_DEEP, dissector.parseWith(input, counting));
+            assertEquals(Dissector.MAX_DEPTH + 1, tags[0]);
+            String report = dissector.withMaxDepth(3).parseWith("C1C2C3C4C5");
+            assertTrue(report.endsWith(String.format("%nError: layout[SELF] nested deeper than 3 levels%n")));
+            tags[0] = 0;
+            assertEquals(0, dissector.withMaxDepth(20_000).parseWith(input, counting));
+            assertEquals(20_000, tags[0]);
+        } finally {
+            LayoutCache.shared().clear();
+            Files.delete(layoutFile);
+            Files.delete(dir);
+        }
+    }
+
+    @Test
+    public void testVisitor() throws Exception {
+        File layoutFile = new File(Objects.requireNonNull(classloader.getResource("COMPLEX.xml")).getFile());
+        File inputFile = new File(Objects.requireNonNull(classloader.getResource("COMPLEX_in.txt")).getFile());
+        Dissector dissector = new Dissector(layoutFile);
+        List<String> fields = new ArrayList<>();
+        int[] depth = new int[1];
+        int ret = dissector.parseWith(Files.readString(inputFile.toPath()), new DissectionVisitor() {
+            @Override
+            public void onField(Field field, long offset, FieldValue value) {
+                fields.add(String.format("%d %s=%s", offset, field.name, value.decoded()));
+            }
+
+            @Override
+            public void onEnterStruc(Field field, Block block, long offset, long size, int occurrence, int count) {
+                depth[0]++;
+            }
+
+            @Override
+            public void onExitStruc(Field field, Block block, int occurrence) {
+                depth[0]--;
+            }
+        });
+        assertEquals(0, ret);
+        assertEquals(0, depth[0]);
+        assertEquals("0 RecLen=76", fields.get(0));
+        assertTrue(fields.contains("26 V0Code=ABC"));
+        assertTrue(fields.contains("29 V1Amount=100"));
+    }
+
+    @Test
+    public void testExtract() throws Exception {
+        File layoutFile = new File(Objects.requireNonNull(classloader.getResource("COMPLEX.xml")).getFile());
+        File inputFile = new File(Objects.requireNonNull(classloader.getResource("COMPLEX_in.txt")).getFile());
+        String input = Files.readString(inputFile.toPath());
+        Dissector dissector = new Dissector(layoutFile);
+        Map<String, String> values = dissector.extract(input, "body/item[2]/Qty", "RecLen", "body/Europe/Country",
+                "body/VerTag", "body/item/ItemCode", "body/Missing");
+        assertEquals("{body/item[2]/Qty=16, RecLen=76, body/Europe/Country=FR, body/VerTag=T, body/item/ItemCode=X1}",
+                values.toString());
+        assertEquals(values, dissector.extract(ByteBuffer.wrap(Dissector.hexStringToBytes(input)),
+                "body/item[2]/Qty", "RecLen", "body/Europe/Country", "body/VerTag", "body/item/ItemCode", "body/Missing"));
+        // Stops after the last wanted field, so the truncated rest of the record is never read
+        String truncated = input.substring(0, 12);
+        FieldExtractor extractor = new FieldExtractor("body/RecId");
+        assertEquals(0, dissector.parseWith(truncated, extractor));
+        assertEquals("AB", extractor.values().get("body/RecId"));
+        assertTrue(extractor.done());
+        assertTrue(dissector.parseWith(truncated, new DissectionVisitor() {
+        }) < 0);
+    }
+
+    @Test
+    public void testOccurrenceIndex() throws Exception {
+        File layoutFile = new File(Objects.requireNonNull(classloader.getResource("COMPLEX.xml")).getFile());
+        File inputFile = new File(Objects.requireNonNull(classloader.getResource("COMPLEX_in.txt")).getFile());
+        ByteBuffer input = ByteBuffer.wrap(Dissector.hexStringToBytes(Files.readString(inputFile.toPath())));
+        Dissector dissector = new Dissector(layoutFile, "d");
+        Block body = dissector.getLayout().root.strucs[0];
+        assertEquals(-1, body.fixedSize);
+        assertEquals(4, body.strucs[0].fixedSize);
+
+        OccurrenceIndex index = dissector.occurrences(input);
+        assertEquals(0, index.result());
+        assertEquals(3, index.repeats());
+        assertEquals(1, index.count("body"));
+        assertEquals(2, index.count("body/item"));
+        assertEquals(2, index.count("body[1]/COMPLEX_ext"));
+        assertEquals(0, index.count("body[2]/item"));
+        assertEquals(38, index.offset("body/item", 2));
+        String item = index.parse("body/item", 2);
+        assertTrue(item.startsWith("item 2 of 2 :"));
+        assertTrue(dissector.parseWith(input).contains(item));
+        assertEquals(Map.of("item/Qty", "16"), index.extract("body/item", 2, "item/Qty"));
+        assertEquals(Map.of("COMPLEX_ext/ExtCount", "8"), index.extract("body/COMPLEX_ext", 2, "COMPLEX_ext/ExtCount"));
+        assertEquals(dissector.extract(input, "body/Europe/Country"),
+                index.extract("body", 1, "body/Europe/Country"));
+        try {
+            index.parse("body/item", 3);
+            fail();
+        } catch (IllegalArgumentException expected) {
+            assertEquals("No occurrence 3 of body/item in the record", expected.getMessage());
+        }
+        // V1Amount does not fit an int: the dissection stops in the version, before the items, and so
+        // does the index
+        byte[] invalid = Dissector.hexStringToBytes(Files.readString(inputFile.toPath()));
+        Arrays.fill(invalid, 29, 33, (byte) 0xFF);
+        index = dissector.occurrences(ByteBuffer.wrap(invalid));
+        assertEquals(Dissector.E_NESTED, dissector.parseWith(ByteBuffer.wrap(invalid), dissector.textReport(null)));
+        assertEquals(Dissector.E_NESTED, index.result());
+        assertEquals(0, index.count("body/item"));
+        // ends before ExtCount, whose empty value does not decode
+        byte[] cut = Arrays.copyOf(Dissector.hexStringToBytes(Files.readString(inputFile.toPath())), 75);
+        assertEquals(Dissector.E_INVALID, dissector.parseWith(ByteBuffer.wrap(cut), dissector.textReport(null)));
+        assertEquals(Dissector.E_INVALID, dissector.occurrences(ByteBuffer.wrap(cut)).result());
+    }
+
     @Test
     public void testDateArith() {
         ZonedDateTime date1 = ZonedDateTime.parse("2007-12-03T10:15:30+05:30[Asia/Calcutta]");
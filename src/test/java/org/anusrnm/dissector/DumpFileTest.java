@@ -0,0 +1,258 @@
+package org.anusrnm.dissector;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+public class DumpFileTest {
+    private final ClassLoader classloader = Thread.currentThread().getContextClassLoader();
+
+    private File resource(String name) {
+        return new File(Objects.requireNonNull(classloader.getResource(name)).getFile());
+    }
+
+    @Test
+    public void testLengthFramedRecords() throws Exception {
+        byte[] record = Dissector.hexStringToBytes(Files.readString(resource("COMPLEX_in.txt").toPath()));
+        String expected = Files.readString(resource("COMPLEX_result.txt").toPath());
+        Path dump = Files.createTempFile("complex", ".bin");
+        try {
+            byte[] data = new byte[record.length * 3];
+            for (int i = 0; i < 3; i++) {
+                System.arraycopy(record, 0, data, i * record.length, record.length);
+            }
+            Files.write(dump, data);
+            Dissector dissector = new Dissector(resource("COMPLEX.xml"), "d");
+            RecordFraming framing = RecordFraming.lengthField(dissector.getLayout());
+            try (DumpFile file = DumpFile.open(dump, framing, 100)) {
+                List<String> reports = file.dissect(dissector).collect(Collectors.toList());
+                assertEquals(List.of(expected, expected, expected), reports);
+                DumpRecord last = file.read(2, 2L * record.length);
+                assertEquals(record.length, last.length());
+                assertEquals(expected, dissector.parseWith(last.data));
+                StringWriter streamed = new StringWriter();
+                assertEquals(3, file.dissect(dissector, ReportSink.of(streamed, 128)));
+                assertEquals(expected + expected + expected, streamed.toString());
+                StringWriter ndjson = new StringWriter();
+                assertEquals(3, file.writeNdjson(dissector, ReportSink.of(ndjson, 128)));
+                String[] lines = ndjson.toString().split("\n");
+                assertEquals(3, lines.length);
+                String json = dissector.toJson(last.data);
+                String prefix = "{\"layout\":\"COMPLEX\",";
+                assertEquals(prefix + String.format("\"record\":2,\"offset\":%d,", 2L * record.length)
+                        + json.substring(prefix.length()), lines[2]);
+                StringWriter csv = new StringWriter();
+                assertEquals(3, file.writeCsv(dissector, List.of("RecLen", "body/item/ItemCode"), ReportSink.of(csv)));
+                assertEquals("RecLen,body/item/ItemCode\n76,X1\n76,X1\n76,X1\n", csv.toString());
+            }
+        } finally {
+            Files.delete(dump);
+        }
+    }
+
+    @Test
+    public void testFixedLengthRecords() throws Exception {
+        Path dump = Files.createTempFile("test", ".bin");
+        try {
+            Files.write(dump, Dissector.hexStringToBytes("00000004C1C2C3C400000004C4C3C2C100000004C1"));
+            Dissector dissector = new Dissector(resource("TEST.xml"), "d");
+            try (DumpFile file = DumpFile.open(dump, RecordFraming.fixed(8))) {
+                Iterator<DumpRecord> records = file.iterator();
+                DumpRecord first = records.next();
+                assertEquals(0, first.index);
+                assertEquals(0, first.offset);
+                assertEquals(8, first.length());
+                DumpRecord second = records.next();
+                assertEquals(8, second.offset);
+                assertEquals(new Dissector(resource("TEST.xml"), "d").parseWith("00000004C4C3C2C1"),
+                        dissector.parseWith(second.data));
+                DumpRecord truncated = records.next();
+                assertEquals(2, truncated.index);
+                assertEquals(5, truncated.length());
+                assertFalse(records.hasNext());
+            }
+        } finally {
+            Files.delete(dump);
+        }
+    }
+
+    @Test
+    public void testUnreadableLengthTakesRestOfFile() throws Exception {
+        Path dump = Files.createTempFile("test", ".bin");
+        Path sidecar = dump.resolveSibling(dump.getFileName() + RecordIndex.SUFFIX);
+        try {
+            Files.write(dump, Dissector.hexStringToBytes("00000002C1C2FF000000C1C2C300000002C1C2"));
+            Dissector dissector = new Dissector(resource("TEST.xml"), "d");
+            RecordFraming framing = RecordFraming.lengthField(dissector.getLayout());
+            try (DumpFile file = DumpFile.open(dump, framing)) {
+                List<DumpRecord> records = file.records().collect(Collectors.toList());
+                assertEquals(2, records.size());
+                assertEquals(6, records.get(1).offset);
+                assertEquals(13, records.get(1).length());
+                assertEquals(1, new RecordQuery(dissector, "data/Data=AB").search(file).count());
+            }
+            assertEquals(2, RecordIndex.open(dump, sidecar, framing, dissector, List.of("data/Data")).size());
+        } finally {
+            Files.deleteIfExists(sidecar);
+            Files.delete(dump);
+        }
+    }
+
+    @Test
+    public void testUnreadableLengthInLargeFile() throws Exception {
+        Path dump = Files.createTempFile("large", ".bin");
+        try {
+            // sparse: an unreadable length, then zeros, which frame empty records
+            try (RandomAccessFile file = new RandomAccessFile(dump.toFile(), "rw")) {
+                file.write(Dissector.hexStringToBytes("FF000000"));
+                file.setLength(DumpFile.MAX_UNFRAMED + 8L);
+            }
+            Dissector dissector = new Dissector(resource("TEST.xml"), "d");
+            try (DumpFile file = DumpFile.open(dump, RecordFraming.lengthField(dissector.getLayout()))) {
+                Iterator<DumpRecord> records = file.iterator();
+                assertEquals(DumpFile.MAX_UNFRAMED, records.next().length());
+                DumpRecord next = records.next();
+                assertEquals(DumpFile.MAX_UNFRAMED, next.offset);
+                assertEquals(4, next.length());
+                assertEquals(4, records.next().length());
+                assertFalse(records.hasNext());
+            }
+        } finally {
+            Files.delete(dump);
+        }
+    }
+
+    @Test
+    public void testRecordIndex() throws Exception {
+        Path dump = Files.createTempFile("test", ".bin");
+        Path sidecar = dump.resolveSibling(dump.getFileName() + RecordIndex.SUFFIX);
+        try {
+            Files.write(dump, Dissector.hexStringToBytes("00000004C1C2C3C400000002C1C200000004C1C2C3C4000000014B"));
+            Dissector dissector = new Dissector(resource("TEST.xml"), "d");
+            RecordFraming framing = RecordFraming.lengthField(dissector.getLayout());
+            RecordIndex index = RecordIndex.open(dump, sidecar, framing, dissector, List.of("data/Data"));
+            assertEquals(4, index.size());
+            assertEquals(14, index.offset(2));
+            assertEquals("AB", index.key(1, "data/Data"));
+            assertEquals(List.of(0L, 2L), index.records("data/Data", "ABCD").boxed().collect(Collectors.toList()));
+            assertEquals(0, index.records("data/Data", "XY").count());
+            try (DumpFile file = DumpFile.open(dump, framing)) {
+                DumpRecord last = index.read(file, 3);
+                assertEquals(3, last.index);
+                assertEquals(dissector.parseWith("000000014B"), dissector.parseWith(last.data));
+                assertEquals(List.of(8L), index.records(file, "data/Data", "AB")
+                        .map(record -> record.offset).collect(Collectors.toList()));
+            }
+
+            RecordIndex stored = RecordIndex.read(sidecar);
+            assertTrue(stored.isCurrent(dump));
+            assertEquals(List.of("data/Data"), stored.keyPaths());
+            assertEquals(List.of("ABCD", "AB", "."), stored.values("data/Data"));
+            for (int record = 0; record < 4; record++) {
+                assertEquals(index.offset(record), stored.offset(record));
+                assertEquals(index.key(record, "data/Data"), stored.key(record, "data/Data"));
+            }
+
+            Files.write(dump, Dissector.hexStringToBytes("00000002C1C2"), StandardOpenOption.APPEND);
+            assertFalse(stored.isCurrent(dump));
+            assertEquals(5, RecordIndex.open(dump, sidecar, framing, dissector, List.of("data/Data")).size());
+            assertEquals(5, RecordIndex.read(sidecar).size());
+
+            // header, empty dump info, framing and layout, then 2^30 records with nothing after them
+            Files.write(sidecar, Dissector.hexStringToBytes("4449445800000002000000000000008080808008"));
+            assertThrows(IOException.class, () -> RecordIndex.read(sidecar));
+            assertEquals(5, RecordIndex.open(dump, sidecar, framing, dissector, List.of("data/Data")).size());
+        } finally {
+            Files.deleteIfExists(sidecar);
+            Files.delete(dump);
+        }
+    }
+
+    @Test
+    public void testRecordIndexFollowsLayout() throws Exception {
+        Path dump = Files.createTempFile("test", ".bin");
+        Path sidecar = dump.resolveSibling(dump.getFileName() + RecordIndex.SUFFIX);
+        Path edited = Files.createTempFile("TEST", ".xml");
+        try {
+            Files.write(dump, Dissector.hexStringToBytes("00000004C1C2C3C400000002C1C2"));
+            Files.writeString(edited, Files.readString(resource("TEST.xml").toPath())
+                    .replace("kind=\"filler\"", "length=\"1\""));
+            Dissector dissector = new Dissector(resource("TEST.xml"), "d");
+            RecordFraming framing = RecordFraming.lengthField(dissector.getLayout());
+            RecordIndex index = RecordIndex.open(dump, sidecar, framing, dissector, List.of("data/Data"));
+            assertEquals("ABCD", index.key(0, "data/Data"));
+            assertEquals(index.key(0, "data/Data"),
+                    RecordIndex.open(dump, sidecar, framing, dissector, List.of("data/Data")).key(0, "data/Data"));
+
+            dissector = new Dissector(edited.toFile(), "d");
+            index = RecordIndex.open(dump, sidecar, framing, dissector, List.of("data/Data"));
+            assertEquals("A", index.key(0, "data/Data"));
+            assertEquals("A", RecordIndex.read(sidecar).key(0, "data/Data"));
+        } finally {
+            Files.deleteIfExists(sidecar);
+            Files.delete(edited);
+            Files.delete(dump);
+        }
+    }
+
+    @Test
+    public void testRecordQuery() throws Exception {
+        byte[] record = Dissector.hexStringToBytes(Files.readString(resource("COMPLEX_in.txt").toPath()));
+        Path dump = Files.createTempFile("complex", ".bin");
+        try {
+            int records = 2 * RecordQuery.CHUNK + 100;
+            byte[] data = new byte[record.length * records];
+            for (int i = 0; i < records; i++) {
+                int at = i * record.length;
+                System.arraycopy(record, 0, data, at, record.length);
+                if (i % 3 == 1) {
+                    data[at + 6] = 0x40; // Created before 20-Oct-2019
+                    data[at + 42] = (byte) 0xC6; // Region F
+                } else if (i % 3 == 2) {
+                    data[at + 6] = 0x50;
+                }
+            }
+            Files.write(dump, data);
+            Dissector dissector = new Dissector(resource("COMPLEX.xml"), "d");
+            ExecutorService executor = Executors.newFixedThreadPool(2);
+            try (DumpFile file = DumpFile.open(dump, RecordFraming.lengthField(dissector.getLayout()), 4096)) {
+                RecordQuery europe = new RecordQuery(dissector, "body/Region=E", "body/Created>=20-Oct-2019");
+                List<Long> found = europe.search(file, executor, 2).map(r -> r.index).collect(Collectors.toList());
+                assertEquals(LongStream.range(0, records).filter(i -> i % 3 != 1).boxed().collect(Collectors.toList()),
+                        found);
+                List<DumpRecord> older = new RecordQuery(dissector, "body/Created<20-Oct-2019", "body/Region!=E")
+                        .search(file, executor, 2).collect(Collectors.toList());
+                assertEquals(records / 3, older.size());
+                assertEquals(4L * record.length, older.get(1).offset);
+                assertEquals(records, new RecordQuery(dissector, "body/item[2]/Qty>9").search(file).count());
+                assertEquals(0, new RecordQuery(dissector, "body/item[2]/Qty>9", "body/Nothing=1").search(file).count());
+                assertTrue(europe.matches(ByteBuffer.wrap(record)));
+            } finally {
+                executor.shutdown();
+            }
+            assertThrows(IllegalArgumentException.class, () -> new RecordQuery(dissector, "body/Region"));
+            assertThrows(IllegalArgumentException.class, () -> new RecordQuery(dissector, "body/Region!E"));
+        } finally {
+            Files.delete(dump);
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package org.anusrnm.dissector;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.util.Objects;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class LayoutCacheTest {
+    private final ClassLoader classloader = Thread.currentThread().getContextClassLoader();
+
+    private File resource(String name) {
+        return new File(Objects.requireNonNull(classloader.getResource(name)).getFile());
+    }
+
+    @Test
+    public void testHitsAndReload() throws Exception {
+        Path dir = Files.createTempDirectory("layouts");
+        Path layoutFile = dir.resolve("COMPLEX.xml");
+        try {
+            Files.copy(resource("COMPLEX.xml").toPath(), layoutFile);
+            LayoutCache cache = new LayoutCache(4, Duration.ZERO);
+            Layout first = cache.get(layoutFile.toFile());
+            assertSame(first, cache.get(new File(dir.toFile(), "./COMPLEX.xml")));
+            assertEquals(1, cache.misses());
+            assertEquals(1, cache.hits());
+
+            Files.writeString(layoutFile, Files.readString(layoutFile).replace("RecLen", "RecordLength"));
+            Files.setLastModifiedTime(layoutFile, FileTime.fromMillis(System.currentTimeMillis() + 5000));
+            Layout second = cache.get(layoutFile.toFile());
+            assertNotSame(first, second);
+            assertEquals("RecordLength", second.root.fields[0].name);
+            assertEquals(2, cache.misses());
+            assertEquals(1, cache.reloads());
+        } finally {
+            Files.deleteIfExists(layoutFile);
+            Files.delete(dir);
+        }
+    }
+
+    @Test
+    public void testCheckIntervalAndEviction() throws Exception {
+        LayoutCache cache = new LayoutCache(1, Duration.ofHours(1));
+        Layout complex = cache.get(resource("COMPLEX.xml"));
+        assertSame(complex, cache.get(resource("COMPLEX.xml")));
+        cache.get(resource("COMPLEX_ext.xml"));
+        assertEquals(1, cache.size());
+        assertNotSame(complex, cache.get(resource("COMPLEX.xml")));
+        assertEquals(3, cache.misses());
+        assertEquals(0, cache.reloads());
+    }
+
+    @Test
+    public void testSharedByDissectors() throws Exception {
+        Dissector one = new Dissector(resource("COMPLEX.xml"));
+        Dissector two = new Dissector(resource("COMPLEX.xml"), "d");
+        assertSame(one.getLayout(), two.getLayout());
+    }
+}
@@ -0,0 +1,82 @@
+package org.anusrnm.dissector;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Objects;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class LayoutSnapshotTest {
+    private final ClassLoader classloader = Thread.currentThread().getContextClassLoader();
+
+    private File resource(String name) {
+        return new File(Objects.requireNonNull(classloader.getResource(name)).getFile());
+    }
+
+    @Test
+    public void testSameDissectionAsXml() throws Exception {
+        Path dir = Files.createTempDirectory("layouts");
+        File layoutFile = dir.resolve("COMPLEX.xml").toFile();
+        Path external = dir.resolve("COMPLEX_ext.xml");
+        Path snapshot = dir.resolve("COMPLEX.xml" + LayoutSnapshot.SUFFIX);
+        try {
+            Files.copy(resource("COMPLEX.xml").toPath(), layoutFile.toPath());
+            Files.copy(resource("COMPLEX_ext.xml").toPath(), external);
+            LayoutSnapshot.write(layoutFile, snapshot);
+            byte[] written = Files.readAllBytes(snapshot);
+
+            Layout layout = LayoutSnapshot.read(layoutFile, snapshot);
+            assertNotNull(layout);
+            assertEquals(1, layout.externals.size());
+            assertSame(layout.externals.get("COMPLEX_ext.xml"), layout.external("COMPLEX_ext.xml"));
+            String hexString = Files.readString(resource("COMPLEX_in.txt").toPath());
+            assertEquals(Files.readString(resource("COMPLEX_result.txt").toPath()),
+                    new Dissector(layout, "d").parseWith(hexString));
+            assertEquals(new Dissector(layoutFile, "").parseWith(hexString),
+                    new Dissector(layout, "").parseWith(hexString));
+
+            LayoutSnapshot.write(layoutFile, snapshot);
+            assertArrayEquals(written, Files.readAllBytes(snapshot));
+        } finally {
+            Files.deleteIfExists(snapshot);
+            Files.deleteIfExists(external);
+            Files.deleteIfExists(layoutFile.toPath());
+            Files.delete(dir);
+        }
+    }
+
+    @Test
+    public void testStaleSnapshotFallsBackToXml() throws Exception {
+        Path dir = Files.createTempDirectory("layouts");
+        File layoutFile = dir.resolve("COMPLEX.xml").toFile();
+        Path external = dir.resolve("COMPLEX_ext.xml");
+        Path snapshot = dir.resolve("COMPLEX.snap");
+        try {
+            Files.copy(resource("COMPLEX.xml").toPath(), layoutFile.toPath());
+            Files.copy(resource("COMPLEX_ext.xml").toPath(), external);
+            LayoutSnapshot.write(layoutFile, snapshot);
+
+            Files.writeString(external, Files.readString(external).replace("ExtCount", "ExtTotal"));
+            assertNull(LayoutSnapshot.read(layoutFile, snapshot));
+            Layout layout = LayoutSnapshot.load(layoutFile, snapshot);
+            assertSame(LayoutCache.shared().get(layoutFile), layout);
+
+            LayoutSnapshot.write(layoutFile, snapshot);
+            assertEquals(1, LayoutSnapshot.read(layoutFile, snapshot).externals.size());
+            Files.write(snapshot, new byte[]{1, 2, 3});
+            assertSame(LayoutCache.shared().get(layoutFile), LayoutSnapshot.load(layoutFile, snapshot));
+        } finally {
+            Files.deleteIfExists(snapshot);
+            Files.deleteIfExists(external);
+            Files.deleteIfExists(layoutFile.toPath());
+            Files.delete(dir);
+        }
+    }
+}